@@ -0,0 +1,67 @@
+package benchmark.crypto;
+
+import java.security.GeneralSecurityException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import crypto.impl.AES;
+import crypto.impl.AESKey;
+import crypto.impl.AESSplitter;
+
+/**
+ * AES encryption and decryption of payloads, and their partitioning
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class AESBenchmark {
+
+	@Param({"65536", "1048576"})
+	public int payloadSize;
+
+	@Param({"8"})
+	public int partitions;
+
+	private AESKey key;
+	private byte[] payload;
+	private byte[] encrypted;
+
+	@Setup
+	public void setUp() throws GeneralSecurityException{
+		key = new AESKey(256);
+		payload = new byte[payloadSize];
+		new Random().nextBytes(payload);
+		encrypted = AES.encode(key, payload);
+	}
+
+	@Benchmark
+	public byte[] encode() throws GeneralSecurityException{
+		return AES.encode(key, payload);
+	}
+
+	@Benchmark
+	public byte[] decode() throws GeneralSecurityException{
+		return AES.decode(key, encrypted);
+	}
+
+	@Benchmark
+	public byte[][] splitUniform(){
+		return AESSplitter.splitUniform(encrypted, partitions);
+	}
+
+}
@@ -0,0 +1,91 @@
+package benchmark.crypto;
+
+import java.math.BigInteger;
+import java.security.SecureRandom;
+import java.util.concurrent.TimeUnit;
+
+import net.payload.RecipientContext;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import crypto.impl.Paillier;
+import crypto.impl.PaillierKeyPair;
+
+/**
+ * Paillier encryption and decryption, with the static methods,
+ * precomputed values and the Chinese Remainder Theorem
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PaillierBenchmark {
+
+	@Param({"1024", "2048"})
+	public int bits;
+
+	private PaillierKeyPair keyPair;
+	private Paillier encoder;
+	private Paillier decoder;
+	private Paillier crt;
+	private RecipientContext context;
+	private BigInteger plaintext;
+	private BigInteger ciphertext;
+
+	@Setup
+	public void setUp(){
+		keyPair = PaillierKeyPair.forceGenerate(bits, true);
+		encoder = new Paillier(keyPair.getPublicKey());
+		decoder = new Paillier(keyPair.getPrivateKey());
+		crt = new Paillier(keyPair);
+		context = new RecipientContext(keyPair.getPublicKey());
+		plaintext = new BigInteger(bits - 1, new SecureRandom());
+		ciphertext = Paillier.encode(keyPair.getPublicKey(), plaintext);
+	}
+
+	@Benchmark
+	public BigInteger encodeStatic(){
+		return Paillier.encode(keyPair.getPublicKey(), plaintext);
+	}
+
+	/**
+	 * Reuses the randomness of the instance, for reference only
+	 */
+	@Benchmark
+	public BigInteger encodePrecomputed(){
+		return encoder.encode(plaintext);
+	}
+
+	@Benchmark
+	public BigInteger encodeRecipientContext(){
+		return context.encode(plaintext);
+	}
+
+	@Benchmark
+	public BigInteger decodeStatic(){
+		return Paillier.decode(keyPair.getPrivateKey(), ciphertext);
+	}
+
+	@Benchmark
+	public BigInteger decodePrecomputed(){
+		return decoder.decode(ciphertext);
+	}
+
+	@Benchmark
+	public BigInteger decodeCRT(){
+		return crt.decode(ciphertext);
+	}
+
+}
@@ -0,0 +1,71 @@
+package benchmark.crypto;
+
+import java.math.BigInteger;
+import java.security.SecureRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import crypto.impl.AdditiveSplitter;
+import crypto.impl.MultiplicativeSplitter;
+import crypto.impl.Paillier;
+import crypto.impl.PaillierKeyPair;
+
+/**
+ * Splitting a key into homomorphic partitions and combining their ciphertexts
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SplitterBenchmark {
+
+	@Param({"1024", "2048"})
+	public int bits;
+
+	@Param({"4", "8", "16"})
+	public int partitions;
+
+	private BigInteger n;
+	private BigInteger data;
+	private BigInteger[] ciphertexts;
+
+	@Setup
+	public void setUp(){
+		PaillierKeyPair keyPair = PaillierKeyPair.forceGenerate(bits, true);
+		n = keyPair.getPublicKey().getN();
+		data = new BigInteger(bits - 1, new SecureRandom());
+		BigInteger[] split = AdditiveSplitter.split(data, bits, partitions, n);
+		ciphertexts = new BigInteger[partitions];
+		for (int i = 0; i < partitions; i++)
+			ciphertexts[i] = Paillier.encode(keyPair.getPublicKey(), split[i]);
+	}
+
+	@Benchmark
+	public BigInteger[] additiveSplit(){
+		return AdditiveSplitter.split(data, bits, partitions, n);
+	}
+
+	@Benchmark
+	public BigInteger additiveCombine(){
+		return AdditiveSplitter.combine(ciphertexts, n);
+	}
+
+	@Benchmark
+	public BigInteger[] multiplicativeSplit(){
+		return MultiplicativeSplitter.split(data, bits, partitions, n);
+	}
+
+}
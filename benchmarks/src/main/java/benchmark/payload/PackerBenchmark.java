@@ -0,0 +1,92 @@
+package benchmark.payload;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import net.payload.IllegalPacketException;
+import net.payload.Packer;
+import net.payload.PacketCombiner;
+import net.payload.RawPacket;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import crypto.impl.PaillierKeyPair;
+
+/**
+ * Packing a block, reading its packets and combining them into the block again
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PackerBenchmark {
+
+	@Param({"1024", "2048"})
+	public int bits;
+
+	@Param({"4", "8", "16"})
+	public int partitions;
+
+	@Param({"65536", "1048576"})
+	public int payloadSize;
+
+	private PaillierKeyPair keyPair;
+	private byte[] payload;
+	private byte[][] packed;
+	private RawPacket[] packets;
+
+	@Setup
+	public void setUp() throws GeneralSecurityException, IOException{
+		keyPair = PaillierKeyPair.forceGenerate(bits, true);
+		payload = new byte[payloadSize];
+		new Random().nextBytes(payload);
+		packed = Packer.pack(keyPair.getPublicKey(), partitions, 1, payload);
+		packets = read();
+	}
+
+	@Benchmark
+	public byte[][] pack() throws GeneralSecurityException{
+		return Packer.pack(keyPair.getPublicKey(), partitions, 1, payload);
+	}
+
+	@Benchmark
+	public RawPacket[] read() throws IOException{
+		RawPacket[] out = new RawPacket[packed.length];
+		for (int i = 0; i < packed.length; i++)
+			out[i] = Packer.read(keyPair.getPrivateKey(), new ByteArrayInputStream(packed[i]));
+		return out;
+	}
+
+	@Benchmark
+	public boolean combine() throws IllegalPacketException{
+		PacketCombiner combiner = new PacketCombiner(keyPair.getPrivateKey(), 1);
+		boolean finished = false;
+		for (RawPacket packet : packets)
+			finished = combiner.read(packet);
+		return finished;
+	}
+
+	@Benchmark
+	public byte[] combineFinish() throws IllegalPacketException, GeneralSecurityException{
+		PacketCombiner combiner = new PacketCombiner(keyPair.getPrivateKey(), 1);
+		for (RawPacket packet : packets)
+			combiner.read(packet);
+		return combiner.finish();
+	}
+
+}
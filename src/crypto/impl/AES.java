@@ -1,12 +1,23 @@
 package crypto.impl;
 
+import java.nio.ByteBuffer;
+import java.security.InvalidAlgorithmParameterException;
 import java.security.InvalidKeyException;
 import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 
 import javax.crypto.BadPaddingException;
 import javax.crypto.Cipher;
 import javax.crypto.IllegalBlockSizeException;
 import javax.crypto.NoSuchPaddingException;
+import javax.crypto.ShortBufferException;
+import javax.crypto.spec.IvParameterSpec;
 
 /**
  * Class to encrypt and decrypt AES data.
@@ -32,6 +43,30 @@ public class AES {
         return out;
 	}
 	
+	/**
+	 * Encrypt data using a key, reading it in place (for instance from a mapped file)
+	 * @param key The secret key
+	 * @param data The data to encrypt, from its position to its limit (which is not modified)
+	 */
+	public static byte[] encode(AESKey key, ByteBuffer data) throws InvalidKeyException, IllegalBlockSizeException, BadPaddingException{
+		Cipher cipher;
+		byte[] out;
+		try {
+			cipher = Cipher.getInstance("AES");
+			cipher.init(Cipher.ENCRYPT_MODE, key.getKey());
+			out = new byte[cipher.getOutputSize(data.remaining())];
+			int length = cipher.doFinal(data.duplicate(), ByteBuffer.wrap(out));
+			if (length != out.length)
+				out = Arrays.copyOf(out, length);
+		} catch (NoSuchAlgorithmException | NoSuchPaddingException e) {
+			throw new CryptoSupportError("AES");
+		} catch (ShortBufferException e) {
+			// Not possible, the output is sized by the cipher
+			throw new IllegalStateException(e);
+		}
+        return out;
+	}
+	
 	/**
 	 * Decrypt data using a key
 	 * @param key The secret key
@@ -50,4 +85,163 @@ public class AES {
         return out;
 	}
 	
+	/**
+	 * Decrypt data stored in consecutive parts using a key,
+	 * reading the parts (which may be direct buffers) in place
+	 * @param key The secret key
+	 * @param parts The encrypted data, in sequence, from their positions to their limits
+	 */
+	public static byte[] decode(AESKey key, ByteBuffer[] parts) throws InvalidKeyException, IllegalBlockSizeException, BadPaddingException{
+		int size = 0;
+		for (ByteBuffer part : parts)
+			size += part.remaining();
+		Cipher cipher;
+		byte[] out = new byte[size];
+		ByteBuffer output = ByteBuffer.wrap(out);
+		try {
+			cipher = Cipher.getInstance("AES");
+			cipher.init(Cipher.DECRYPT_MODE, key.getKey());
+			for (ByteBuffer part : parts)
+				cipher.update(part, output);
+			cipher.doFinal(ByteBuffer.allocate(0), output);
+		} catch (NoSuchAlgorithmException | NoSuchPaddingException e) {
+			throw new CryptoSupportError("AES");
+		} catch (ShortBufferException e) {
+			// Not possible, the plaintext is never longer than the ciphertext
+			throw new IllegalStateException(e);
+		}
+		return Arrays.copyOf(out, output.position());
+	}
+	
+	/**
+	 * Encrypt or decrypt (these are the same) one segment of data in counter mode.
+	 * Every segment starts at its own counter block, such that the segments of
+	 * a key can be processed independently and in any order.
+	 * A key must never be used for two different messages.
+	 * 
+	 * @param key The secret key
+	 * @param segment The index of the segment
+	 * @param in The data to read from
+	 * @param inOffset The start of the segment in the input
+	 * @param length The length of the segment
+	 * @param out The data to write to
+	 * @param outOffset The start of the segment in the output
+	 */
+	public static void codeSegment(AESKey key, int segment, byte[] in, int inOffset, int length, byte[] out, int outOffset) throws InvalidKeyException{
+		codeSegment(key, segment, 0, in, inOffset, length, out, outOffset);
+	}
+	
+	/**
+	 * Encrypt or decrypt (these are the same) part of one segment of data in counter mode,
+	 * starting at a certain position within the segment
+	 * 
+	 * @param key The secret key
+	 * @param segment The index of the segment
+	 * @param position The position of the part within the segment
+	 * @param in The data to read from
+	 * @param inOffset The start of the part in the input
+	 * @param length The length of the part
+	 * @param out The data to write to
+	 * @param outOffset The start of the part in the output
+	 */
+	public static void codeSegment(AESKey key, int segment, long position, byte[] in, int inOffset, int length, byte[] out, int outOffset) throws InvalidKeyException{
+		try {
+			Cipher cipher = Cipher.getInstance("AES/CTR/NoPadding");
+			// Seek to the counter block of the position
+			byte[] iv = ByteBuffer.allocate(16).putInt(segment).putInt(0).putLong(position / 16).array();
+			cipher.init(Cipher.ENCRYPT_MODE, key.getKey(), new IvParameterSpec(iv));
+			int skip = (int) (position % 16);
+			if (skip > 0)
+				cipher.update(new byte[skip]);
+			cipher.doFinal(in, inOffset, length, out, outOffset);
+		} catch (NoSuchAlgorithmException | NoSuchPaddingException e) {
+			throw new CryptoSupportError("AES/CTR");
+		} catch (InvalidAlgorithmParameterException | IllegalBlockSizeException | BadPaddingException | ShortBufferException e) {
+			// Not possible for a stream mode without padding
+			throw new IllegalStateException(e);
+		}
+	}
+	
+	/**
+	 * Encrypt or decrypt (these are the same) data as consecutive independent
+	 * counter mode segments, processing the segments in parallel
+	 * 
+	 * @param key The secret key
+	 * @param data The data to process
+	 * @param segments The sizes of the segments, which must add up to the data length
+	 * @param pool The pool to process the segments on
+	 */
+	public static byte[] codeSegmented(final AESKey key, final byte[] data, int[] segments, ForkJoinPool pool) throws InvalidKeyException{
+		final byte[] out = new byte[data.length];
+		List<Callable<Void>> tasks = new ArrayList<>();
+		int position = 0;
+		for (int i = 0; i < segments.length; i++){
+			final int segment = i;
+			final int offset = position;
+			final int length = segments[i];
+			tasks.add(new Callable<Void>(){
+				@Override
+				public Void call() throws InvalidKeyException {
+					codeSegment(key, segment, data, offset, length, out, offset);
+					return null;
+				}
+			});
+			position += length;
+		}
+		if (position != data.length)
+			throw new IllegalArgumentException("Segments of " + position + " bytes do not cover " + data.length + " bytes");
+		invokeAll(tasks, pool);
+		return out;
+	}
+	
+	/**
+	 * Encrypt or decrypt (these are the same) separately stored independent
+	 * counter mode segments into one consecutive output, processing the segments in parallel
+	 * 
+	 * @param key The secret key
+	 * @param segments The data of the segments (in sequence)
+	 * @param pool The pool to process the segments on
+	 */
+	public static byte[] codeSegments(final AESKey key, byte[][] segments, ForkJoinPool pool) throws InvalidKeyException{
+		int size = 0;
+		for (byte[] segment : segments)
+			size += segment.length;
+		final byte[] out = new byte[size];
+		List<Callable<Void>> tasks = new ArrayList<>();
+		int position = 0;
+		for (int i = 0; i < segments.length; i++){
+			final int segment = i;
+			final int offset = position;
+			final byte[] data = segments[i];
+			tasks.add(new Callable<Void>(){
+				@Override
+				public Void call() throws InvalidKeyException {
+					codeSegment(key, segment, data, 0, data.length, out, offset);
+					return null;
+				}
+			});
+			position += data.length;
+		}
+		invokeAll(tasks, pool);
+		return out;
+	}
+	
+	/**
+	 * Run segment tasks and wait for all of them
+	 */
+	private static void invokeAll(List<Callable<Void>> tasks, ForkJoinPool pool) throws InvalidKeyException{
+		for (Future<Void> future : pool.invokeAll(tasks)){
+			try {
+				future.get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IllegalStateException(e);
+			} catch (ExecutionException e) {
+				if (e.getCause() instanceof InvalidKeyException)
+					throw (InvalidKeyException) e.getCause();
+				throw new IllegalStateException(e.getCause());
+			}
+		}
+	}
+	
 }
@@ -13,6 +13,106 @@ public class AESSplitter {
 	 * Returns the partitions (in sequence)
 	 */
 	public static byte[][] splitUniform(byte[] data, int partitions){
+		int[] sizes = sizeUniform(data.length, partitions);
+		int position = 0;
+		byte[][] out = new byte[partitions][];
+		for (int i = 0; i < partitions; i++){
+			out[i] = new byte[sizes[i]];
+			System.arraycopy(data, position, out[i], 0, sizes[i]);
+			position += sizes[i];
+		}
+		return out;
+	}
+	
+	/**
+	 * Determine the partition sizes splitUniform would use for data of a certain
+	 * length, for callers slicing the data without copying it
+	 * Returns the sizes of the partitions (in sequence)
+	 */
+	public static int[] sizeUniform(int length, int partitions){
+		Random rnd = new Random();
+		int position = 0;
+		int[] out = new int[partitions];
+		for (int i = 0; i < partitions; i++){
+			int maxrange = ((length-position)/(partitions-i))/3;
+			int wanted = (length-position)/(partitions-i);
+			int size = rndIndex(rnd, wanted, maxrange);
+			if (size + position > length || i == partitions - 1)
+				size = length - position;
+			out[i] = size;
+			position += size;
+		}
+		return out;
+	}
+	
+	/**
+	 * Split the data into partitions with sizes proportional to their weights,
+	 * for instance the throughput of the channel each partition is sent over
+	 * Returns the partitions (in sequence)
+	 */
+	public static byte[][] splitWeighted(byte[] data, double[] weights, double jitter){
+		int[] sizes = sizeWeighted(data.length, weights, jitter);
+		int position = 0;
+		byte[][] out = new byte[weights.length][];
+		for (int i = 0; i < weights.length; i++){
+			out[i] = new byte[sizes[i]];
+			System.arraycopy(data, position, out[i], 0, sizes[i]);
+			position += sizes[i];
+		}
+		return out;
+	}
+	
+	/**
+	 * Determine partition sizes proportional to their weights, every size but that of the
+	 * heaviest partition (the last of them) deviating from its weighted size by at least jitter
+	 * and at most twice jitter times that size, such that the sizes never exactly reveal the weights
+	 * Returns the sizes of the partitions (in sequence)
+	 * @throws IllegalArgumentException If a weight is negative, all weights are 0
+	 * 									or the jitter is not in (0, 0.5)
+	 */
+	public static int[] sizeWeighted(int length, double[] weights, double jitter){
+		double remainingWeight = 0;
+		for (double weight : weights){
+			if (weight < 0 || Double.isNaN(weight) || Double.isInfinite(weight))
+				throw new IllegalArgumentException("Illegal weight " + weight);
+			remainingWeight += weight;
+		}
+		if (remainingWeight == 0)
+			throw new IllegalArgumentException("All weights are 0");
+		if (!(jitter > 0 && jitter < 0.5))
+			throw new IllegalArgumentException("Jitter " + jitter + " is not in (0, 0.5)");
+		// The heaviest partition takes what is left, its share changes the least by the earlier jitter
+		int heaviest = 0;
+		for (int i = 0; i < weights.length; i++)
+			if (weights[i] >= weights[heaviest])
+				heaviest = i;
+		Random rnd = new Random();
+		int left = length;
+		int[] out = new int[weights.length];
+		for (int i = 0; i < weights.length; i++){
+			if (i == heaviest)
+				continue;
+			// Spread what is left over the remaining partitions, correcting earlier jitter
+			int wanted = remainingWeight > 0 ? (int) (left * (weights[i] / remainingWeight)) : 0;
+			int size = Math.min(Math.max(0, rndDeviation(rnd, wanted, wanted * jitter)), left);
+			remainingWeight -= weights[i];
+			out[i] = size;
+			left -= size;
+		}
+		out[heaviest] = left;
+		return out;
+	}
+	
+	/**
+	 * Split the data into a certain amount of partitions, which will
+	 * likely have the size of: dataSize/partitions, but will never
+	 * exceed maxSize bytes (for instance to fit a single datagram)
+	 * Returns the partitions (in sequence)
+	 * @throws IllegalArgumentException If the data does not fit in the partitions
+	 */
+	public static byte[][] splitBounded(byte[] data, int partitions, int maxSize){
+		if ((long) maxSize * partitions < data.length)
+			throw new IllegalArgumentException("Cannot fit " + data.length + " bytes in " + partitions + " partitions of " + maxSize + " bytes");
 		Random rnd = new Random();
 		int position = 0;
 		byte[][] out = new byte[partitions][];
@@ -20,6 +120,9 @@ public class AESSplitter {
 			int maxrange = ((data.length-position)/(partitions-i))/3;
 			int wanted = (data.length-position)/(partitions-i);
 			int size = rndIndex(rnd, wanted, maxrange);
+			// Leave no more for the remaining partitions than they can hold
+			int minsize = (data.length - position) - (partitions-i-1)*maxSize;
+			size = Math.min(Math.max(size, minsize), maxSize);
 			if (size + position > data.length || i == partitions - 1)
 				size = data.length - position;
 			out[i] = new byte[size];
@@ -29,6 +132,15 @@ public class AESSplitter {
 		return out;
 	}
 	
+	/**
+	 * Get a random value deviating from the mean by at least minrange and at most twice minrange,
+	 * with the deviations close to minrange being the most likely
+	 */
+	private static int rndDeviation(Random rnd, int mean, double minrange){
+		double offset = minrange + Math.min(Math.abs(rnd.nextGaussian()) / 3, 1) * minrange;
+		return (int) Math.round(rnd.nextBoolean() ? mean + offset : mean - offset);
+	}
+	
 	/**
 	 * Get a Gaussian random value which has a 99% chance to naturally
 	 * fall in mean + [-maxrange, maxrange] (otherwise it is clamped
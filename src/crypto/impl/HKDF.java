@@ -0,0 +1,41 @@
+package crypto.impl;
+
+import java.io.ByteArrayOutputStream;
+
+/**
+ * Class to derive keys from a secret (RFC 5869, using HMAC-SHA256)
+ */
+public class HKDF {
+
+	/**
+	 * Derive a key from a secret
+	 * 
+	 * @param secret The input keying material
+	 * @param salt Non-secret random value, may be empty
+	 * @param info Context the key is bound to
+	 * @param length The length of the derived key in bytes (at most 8160)
+	 * @return The derived key
+	 */
+	public static byte[] derive(byte[] secret, byte[] salt, byte[] info, int length){
+		if (length > 255 * 32)
+			throw new IllegalArgumentException("Cannot derive more than " + (255 * 32) + " bytes");
+		// Extract
+		byte[] prk = HMAC.hash(salt.length == 0 ? new byte[32] : salt, secret);
+		// Expand
+		byte[] out = new byte[length];
+		byte[] t = new byte[0];
+		int position = 0;
+		for (int i = 1; position < length; i++){
+			ByteArrayOutputStream input = new ByteArrayOutputStream();
+			input.write(t, 0, t.length);
+			input.write(info, 0, info.length);
+			input.write(i);
+			t = HMAC.hash(prk, input.toByteArray());
+			int size = Math.min(t.length, length - position);
+			System.arraycopy(t, 0, out, position, size);
+			position += size;
+		}
+		return out;
+	}
+	
+}
@@ -0,0 +1,52 @@
+package crypto.impl;
+
+import java.security.InvalidKeyException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Class to authenticate data.
+ * Wraps the default Java HMAC-SHA256 implementation.
+ */
+public class HMAC {
+
+	/**
+	 * Calculate the HMAC-SHA256 of some data
+	 * @param key The secret key
+	 * @param data The data to authenticate
+	 */
+	public static byte[] hash(byte[] key, byte[] data){
+		return hash(key, data, 0, data.length);
+	}
+	
+	/**
+	 * Calculate the HMAC-SHA256 of part of some data
+	 * @param key The secret key
+	 * @param data The data to authenticate
+	 * @param offset The start of the part to authenticate
+	 * @param length The length of the part to authenticate
+	 */
+	public static byte[] hash(byte[] key, byte[] data, int offset, int length){
+		try {
+			Mac mac = Mac.getInstance("HmacSHA256");
+			mac.init(new SecretKeySpec(key, "HmacSHA256"));
+			mac.update(data, offset, length);
+			return mac.doFinal();
+		} catch (NoSuchAlgorithmException e) {
+			throw new CryptoSupportError("HMAC-SHA256");
+		} catch (InvalidKeyException e) {
+			throw new IllegalArgumentException("Invalid HMAC key", e);
+		}
+	}
+	
+	/**
+	 * Test whether the HMAC of the given data matches the given tag in constant time
+	 */
+	public static boolean test(byte[] key, byte[] data, byte[] tag){
+		return MessageDigest.isEqual(hash(key, data), tag);
+	}
+	
+}
@@ -0,0 +1,146 @@
+package crypto.impl;
+
+/**
+ * Systematic Reed-Solomon erasure code over GF(256).
+ *
+ * A block is cut into data shards, to which parity shards are added. The shards
+ * are the rows of an identity matrix stacked on a Cauchy matrix, applied to the data
+ * shards, so any data shards amount of shards suffice to reconstruct the block.
+ */
+public class ReedSolomon {
+
+	private static final int[] EXP = new int[512];
+	private static final int[] LOG = new int[256];
+
+	static {
+		// Generator 2 of the field with polynomial x^8 + x^4 + x^3 + x^2 + 1
+		int x = 1;
+		for (int i = 0; i < 255; i++){
+			EXP[i] = x;
+			LOG[x] = i;
+			x <<= 1;
+			if (x >= 256)
+				x ^= 0x11d;
+		}
+		for (int i = 255; i < EXP.length; i++)
+			EXP[i] = EXP[i - 255];
+	}
+
+	private static int mul(int a, int b){
+		if (a == 0 || b == 0)
+			return 0;
+		return EXP[LOG[a] + LOG[b]];
+	}
+
+	private static int inv(int a){
+		return EXP[255 - LOG[a]];
+	}
+
+	/**
+	 * The coefficient of a data shard in a shard
+	 */
+	private static int row(int shard, int dataShard, int dataShards){
+		if (shard < dataShards)
+			return shard == dataShard ? 1 : 0;
+		// x = shard and y = dataShard never coincide, so 1/(x + y) exists
+		return inv(shard ^ dataShard);
+	}
+
+	/**
+	 * Cut data into shards, padded with zeroes to an equal size
+	 *
+	 * @param data The data to encode
+	 * @param dataShards The amount of shards needed to decode
+	 * @param totalShards The amount of shards to create
+	 * @return The shards, of which the first dataShards hold the data itself
+	 */
+	public static byte[][] encode(byte[] data, int dataShards, int totalShards){
+		if (dataShards < 1 || dataShards > totalShards || totalShards > 256)
+			throw new IllegalArgumentException("Cannot create " + totalShards + " shards from " + dataShards);
+		int size = (data.length + dataShards - 1) / dataShards;
+		byte[][] out = new byte[totalShards][size];
+		for (int i = 0; i < dataShards; i++){
+			int offset = i * size;
+			if (offset < data.length)
+				System.arraycopy(data, offset, out[i], 0, Math.min(size, data.length - offset));
+		}
+		for (int i = dataShards; i < totalShards; i++){
+			for (int j = 0; j < dataShards; j++){
+				int c = row(i, j, dataShards);
+				byte[] in = out[j];
+				byte[] parity = out[i];
+				for (int b = 0; b < size; b++)
+					parity[b] ^= mul(c, in[b] & 0xff);
+			}
+		}
+		return out;
+	}
+
+	/**
+	 * Reconstruct data from any dataShards amount of its shards
+	 *
+	 * @param shards The shards, indexed as created, with null for missing shards
+	 * @param dataShards The amount of shards needed to decode
+	 * @param length The length of the original data
+	 * @return The data
+	 * @throws IllegalArgumentException If too few shards are available
+	 */
+	public static byte[] decode(byte[][] shards, int dataShards, int length){
+		int[] present = new int[dataShards];
+		int found = 0;
+		for (int i = 0; i < shards.length && found < dataShards; i++)
+			if (shards[i] != null)
+				present[found++] = i;
+		if (found < dataShards)
+			throw new IllegalArgumentException("Need " + dataShards + " shards, only " + found + " available");
+		int size = shards[present[0]].length;
+
+		// Invert the rows of the available shards (Gauss-Jordan)
+		int[][] m = new int[dataShards][2 * dataShards];
+		for (int i = 0; i < dataShards; i++){
+			for (int j = 0; j < dataShards; j++)
+				m[i][j] = row(present[i], j, dataShards);
+			m[i][dataShards + i] = 1;
+		}
+		for (int c = 0; c < dataShards; c++){
+			int pivot = c;
+			while (m[pivot][c] == 0)
+				pivot++;
+			int[] swap = m[c];
+			m[c] = m[pivot];
+			m[pivot] = swap;
+			int scale = inv(m[c][c]);
+			for (int j = 0; j < 2 * dataShards; j++)
+				m[c][j] = mul(m[c][j], scale);
+			for (int r = 0; r < dataShards; r++){
+				int factor = m[r][c];
+				if (r == c || factor == 0)
+					continue;
+				for (int j = 0; j < 2 * dataShards; j++)
+					m[r][j] ^= mul(factor, m[c][j]);
+			}
+		}
+
+		byte[] out = new byte[length];
+		for (int i = 0; i < dataShards; i++){
+			int offset = i * size;
+			if (offset >= length)
+				break;
+			int len = Math.min(size, length - offset);
+			if (shards[i] != null){
+				System.arraycopy(shards[i], 0, out, offset, len);
+				continue;
+			}
+			for (int j = 0; j < dataShards; j++){
+				int c = m[i][dataShards + j];
+				if (c == 0)
+					continue;
+				byte[] in = shards[present[j]];
+				for (int b = 0; b < len; b++)
+					out[offset + b] ^= mul(c, in[b] & 0xff);
+			}
+		}
+		return out;
+	}
+
+}
@@ -0,0 +1,85 @@
+package crypto.impl;
+
+import java.math.BigInteger;
+import java.security.SecureRandom;
+
+/**
+ * Class for creating a threshold (Shamir) split of a message,
+ * of which any threshold partitions suffice to combine the ciphertexts.
+ *
+ * Partition i (starting at 0) is the polynomial evaluated at x = i + 1.
+ * Combining raises every ciphertext to its Lagrange coefficient, such that
+ * the product is an encryption of the message.
+ */
+public class ThresholdSplitter {
+
+	/**
+	 * Split plaintext into multiple plaintexts, any threshold of which determine it
+	 *
+	 * @param data The plaintext to split
+	 * @param threshold The amount of partitions needed to combine
+	 * @param amount The amount of partitions to create
+	 * @param n The modulus
+	 * @return The partial plaintexts
+	 */
+	public static BigInteger[] split(BigInteger data, int threshold, int amount, BigInteger n){
+		if (threshold < 1 || threshold > amount)
+			throw new IllegalArgumentException("Threshold " + threshold + " out of range for " + amount + " partitions");
+		SecureRandom sr = new SecureRandom();
+		BigInteger[] coefficients = new BigInteger[threshold];
+		coefficients[0] = data.mod(n);
+		for (int i = 1; i < threshold; i++)
+			coefficients[i] = new BigInteger(n.bitLength() + 64, sr).mod(n);
+		BigInteger[] out = new BigInteger[amount];
+		for (int i = 0; i < amount; i++){
+			// Horner's rule
+			BigInteger x = BigInteger.valueOf(i + 1);
+			BigInteger y = BigInteger.ZERO;
+			for (int j = threshold - 1; j >= 0; j--)
+				y = y.multiply(x).add(coefficients[j]).mod(n);
+			out[i] = y;
+		}
+		return out;
+	}
+
+	/**
+	 * The Lagrange coefficients for interpolating at 0 from certain partitions
+	 *
+	 * @param indices The indices of the partitions
+	 * @param n The modulus
+	 */
+	public static BigInteger[] coefficients(int[] indices, BigInteger n){
+		BigInteger[] out = new BigInteger[indices.length];
+		for (int i = 0; i < indices.length; i++){
+			BigInteger num = BigInteger.ONE;
+			BigInteger den = BigInteger.ONE;
+			BigInteger xi = BigInteger.valueOf(indices[i] + 1);
+			for (int j = 0; j < indices.length; j++){
+				if (i == j)
+					continue;
+				BigInteger xj = BigInteger.valueOf(indices[j] + 1);
+				num = num.multiply(xj).mod(n);
+				den = den.multiply(xj.subtract(xi)).mod(n);
+			}
+			out[i] = num.multiply(den.modInverse(n)).mod(n);
+		}
+		return out;
+	}
+
+	/**
+	 * Given threshold homomorphically partitioned ciphertexts, combine these
+	 *
+	 * @param split The homomorphic partitions
+	 * @param indices The indices of the partitions
+	 * @param n The modulus
+	 */
+	public static BigInteger combine(BigInteger[] split, int[] indices, BigInteger n){
+		BigInteger n2 = n.multiply(n);
+		BigInteger[] lambda = coefficients(indices, n);
+		BigInteger total = BigInteger.ONE;
+		for (int i = 0; i < split.length; i++)
+			total = total.multiply(split[i].modPow(lambda[i], n2)).mod(n2);
+		return total;
+	}
+
+}
@@ -0,0 +1,182 @@
+package net.file;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.security.InvalidKeyException;
+import java.util.BitSet;
+
+import javax.crypto.BadPaddingException;
+import javax.crypto.IllegalBlockSizeException;
+
+import net.payload.IllegalPacketException;
+import net.payload.RawPacket;
+import net.payload.ReassemblyEngine;
+import crypto.impl.PaillierPrivateKey;
+
+/**
+ * Receives a file sent by a FileSender, writing every decrypted block
+ * into a preallocated memory mapping of the destination at its offset.
+ *
+ * Completed blocks are recorded in a bitmap, persisted next to the destination
+ * (with the ".part" suffix) after the block itself is written to disk.
+ * Opening an interrupted transfer again resumes from that bitmap, and the
+ * bitmap is deleted once the transfer is complete.
+ */
+public class FileReceiver implements Closeable {
+
+	/**
+	 * Time in milliseconds in which a block must complete
+	 */
+	public static final long DEFAULT_TIMEOUT = 60000;
+
+	/**
+	 * Amount of partial blocks buffered at most
+	 */
+	private static final int BUFFERED_BLOCKS = 64;
+
+	/**
+	 * Size of the checkpoint header: file size and block size
+	 */
+	private static final int CHECKPOINT_HEADER = 12;
+
+	private final long size;
+	private final int blockSize;
+	private final long blocks;
+	private final ReassemblyEngine engine;
+	private final FileChannel channel;
+	private final MappedRegions regions;
+	private final Path checkpointPath;
+	private final FileChannel checkpointChannel;
+	private final MappedByteBuffer checkpoint;
+	private final BitSet completed;
+
+	/**
+	 * Open a transfer, resuming it if it was interrupted before
+	 *
+	 * @param key The Private Key for decoding
+	 * @param destination The file to write
+	 * @param size The size of the file in bytes
+	 * @param blockSize The size of a block in bytes, as used by the sender
+	 * @throws IOException If the destination or its checkpoint could not be opened
+	 */
+	public FileReceiver(PaillierPrivateKey key, Path destination, long size, int blockSize) throws IOException{
+		this.size = size;
+		this.blockSize = blockSize;
+		this.blocks = MappedRegions.blocks(size, blockSize);
+		if (blocks > Integer.MAX_VALUE)
+			throw new IllegalArgumentException("File of " + blocks + " blocks has too many blocks");
+		this.engine = new ReassemblyEngine(key, (long) BUFFERED_BLOCKS * blockSize, DEFAULT_TIMEOUT);
+
+		this.checkpointPath = Paths.get(destination.toString() + ".part");
+		boolean resume = Files.exists(checkpointPath) && Files.exists(destination);
+		this.channel = FileChannel.open(destination, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+		this.checkpointChannel = FileChannel.open(checkpointPath, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+		this.checkpoint = checkpointChannel.map(FileChannel.MapMode.READ_WRITE, 0, CHECKPOINT_HEADER + (blocks + 7) / 8);
+		if (resume && (checkpoint.getLong(0) != size || checkpoint.getInt(8) != blockSize))
+			resume = false;
+		if (!resume){
+			// Start over, the bitmap must be cleared before the destination is reused
+			for (int i = CHECKPOINT_HEADER; i < checkpoint.capacity(); i++)
+				checkpoint.put(i, (byte) 0);
+			checkpoint.putLong(0, size).putInt(8, blockSize);
+			checkpoint.force();
+			channel.truncate(0);
+		}
+		if (channel.size() < size){
+			// Preallocate by writing the last byte
+			channel.write(ByteBuffer.wrap(new byte[1]), size - 1);
+		}
+		this.regions = new MappedRegions(channel, FileChannel.MapMode.READ_WRITE, size, blockSize);
+		ByteBuffer bitmap = checkpoint.duplicate();
+		bitmap.position(CHECKPOINT_HEADER);
+		this.completed = BitSet.valueOf(bitmap.slice());
+	}
+
+	/**
+	 * Combine a packet of the transfer, writing its block once complete
+	 *
+	 * @param p The packet to add
+	 * @return Whether this packet completed a block
+	 * @throws IOException If the block could not be written
+	 * @throws IllegalPacketException If the packet is malformed or not of this file
+	 * @throws InvalidKeyException If the AES key decoded incorrectly
+	 * @throws IllegalBlockSizeException If the data blocks were malformed
+	 * @throws BadPaddingException If the data blocks were malformed
+	 */
+	public boolean offer(RawPacket p) throws IOException, IllegalPacketException, InvalidKeyException, IllegalBlockSizeException, BadPaddingException{
+		long block = p.getSequenceNumber();
+		if (block < 0 || block >= blocks)
+			throw new IllegalPacketException("Block " + block + " is not part of a file of " + blocks + " blocks");
+		synchronized (this){
+			if (completed.get((int) block))
+				return false;
+		}
+		byte[] data = engine.offer(p);
+		if (data == null)
+			return false;
+		if (data.length != regions.length(block))
+			throw new IllegalPacketException("Block " + block + " of " + data.length + " bytes should be " + regions.length(block) + " bytes");
+		synchronized (this){
+			if (completed.get((int) block))
+				return false;
+			regions.block(block).put(data);
+			regions.force(block);
+			// Only record the block once it is on disk
+			completed.set((int) block);
+			int index = CHECKPOINT_HEADER + (int) (block / 8);
+			checkpoint.put(index, (byte) (checkpoint.get(index) | (1 << (block % 8))));
+			checkpoint.force();
+		}
+		return true;
+	}
+
+	/**
+	 * Expire the partial blocks which did not complete in time, they have to be sent again
+	 *
+	 * @return The indices of the expired blocks
+	 */
+	public long[] expire(){
+		return engine.expire();
+	}
+
+	/**
+	 * The blocks written so far, to be sent to the FileSender when resuming
+	 */
+	public synchronized BitSet getCompleted(){
+		return (BitSet) completed.clone();
+	}
+
+	/**
+	 * Whether every block of the file is written
+	 */
+	public synchronized boolean isComplete(){
+		return completed.cardinality() == blocks;
+	}
+
+	/**
+	 * The amount of blocks of the file
+	 */
+	public long getBlocks(){
+		return blocks;
+	}
+
+	/**
+	 * Close the destination, deleting the checkpoint if the transfer is complete
+	 */
+	@Override
+	public void close() throws IOException{
+		boolean complete = isComplete();
+		channel.close();
+		checkpointChannel.close();
+		if (complete)
+			Files.deleteIfExists(checkpointPath);
+	}
+
+}
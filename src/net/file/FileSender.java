@@ -0,0 +1,101 @@
+package net.file;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.BitSet;
+
+import javax.crypto.IllegalBlockSizeException;
+
+import net.payload.KeyBundle;
+import net.payload.Packer;
+import net.payload.RecipientContext;
+
+/**
+ * Packs a file block by block straight from a memory mapping of it,
+ * without reading the blocks onto the heap first.
+ *
+ * The sequence number of a block is its offset divided by the block size,
+ * such that a receiver knows where every block belongs.
+ */
+public class FileSender implements Closeable {
+
+	private final RecipientContext context;
+	private final int partitions;
+	private final int blockSize;
+	private final long size;
+	private final FileChannel channel;
+	private final MappedRegions regions;
+
+	/**
+	 * @param context The context of the receiver
+	 * @param partitions The amount of channels to partition for
+	 * @param source The file to send
+	 * @param blockSize The size of a block in bytes
+	 * @throws IOException If the file could not be opened
+	 */
+	public FileSender(RecipientContext context, int partitions, Path source, int blockSize) throws IOException{
+		this.context = context;
+		this.partitions = partitions;
+		this.blockSize = blockSize;
+		this.channel = FileChannel.open(source, StandardOpenOption.READ);
+		this.size = channel.size();
+		this.regions = new MappedRegions(channel, FileChannel.MapMode.READ_ONLY, size, blockSize);
+	}
+
+	/**
+	 * Pack a block of the file
+	 *
+	 * @param block The index of the block, which is also its sequence number
+	 * @return The shuffled homomorphically partitioned encrypted block
+	 * @throws IOException If the block could not be mapped
+	 */
+	public byte[][] pack(long block) throws IOException{
+		if (block < 0 || block >= getBlocks())
+			throw new IllegalArgumentException("Block " + block + " is not part of a file of " + getBlocks() + " blocks");
+		try {
+			return Packer.pack(KeyBundle.create(context, partitions), block, regions.block(block), 0);
+		} catch (IllegalBlockSizeException e){
+			// Not possible without an MTU
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * The next block which has to be sent to resume a transfer
+	 *
+	 * @param completed The blocks completed by the receiver, see FileReceiver.getCompleted
+	 * @param from The first block to consider
+	 * @return The index of the block, or -1 if all blocks from there on are completed
+	 */
+	public long nextMissing(BitSet completed, long from){
+		int block = completed.nextClearBit((int) from);
+		return block < getBlocks() ? block : -1;
+	}
+
+	/**
+	 * The amount of blocks of the file
+	 */
+	public long getBlocks(){
+		return MappedRegions.blocks(size, blockSize);
+	}
+
+	public int getBlockSize(){
+		return blockSize;
+	}
+
+	/**
+	 * The size of the file in bytes
+	 */
+	public long getSize(){
+		return size;
+	}
+
+	@Override
+	public void close() throws IOException{
+		channel.close();
+	}
+
+}
@@ -0,0 +1,72 @@
+package net.file;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Maps a file in regions of whole blocks, keeping the region of the latest block mapped
+ */
+class MappedRegions {
+
+	/**
+	 * Maximum size of a mapped region in bytes
+	 */
+	private static final int MAX_REGION_SIZE = 256 * 1024 * 1024;
+
+	private final FileChannel channel;
+	private final FileChannel.MapMode mode;
+	private final long size;
+	private final int blockSize;
+	private final int regionBlocks;
+	private long regionIndex = -1;
+	private MappedByteBuffer region;
+
+	MappedRegions(FileChannel channel, FileChannel.MapMode mode, long size, int blockSize){
+		this.channel = channel;
+		this.mode = mode;
+		this.size = size;
+		this.blockSize = blockSize;
+		this.regionBlocks = Math.max(1, MAX_REGION_SIZE / blockSize);
+	}
+
+	/**
+	 * The amount of blocks covering the file
+	 */
+	static long blocks(long size, int blockSize){
+		return (size + blockSize - 1) / blockSize;
+	}
+
+	/**
+	 * The length of a block, the last block may be shorter
+	 */
+	int length(long block){
+		return (int) Math.min(blockSize, size - block * blockSize);
+	}
+
+	/**
+	 * A view of a block in the mapping
+	 */
+	synchronized ByteBuffer block(long block) throws IOException{
+		long index = block / regionBlocks;
+		if (index != regionIndex){
+			long offset = index * regionBlocks * blockSize;
+			region = channel.map(mode, offset, Math.min((long) regionBlocks * blockSize, size - offset));
+			regionIndex = index;
+		}
+		ByteBuffer view = region.duplicate();
+		int position = (int) ((block % regionBlocks) * blockSize);
+		view.limit(position + length(block)).position(position);
+		return view.slice();
+	}
+
+	/**
+	 * Write the changes to a block to the storage device
+	 */
+	synchronized void force(long block) throws IOException{
+		if (block / regionBlocks == regionIndex)
+			region.force((int) ((block % regionBlocks) * blockSize), length(block));
+	}
+
+}
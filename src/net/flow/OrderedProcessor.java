@@ -0,0 +1,245 @@
+package net.flow;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Flow stage which applies a (possibly expensive) function to every item on an executor.
+ *
+ * At most parallelism items are requested from upstream ahead of the results emitted
+ * downstream, and items are only requested while the subscriber has demand, so a slow
+ * subscriber throttles all work upstream.
+ * Results are emitted in the order their items arrived, regardless of which finished first.
+ * A function may return null to emit nothing for an item.
+ */
+public class OrderedProcessor<T, R> implements Flow.Processor<T, R> {
+
+	/**
+	 * The function applied by a stage
+	 */
+	public interface Stage<T, R> {
+
+		/**
+		 * @param index The position of the item in the stream, starting at 0
+		 * @param item The item to process
+		 * @return The result to emit, or null to emit nothing
+		 */
+		R apply(long index, T item) throws Exception;
+
+	}
+
+	/**
+	 * Marker for items which produced no result
+	 */
+	private static final Object NONE = new Object();
+
+	private final Stage<T, R> stage;
+	private final Executor executor;
+	private final int parallelism;
+
+	private final Object lock = new Object();
+	private final AtomicInteger wip = new AtomicInteger();
+	private final Map<Long, Object> results = new HashMap<>();
+
+	private Flow.Subscription upstream;
+	private Flow.Subscriber<? super R> downstream;
+	private long demand = 0;
+	private long outstanding = 0;
+	private int inFlight = 0;
+	private long nextIn = 0;
+	private long nextOut = 0;
+	private boolean upstreamDone = false;
+	private boolean terminated = false;
+	private Throwable error = null;
+
+	/**
+	 * @param stage The function to apply to every item
+	 * @param executor The executor to apply the function on
+	 * @param parallelism The maximum amount of items being processed or awaiting emission
+	 */
+	public OrderedProcessor(Stage<T, R> stage, Executor executor, int parallelism){
+		if (parallelism < 1)
+			throw new IllegalArgumentException("Parallelism must be positive");
+		this.stage = stage;
+		this.executor = executor;
+		this.parallelism = parallelism;
+	}
+
+	@Override
+	public void subscribe(Flow.Subscriber<? super R> subscriber){
+		synchronized (lock){
+			if (downstream != null){
+				subscriber.onSubscribe(new Flow.Subscription(){
+					@Override
+					public void request(long n) {
+					}
+
+					@Override
+					public void cancel() {
+					}
+				});
+				subscriber.onError(new IllegalStateException("OrderedProcessor supports a single subscriber"));
+				return;
+			}
+			downstream = subscriber;
+		}
+		subscriber.onSubscribe(new Flow.Subscription(){
+			@Override
+			public void request(long n) {
+				synchronized (lock){
+					if (n <= 0){
+						error = new IllegalArgumentException("Requested " + n + " items");
+					} else {
+						demand = demand + n < 0 ? Long.MAX_VALUE : demand + n;
+					}
+				}
+				drain();
+			}
+
+			@Override
+			public void cancel() {
+				Flow.Subscription s;
+				synchronized (lock){
+					terminated = true;
+					results.clear();
+					s = upstream;
+				}
+				if (s != null)
+					s.cancel();
+			}
+		});
+		drain();
+	}
+
+	@Override
+	public void onSubscribe(Flow.Subscription subscription){
+		synchronized (lock){
+			if (upstream != null){
+				subscription.cancel();
+				return;
+			}
+			upstream = subscription;
+		}
+		drain();
+	}
+
+	@Override
+	public void onNext(final T item){
+		final long index;
+		synchronized (lock){
+			if (terminated)
+				return;
+			index = nextIn++;
+			outstanding--;
+			inFlight++;
+		}
+		executor.execute(new Runnable(){
+			@Override
+			public void run() {
+				Object result;
+				try {
+					result = stage.apply(index, item);
+				} catch (Throwable t){
+					fail(t);
+					return;
+				}
+				synchronized (lock){
+					results.put(index, result == null ? NONE : result);
+				}
+				drain();
+			}
+		});
+	}
+
+	@Override
+	public void onError(Throwable throwable){
+		fail(throwable);
+	}
+
+	@Override
+	public void onComplete(){
+		synchronized (lock){
+			upstreamDone = true;
+		}
+		drain();
+	}
+
+	private void fail(Throwable throwable){
+		Flow.Subscription s;
+		synchronized (lock){
+			if (error != null)
+				return;
+			error = throwable;
+			s = upstream;
+		}
+		if (s != null)
+			s.cancel();
+		drain();
+	}
+
+	/**
+	 * Emit ready results, signal termination and request more items,
+	 * only ever run by one thread at a time
+	 */
+	@SuppressWarnings("unchecked")
+	private void drain(){
+		if (wip.getAndIncrement() != 0)
+			return;
+		int missed = 1;
+		do {
+			Flow.Subscriber<? super R> subscriber;
+			Flow.Subscription s;
+			synchronized (lock){
+				subscriber = downstream;
+				s = upstream;
+			}
+			if (subscriber != null){
+				while (true){
+					Object result;
+					synchronized (lock){
+						if (terminated || error != null || !results.containsKey(nextOut))
+							break;
+						if (results.get(nextOut) != NONE && demand == 0)
+							break;
+						result = results.remove(nextOut++);
+						inFlight--;
+						if (result != NONE)
+							demand--;
+					}
+					if (result != NONE)
+						subscriber.onNext((R) result);
+				}
+				Throwable failure = null;
+				boolean complete = false;
+				long request = 0;
+				synchronized (lock){
+					if (!terminated){
+						if (error != null){
+							terminated = true;
+							failure = error;
+							results.clear();
+						} else if (upstreamDone && inFlight == 0){
+							terminated = true;
+							complete = true;
+						} else if (s != null && !upstreamDone && demand > 0){
+							request = parallelism - inFlight - outstanding;
+							if (request > 0)
+								outstanding += request;
+						}
+					}
+				}
+				if (failure != null)
+					subscriber.onError(failure);
+				else if (complete)
+					subscriber.onComplete();
+				else if (request > 0)
+					s.request(request);
+			}
+			missed = wip.addAndGet(-missed);
+		} while (missed != 0);
+	}
+
+}
@@ -0,0 +1,30 @@
+package net.flow;
+
+import java.util.concurrent.Executor;
+
+import net.payload.Packer;
+import crypto.impl.PaillierPublicKey;
+
+/**
+ * Flow stage packing message blocks, emitting the packets of every block in block order.
+ * Blocks get consecutive sequence numbers in the order they arrive.
+ */
+public class PackProcessor extends OrderedProcessor<byte[], byte[][]> {
+
+	/**
+	 * @param key The Public Key of the receiver
+	 * @param partitions The amount of channels to partition for
+	 * @param firstSequenceNumber The sequence number of the first block
+	 * @param executor The executor to pack on
+	 * @param parallelism The maximum amount of blocks being packed or awaiting emission
+	 */
+	public PackProcessor(final PaillierPublicKey key, final int partitions, final long firstSequenceNumber, Executor executor, int parallelism){
+		super(new Stage<byte[], byte[][]>(){
+			@Override
+			public byte[][] apply(long index, byte[] datablock) throws Exception {
+				return Packer.pack(key, partitions, firstSequenceNumber + index, datablock);
+			}
+		}, executor, parallelism);
+	}
+
+}
@@ -0,0 +1,35 @@
+package net.flow;
+
+import java.io.ByteArrayInputStream;
+import java.util.concurrent.Executor;
+
+import net.payload.CompletedBlock;
+import net.payload.Packer;
+import net.payload.RawPacket;
+import net.payload.ReassemblyEngine;
+import crypto.impl.PaillierPrivateKey;
+
+/**
+ * Flow stage reading and combining received packets, emitting every block once it completes.
+ * Blocks are emitted in the order of the packets which completed them.
+ */
+public class UnpackProcessor extends OrderedProcessor<byte[], CompletedBlock> {
+
+	/**
+	 * @param key The Private Key for decoding
+	 * @param engine The engine to combine packets with
+	 * @param executor The executor to read and combine on
+	 * @param parallelism The maximum amount of packets being combined or awaiting emission
+	 */
+	public UnpackProcessor(final PaillierPrivateKey key, final ReassemblyEngine engine, Executor executor, int parallelism){
+		super(new Stage<byte[], CompletedBlock>(){
+			@Override
+			public CompletedBlock apply(long index, byte[] packet) throws Exception {
+				RawPacket raw = Packer.read(key, new ByteArrayInputStream(packet));
+				byte[] block = engine.offer(raw);
+				return block == null ? null : new CompletedBlock(raw.getSequenceNumber(), block);
+			}
+		}, executor, parallelism);
+	}
+
+}
@@ -0,0 +1,14 @@
+package net.payload;
+
+/**
+ * Thrown when accepting a packet would exceed the memory budget of a receiver
+ */
+public class BudgetExceededException extends IllegalPacketException{
+
+	private static final long serialVersionUID = -6110478261739316829L;
+
+	public BudgetExceededException(String message){
+		super(message);
+	}
+	
+}
@@ -0,0 +1,207 @@
+package net.payload;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import javax.crypto.IllegalBlockSizeException;
+
+import crypto.impl.PaillierPublicKey;
+
+/**
+ * Batches small messages to the same receiver into a single block, such that
+ * the key encapsulation and packet headers of a block are shared by all its messages.
+ *
+ * Every message is prefixed with its length. A batch is packed and handed to the sink
+ * once it holds a certain amount of bytes or once its first message waited for the
+ * linger time, whichever comes first. Blocks get consecutive sequence numbers and
+ * are handed to the sink in order.
+ * A batch which fails to flush after lingering is dropped and its failure is thrown
+ * by the next call to add, flush or close.
+ * The receiving end splits the output of PacketCombiner.finish with split().
+ */
+public class Coalescer implements AutoCloseable {
+
+	/**
+	 * Receives the packets of every flushed block
+	 */
+	public interface Sink {
+
+		void send(long sequenceNumber, byte[][] packets);
+
+	}
+
+	private final PaillierPublicKey key;
+	private final int partitions;
+	private final int maxBytes;
+	private final long lingerMillis;
+	private final Sink sink;
+	private final ScheduledThreadPoolExecutor timer;
+
+	private final Object flushLock = new Object();
+	private ByteArrayOutputStream batch = new ByteArrayOutputStream();
+	private long batchId = 0;
+	private ScheduledFuture<?> linger = null;
+	private long nextSequenceNumber;
+	private Exception error = null;
+	private boolean closed = false;
+
+	/**
+	 * @param key The Public Key of the receiver
+	 * @param partitions The amount of channels to partition for
+	 * @param firstSequenceNumber The sequence number of the first block
+	 * @param maxBytes The amount of bytes after which a batch is flushed
+	 * @param lingerMillis The maximum time in milliseconds a message waits for a batch to fill
+	 * @param sink Receives the packets of every flushed block
+	 */
+	public Coalescer(PaillierPublicKey key, int partitions, long firstSequenceNumber, int maxBytes, long lingerMillis, Sink sink){
+		this.key = key;
+		this.partitions = partitions;
+		this.nextSequenceNumber = firstSequenceNumber;
+		this.maxBytes = maxBytes;
+		this.lingerMillis = lingerMillis;
+		this.sink = sink;
+		this.timer = new ScheduledThreadPoolExecutor(1, new ThreadFactory(){
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "Coalescer-linger");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		// Batches flushed early cancel their linger task, which should not stay queued
+		this.timer.setRemoveOnCancelPolicy(true);
+	}
+
+	/**
+	 * Add a message to the current batch, flushing it if it is full
+	 *
+	 * @param message The message
+	 * @throws IllegalBlockSizeException If a full batch, or an earlier lingering batch, could not be packed
+	 * @throws IllegalStateException If the coalescer was closed
+	 */
+	public void add(byte[] message) throws IllegalBlockSizeException{
+		checkError();
+		boolean full;
+		synchronized (this){
+			if (closed)
+				throw new IllegalStateException("Coalescer is closed");
+			if (batch.size() == 0){
+				final long id = batchId;
+				linger = timer.schedule(new Runnable(){
+					@Override
+					public void run() {
+						try {
+							flush(id);
+						} catch (IllegalBlockSizeException | RuntimeException e) {
+							fail(e);
+						}
+					}
+				}, lingerMillis, TimeUnit.MILLISECONDS);
+			}
+			batch.write(ByteBuffer.allocate(4).putInt(message.length).array(), 0, 4);
+			batch.write(message, 0, message.length);
+			full = batch.size() >= maxBytes;
+		}
+		if (full)
+			flush();
+	}
+
+	/**
+	 * Pack and hand over the current batch, if it holds any messages
+	 *
+	 * @throws IllegalBlockSizeException If the batch, or an earlier lingering batch, could not be packed
+	 */
+	public void flush() throws IllegalBlockSizeException{
+		flush(-1);
+		checkError();
+	}
+
+	/**
+	 * Flush the current batch, only if it has a certain id (or always for -1)
+	 */
+	private void flush(long id) throws IllegalBlockSizeException{
+		// Only one flush at a time, such that blocks reach the sink in order
+		synchronized (flushLock){
+			byte[] block;
+			long sequenceNumber;
+			synchronized (this){
+				if (batch.size() == 0 || (id >= 0 && id != batchId))
+					return;
+				block = batch.toByteArray();
+				batch = new ByteArrayOutputStream();
+				batchId++;
+				if (linger != null){
+					linger.cancel(false);
+					linger = null;
+				}
+				sequenceNumber = nextSequenceNumber++;
+			}
+			sink.send(sequenceNumber, Packer.pack(key, partitions, sequenceNumber, block));
+		}
+	}
+
+	/**
+	 * Split a decrypted block into the messages it was coalesced from
+	 *
+	 * @param block The output of PacketCombiner.finish
+	 * @return The messages (in order)
+	 * @throws IllegalPacketException If the block is not correctly framed
+	 */
+	public static List<byte[]> split(byte[] block) throws IllegalPacketException{
+		List<byte[]> out = new ArrayList<>();
+		ByteBuffer in = ByteBuffer.wrap(block);
+		while (in.hasRemaining()){
+			if (in.remaining() < 4)
+				throw new IllegalPacketException("Truncated message length");
+			int length = in.getInt();
+			if (length < 0 || length > in.remaining())
+				throw new IllegalPacketException("Message length " + length + " exceeds block");
+			byte[] message = new byte[length];
+			in.get(message);
+			out.add(message);
+		}
+		return out;
+	}
+
+	/**
+	 * Flush the last batch and stop the linger timer
+	 *
+	 * @throws IllegalBlockSizeException If the last batch, or an earlier lingering batch, could not be packed
+	 */
+	@Override
+	public void close() throws IllegalBlockSizeException{
+		synchronized (this){
+			closed = true;
+		}
+		timer.shutdownNow();
+		flush();
+	}
+
+	/**
+	 * Hold the failure of a lingering batch for the next caller, keeping the first one
+	 */
+	private synchronized void fail(Exception e){
+		if (error == null)
+			error = e;
+	}
+
+	/**
+	 * Report the failure of a lingering batch once, the coalescer stays usable afterwards
+	 */
+	private synchronized void checkError() throws IllegalBlockSizeException{
+		if (error != null){
+			Exception e = error;
+			error = null;
+			if (e instanceof IllegalBlockSizeException)
+				throw (IllegalBlockSizeException) e;
+			throw (RuntimeException) e;
+		}
+	}
+
+}
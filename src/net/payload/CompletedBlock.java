@@ -0,0 +1,24 @@
+package net.payload;
+
+/**
+ * Class used to hand over a decrypted message block
+ */
+public class CompletedBlock {
+
+	private final long sequenceNumber;
+	private final byte[] data;
+	
+	public CompletedBlock(long sequenceNumber, byte[] data){
+		this.sequenceNumber = sequenceNumber;
+		this.data = data;
+	}
+	
+	public long getSequenceNumber() {
+		return sequenceNumber;
+	}
+	
+	public byte[] getData() {
+		return data;
+	}
+	
+}
@@ -0,0 +1,60 @@
+package net.payload;
+
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+
+import crypto.impl.Paillier;
+import crypto.impl.PaillierPrivateKey;
+import crypto.impl.SHA256;
+
+/**
+ * The per key part of decoding blocks: a Paillier instance with its precomputed values,
+ * the squared modulus and the key id carried by every packet for the key.
+ *
+ * A context never changes after creation, so any amount of combiners may share it concurrently.
+ */
+public final class DecryptionContext {
+
+	private final PaillierPrivateKey key;
+	private final Paillier paillier;
+	private final BigInteger n2;
+	private final int keyId;
+
+	/**
+	 * Precompute the decoding values of a key
+	 * (including the CRT values, for an extended Private Key)
+	 */
+	public DecryptionContext(PaillierPrivateKey key){
+		this.key = key;
+		this.paillier = new Paillier(key);
+		this.n2 = key.getN().multiply(key.getN());
+		this.keyId = keyId(key.getN());
+	}
+
+	/**
+	 * The short id of a key pair, derived from its modulus
+	 */
+	public static int keyId(BigInteger n){
+		return ByteBuffer.wrap(SHA256.hash(n.toByteArray())).getInt();
+	}
+
+	public PaillierPrivateKey getKey(){
+		return key;
+	}
+
+	public Paillier getPaillier(){
+		return paillier;
+	}
+
+	/**
+	 * The squared modulus of the key
+	 */
+	public BigInteger getN2(){
+		return n2;
+	}
+
+	public int getKeyId(){
+		return keyId;
+	}
+
+}
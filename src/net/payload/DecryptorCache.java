@@ -0,0 +1,57 @@
+package net.payload;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+import crypto.impl.PaillierPrivateKey;
+
+/**
+ * Thread-safe registry of DecryptionContexts by key id, such that a receiver
+ * holding several keys (for instance during key rotation) finds the context
+ * of a packet without any per block setup.
+ */
+public class DecryptorCache {
+
+	private final ConcurrentHashMap<Integer, DecryptionContext> contexts = new ConcurrentHashMap<>();
+
+	/**
+	 * Get the context of a key, creating it if the key was not registered before
+	 *
+	 * @param key The Private Key for decoding
+	 * @return The shared context of the key
+	 * @throws IllegalArgumentException If a different key with the same id is registered
+	 */
+	public DecryptionContext register(PaillierPrivateKey key){
+		int keyId = DecryptionContext.keyId(key.getN());
+		DecryptionContext context = contexts.get(keyId);
+		if (context == null){
+			contexts.putIfAbsent(keyId, new DecryptionContext(key));
+			context = contexts.get(keyId);
+		}
+		if (!context.getKey().getN().equals(key.getN()))
+			throw new IllegalArgumentException("Key id " + keyId + " is already taken by another key");
+		return context;
+	}
+
+	/**
+	 * The context of a key id, or null if no such key is registered
+	 */
+	public DecryptionContext get(int keyId){
+		return contexts.get(keyId);
+	}
+
+	/**
+	 * Forget a key, for instance once it is rotated out
+	 * @return The context of the key id, or null if no such key was registered
+	 */
+	public DecryptionContext remove(int keyId){
+		return contexts.remove(keyId);
+	}
+
+	/**
+	 * The amount of registered keys
+	 */
+	public int size(){
+		return contexts.size();
+	}
+
+}
@@ -0,0 +1,158 @@
+package net.payload;
+
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.security.InvalidKeyException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.crypto.BadPaddingException;
+import javax.crypto.IllegalBlockSizeException;
+
+import crypto.impl.AES;
+import crypto.impl.AESKey;
+import crypto.impl.AdditiveSplitter;
+import crypto.impl.Paillier;
+import crypto.impl.PaillierPublicKey;
+import crypto.impl.SHA256;
+
+/**
+ * The data independent part of packing a block: a fresh AES key, its homomorphically
+ * partitioned Paillier encryption, its hash and the encrypted channel ids.
+ * 
+ * A bundle may only be used to pack a single block.
+ */
+public class KeyBundle {
+
+	private final PaillierPublicKey key;
+	private final int keyId;
+	private final AESKey K;
+	private final byte[][] homo;
+	private final byte[] hash;
+	private final byte[][] channelIds;
+	private final AtomicBoolean used = new AtomicBoolean();
+	
+	private KeyBundle(PaillierPublicKey key, int keyId, AESKey K, byte[][] homo, byte[] hash, byte[][] channelIds){
+		this.key = key;
+		this.keyId = keyId;
+		this.K = K;
+		this.homo = homo;
+		this.hash = hash;
+		this.channelIds = channelIds;
+	}
+	
+	/**
+	 * Generate a block key, partition, encrypt and hash it
+	 * 
+	 * @param key The Public Key of the receiver
+	 * @param partitions The amount of channels to partition for
+	 */
+	public static KeyBundle create(PaillierPublicKey key, int partitions){
+		AESKey K = new AESKey(Packer.SYMM_KEY_SIZE);
+		return create(key, partitions, K);
+	}
+	
+	/**
+	 * Partition, encrypt and hash an existing block key
+	 * 
+	 * @param key The Public Key of the receiver
+	 * @param partitions The amount of channels to partition for
+	 * @param K The block key
+	 */
+	static KeyBundle create(PaillierPublicKey key, int partitions, AESKey K){
+		return create(key, DecryptionContext.keyId(key.getN()), null, partitions, K);
+	}
+	
+	/**
+	 * Generate a block key, partition, encrypt and hash it,
+	 * using the precomputed values of the receiver
+	 * 
+	 * @param context The context of the receiver
+	 * @param partitions The amount of channels to partition for
+	 */
+	public static KeyBundle create(RecipientContext context, int partitions){
+		AESKey K = new AESKey(Packer.SYMM_KEY_SIZE);
+		return create(context, partitions, K);
+	}
+	
+	/**
+	 * Partition, encrypt and hash an existing block key,
+	 * using the precomputed values of the receiver
+	 * 
+	 * @param context The context of the receiver
+	 * @param partitions The amount of channels to partition for
+	 * @param K The block key
+	 */
+	static KeyBundle create(RecipientContext context, int partitions, AESKey K){
+		return create(context.getKey(), context.getKeyId(), context, partitions, K);
+	}
+	
+	private static KeyBundle create(PaillierPublicKey key, int keyId, RecipientContext context, int partitions, AESKey K){
+		BigInteger[] parts = AdditiveSplitter.split(K.getKeyBigInteger(), key.getBitspace(), partitions, key.getN());
+		byte[][] homo = new byte[partitions][];
+		byte[][] channelIds = new byte[partitions][];
+		for (int i = 0; i < parts.length; i++){
+			BigInteger share = context == null ? Paillier.encode(key, parts[i]) : context.encode(parts[i]);
+			homo[i] = Packer.packBigInteger(share, key.getBitspace()+1);
+			channelIds[i] = new byte[16];
+			try {
+				byte[] EKi = AES.encode(K, ByteBuffer.allocate(4).putInt(i).array());
+				System.arraycopy(EKi, 0, channelIds[i], 0, EKi.length);
+			} catch (InvalidKeyException | IllegalBlockSizeException
+					| BadPaddingException e) {
+				e.printStackTrace();
+			}
+		}
+		byte[] hash = Packer.packBigInteger(SHA256.hash(K.getKeyBigInteger()), 32);
+		return new KeyBundle(key, keyId, K, homo, hash, channelIds);
+	}
+	
+	public PaillierPublicKey getPublicKey(){
+		return key;
+	}
+	
+	/**
+	 * The id of the receiver's key, carried by every packet
+	 */
+	public int getKeyId(){
+		return keyId;
+	}
+	
+	public int getPartitions(){
+		return homo.length;
+	}
+	
+	/**
+	 * Mark this bundle as used
+	 * @throws IllegalStateException If this bundle was used before
+	 */
+	void use(){
+		if (used.getAndSet(true))
+			throw new IllegalStateException("A KeyBundle may only be used for a single block");
+	}
+	
+	AESKey getBlockKey(){
+		return K;
+	}
+	
+	/**
+	 * The packed homomorphically encrypted key share of a partition
+	 */
+	byte[] getShare(int partition){
+		return homo[partition];
+	}
+	
+	/**
+	 * The packed hash of the block key
+	 */
+	byte[] getHash(){
+		return hash;
+	}
+	
+	/**
+	 * The encrypted id of a partition
+	 */
+	byte[] getChannelId(int partition){
+		return channelIds[partition];
+	}
+	
+}
@@ -0,0 +1,268 @@
+package net.payload;
+
+import java.io.Closeable;
+import java.math.BigInteger;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+import crypto.impl.PaillierPublicKey;
+
+/**
+ * Offline phase of packing: keeps bounded pools of ready KeyBundles per receiver key
+ * and partition count, refilled by low priority background workers.
+ *
+ * Taking a bundle from a filled pool leaves only the AES work for Packer.pack.
+ * When a pool runs dry, the bundle is created synchronously (a miss).
+ * Only the pools of the most recently used targets are kept, the least recently
+ * used pool is dropped and stops refilling.
+ */
+public class KeyBundlePool implements Closeable {
+
+	/**
+	 * Default amount of receiver key and partition count combinations to keep a pool for
+	 */
+	public static final int DEFAULT_CAPACITY = 64;
+
+	private final int depth;
+	private final int capacity;
+	private final ExecutorService workers;
+	private final LinkedHashMap<Target, Pool> pools;
+	private final long start = System.nanoTime();
+
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong refills = new AtomicLong();
+
+	/**
+	 * @param depth The amount of bundles to keep ready per receiver key and partition count
+	 * @param workers The amount of background threads creating bundles
+	 */
+	public KeyBundlePool(int depth, int workers){
+		this(depth, workers, DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * @param depth The amount of bundles to keep ready per receiver key and partition count
+	 * @param workers The amount of background threads creating bundles
+	 * @param capacity The amount of receiver key and partition count combinations to keep a pool for,
+	 * 		the least recently used is evicted
+	 */
+	public KeyBundlePool(int depth, int workers, final int capacity){
+		if (capacity < 1)
+			throw new IllegalArgumentException("Capacity " + capacity + " is not positive");
+		this.depth = depth;
+		this.capacity = capacity;
+		this.pools = new LinkedHashMap<Target, Pool>(16, 0.75f, true){
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Target, Pool> eldest){
+				if (size() <= capacity)
+					return false;
+				eldest.getValue().evicted = true;
+				return true;
+			}
+		};
+		final AtomicInteger count = new AtomicInteger();
+		this.workers = Executors.newFixedThreadPool(workers, new ThreadFactory(){
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "KeyBundlePool-" + count.getAndIncrement());
+				thread.setDaemon(true);
+				thread.setPriority(Thread.MIN_PRIORITY);
+				return thread;
+			}
+		});
+	}
+
+	/**
+	 * Start filling the pool for a receiver key and partition count ahead of use
+	 */
+	public void prefill(PaillierPublicKey key, int partitions){
+		refill(getPool(key, partitions));
+	}
+
+	/**
+	 * Take a ready bundle, or create one if none is ready
+	 *
+	 * @param key The Public Key of the receiver
+	 * @param partitions The amount of channels to partition for
+	 */
+	public KeyBundle take(PaillierPublicKey key, int partitions){
+		Pool pool = getPool(key, partitions);
+		KeyBundle bundle = pool.bundles.poll();
+		refill(pool);
+		if (bundle != null){
+			hits.incrementAndGet();
+			return bundle;
+		}
+		misses.incrementAndGet();
+		return KeyBundle.create(key, partitions);
+	}
+
+	/**
+	 * The amount of ready bundles for a receiver key and partition count
+	 */
+	public int getDepth(PaillierPublicKey key, int partitions){
+		Pool pool;
+		synchronized (pools){
+			pool = pools.get(new Target(key, partitions));
+		}
+		return pool == null ? 0 : pool.bundles.size();
+	}
+
+	public int getMaxDepth(){
+		return depth;
+	}
+
+	/**
+	 * The amount of pools kept
+	 */
+	public int size(){
+		synchronized (pools){
+			return pools.size();
+		}
+	}
+
+	public int getCapacity(){
+		return capacity;
+	}
+
+	/**
+	 * The amount of bundles taken from a pool
+	 */
+	public long getHits(){
+		return hits.get();
+	}
+
+	/**
+	 * The amount of bundles created synchronously because a pool was empty
+	 */
+	public long getMisses(){
+		return misses.get();
+	}
+
+	/**
+	 * The amount of bundles created by the background workers
+	 */
+	public long getRefills(){
+		return refills.get();
+	}
+
+	/**
+	 * The average amount of bundles created by the background workers per second
+	 */
+	public double getRefillRate(){
+		return refills.get() / ((System.nanoTime() - start) / 1e9d);
+	}
+
+	/**
+	 * Stop the background workers, ready bundles remain available
+	 */
+	@Override
+	public void close(){
+		workers.shutdownNow();
+		try {
+			workers.awaitTermination(1, TimeUnit.MINUTES);
+		} catch (InterruptedException e){
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private Pool getPool(final PaillierPublicKey key, final int partitions){
+		synchronized (pools){
+			return pools.computeIfAbsent(new Target(key, partitions), new Function<Target, Pool>(){
+				@Override
+				public Pool apply(Target target) {
+					return new Pool(key, partitions);
+				}
+			});
+		}
+	}
+
+	/**
+	 * Schedule a refill of a pool, unless one is already running or the pool was evicted
+	 */
+	private void refill(final Pool pool){
+		if (pool.evicted || pool.bundles.remainingCapacity() == 0 || !pool.refilling.compareAndSet(false, true))
+			return;
+		try {
+			workers.execute(new Runnable(){
+				@Override
+				public void run() {
+					try {
+						while (!pool.evicted && pool.bundles.remainingCapacity() > 0 && !Thread.currentThread().isInterrupted()){
+							if (pool.bundles.offer(KeyBundle.create(pool.key, pool.partitions)))
+								refills.incrementAndGet();
+						}
+					} finally {
+						pool.refilling.set(false);
+					}
+				}
+			});
+		} catch (RejectedExecutionException e){
+			// Closed
+			pool.refilling.set(false);
+		}
+	}
+
+	/**
+	 * Ready bundles for a single receiver key and partition count
+	 */
+	private class Pool {
+
+		private final PaillierPublicKey key;
+		private final int partitions;
+		private final BlockingQueue<KeyBundle> bundles = new ArrayBlockingQueue<>(depth);
+		private final AtomicBoolean refilling = new AtomicBoolean();
+		private volatile boolean evicted = false;
+
+		private Pool(PaillierPublicKey key, int partitions){
+			this.key = key;
+			this.partitions = partitions;
+		}
+
+	}
+
+	/**
+	 * Pool lookup key, public keys are compared by value
+	 */
+	private static class Target {
+
+		private final BigInteger n;
+		private final BigInteger g;
+		private final int partitions;
+
+		private Target(PaillierPublicKey key, int partitions){
+			this.n = key.getN();
+			this.g = key.getG();
+			this.partitions = partitions;
+		}
+
+		@Override
+		public boolean equals(Object o){
+			if (!(o instanceof Target))
+				return false;
+			Target other = (Target) o;
+			return partitions == other.partitions && n.equals(other.n) && g.equals(other.g);
+		}
+
+		@Override
+		public int hashCode(){
+			return n.hashCode() * 31 + partitions;
+		}
+
+	}
+
+}
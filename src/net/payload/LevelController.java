@@ -0,0 +1,147 @@
+package net.payload;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+
+/**
+ * Chooses the homomorphism level (the amount of partitions) per block, within policy bounds.
+ *
+ * Every partition costs the sender a Paillier encryption and the receiver a multiplication,
+ * so the level falls back toward the security minimum when the CPU or the send queue is loaded,
+ * and rises (one partition per block) toward the maximum when idle.
+ * It never exceeds the amount of available channels, unless that is below the minimum.
+ */
+public class LevelController {
+
+	/**
+	 * Default send queue depth at which the level drops to the minimum
+	 */
+	public static final int DEFAULT_QUEUE_LIMIT = 16;
+
+	private final int minimum;
+	private final int maximum;
+	private final int queueLimit;
+	private final OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+
+	private int level;
+	private long decisions = 0;
+	private long raised = 0;
+	private long lowered = 0;
+	private long total = 0;
+	private final long[] counts;
+
+	/**
+	 * @param minimum The security minimum of the level, at least 2
+	 * @param maximum The maximum level
+	 */
+	public LevelController(int minimum, int maximum){
+		this(minimum, maximum, DEFAULT_QUEUE_LIMIT);
+	}
+
+	/**
+	 * @param minimum The security minimum of the level, at least 2
+	 * @param maximum The maximum level
+	 * @param queueLimit The send queue depth at which the level drops to the minimum
+	 */
+	public LevelController(int minimum, int maximum, int queueLimit){
+		if (minimum < 2 || maximum < minimum)
+			throw new IllegalArgumentException("Illegal level bounds [" + minimum + ", " + maximum + "]");
+		this.minimum = minimum;
+		this.maximum = maximum;
+		this.queueLimit = Math.max(1, queueLimit);
+		this.level = minimum;
+		this.counts = new long[maximum + 1];
+	}
+
+	/**
+	 * Choose the level of the next block from the current system load
+	 *
+	 * @param channels The amount of available channels
+	 * @param queueDepth The amount of blocks waiting to be sent
+	 * @return The amount of partitions to pack the block with
+	 */
+	public int choose(int channels, int queueDepth){
+		double load = os.getSystemLoadAverage();
+		// Not available on every platform, assume headroom
+		if (load < 0)
+			load = 0;
+		return choose(load / os.getAvailableProcessors(), queueDepth, channels);
+	}
+
+	/**
+	 * Choose the level of the next block
+	 *
+	 * @param cpuLoad The CPU load, 0 for idle and 1 (or more) for fully loaded
+	 * @param queueDepth The amount of blocks waiting to be sent
+	 * @param channels The amount of available channels
+	 * @return The amount of partitions to pack the block with
+	 */
+	public synchronized int choose(double cpuLoad, int queueDepth, int channels){
+		double pressure = Math.max(cpuLoad, (double) queueDepth / queueLimit);
+		pressure = Math.min(1, Math.max(0, pressure));
+		int target = minimum + (int) Math.round((maximum - minimum) * (1 - pressure));
+		target = Math.max(minimum, Math.min(target, channels));
+		int previous = level;
+		// Fall back at once, but only rise gradually
+		level = target < level ? target : Math.min(target, level + 1);
+		if (level > previous)
+			raised++;
+		else if (level < previous)
+			lowered++;
+		decisions++;
+		total += level;
+		counts[level]++;
+		return level;
+	}
+
+	/**
+	 * The latest chosen level
+	 */
+	public synchronized int getLevel(){
+		return level;
+	}
+
+	public int getMinimum(){
+		return minimum;
+	}
+
+	public int getMaximum(){
+		return maximum;
+	}
+
+	/**
+	 * The amount of levels chosen
+	 */
+	public synchronized long getDecisions(){
+		return decisions;
+	}
+
+	/**
+	 * The amount of times the level rose
+	 */
+	public synchronized long getRaised(){
+		return raised;
+	}
+
+	/**
+	 * The amount of times the level fell
+	 */
+	public synchronized long getLowered(){
+		return lowered;
+	}
+
+	/**
+	 * The average chosen level, or 0 if none was chosen
+	 */
+	public synchronized double getAverageLevel(){
+		return decisions == 0 ? 0 : (double) total / decisions;
+	}
+
+	/**
+	 * The amount of times a certain level was chosen
+	 */
+	public synchronized long getCount(int level){
+		return level < 0 || level >= counts.length ? 0 : counts[level];
+	}
+
+}
@@ -0,0 +1,231 @@
+package net.payload;
+
+import java.security.InvalidKeyException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+import java.util.function.Supplier;
+
+import javax.crypto.BadPaddingException;
+import javax.crypto.IllegalBlockSizeException;
+
+import crypto.impl.AES;
+import crypto.impl.AESKey;
+
+/**
+ * Packs a stream of blocks with several sequence numbers in flight on an executor.
+ *
+ * Every block runs as three stages: encapsulating its key (split and Paillier encryption)
+ * and encrypting and splitting its payload run concurrently, after which its frames are
+ * assembled. Finished blocks pass a reorder buffer, such that the sink receives them in
+ * sequence order, and submitting blocks when depth blocks are in flight waits.
+ * The amount of partitions is either fixed, or chosen per block by a LevelController
+ * from the system load and the amount of blocks in flight.
+ */
+public class PackPipeline {
+
+	/**
+	 * Receives the packets of every block, in sequence order and from one thread at a time
+	 */
+	public interface Sink {
+
+		void emit(long sequenceNumber, byte[][] packets);
+
+	}
+
+	private final RecipientContext context;
+	private final int partitions;
+	private final LevelController controller;
+	private final int mtu;
+	private final Executor executor;
+	private final int depth;
+	private final Sink sink;
+
+	private final Semaphore inFlight;
+	private final Object emitLock = new Object();
+	private final Map<Long, byte[][]> ready = new HashMap<>();
+	private long nextIn;
+	private long nextOut;
+	private Throwable error = null;
+
+	/**
+	 * @param context The context of the receiver
+	 * @param partitions The amount of channels to partition for
+	 * @param firstSequenceNumber The sequence number of the first block
+	 * @param mtu The maximum size of a single packet in bytes, or 0 for no limit
+	 * @param executor The executor to run the stages on
+	 * @param depth The maximum amount of blocks being packed or awaiting emission
+	 * @param sink Receives the packets of every block
+	 */
+	public PackPipeline(RecipientContext context, int partitions, long firstSequenceNumber, int mtu, Executor executor, int depth, Sink sink){
+		this(context, partitions, null, firstSequenceNumber, mtu, executor, depth, sink);
+	}
+
+	/**
+	 * @param context The context of the receiver
+	 * @param controller Chooses the amount of partitions of every block
+	 * @param channels The amount of available channels
+	 * @param firstSequenceNumber The sequence number of the first block
+	 * @param mtu The maximum size of a single packet in bytes, or 0 for no limit
+	 * @param executor The executor to run the stages on
+	 * @param depth The maximum amount of blocks being packed or awaiting emission
+	 * @param sink Receives the packets of every block
+	 */
+	public PackPipeline(RecipientContext context, LevelController controller, int channels, long firstSequenceNumber, int mtu, Executor executor, int depth, Sink sink){
+		this(context, channels, controller, firstSequenceNumber, mtu, executor, depth, sink);
+	}
+
+	private PackPipeline(RecipientContext context, int partitions, LevelController controller, long firstSequenceNumber, int mtu, Executor executor, int depth, Sink sink){
+		if (depth < 1)
+			throw new IllegalArgumentException("Depth must be positive");
+		this.context = context;
+		this.partitions = partitions;
+		this.controller = controller;
+		this.mtu = mtu;
+		this.executor = executor;
+		this.depth = depth;
+		this.sink = sink;
+		this.inFlight = new Semaphore(depth);
+		this.nextIn = firstSequenceNumber;
+		this.nextOut = firstSequenceNumber;
+	}
+
+	/**
+	 * Start packing a block, waiting while depth blocks are in flight
+	 *
+	 * @param datablock The message (block)
+	 * @return The sequence number of the block
+	 * @throws InterruptedException If interrupted while waiting
+	 * @throws ExecutionException If an earlier block failed to pack or emit, reported once
+	 */
+	public long submit(final byte[] datablock) throws InterruptedException, ExecutionException{
+		checkError();
+		inFlight.acquire();
+		final long sequenceNumber;
+		synchronized (this){
+			sequenceNumber = nextIn++;
+		}
+		// With a controller, partitions holds the amount of channels
+		final int level = controller == null ? partitions : controller.choose(partitions, getInFlight() - 1);
+		final AESKey K = new AESKey(Packer.SYMM_KEY_SIZE);
+		CompletableFuture<KeyBundle> bundle;
+		CompletableFuture<byte[][]> payload;
+		try {
+			bundle = CompletableFuture.supplyAsync(new Supplier<KeyBundle>(){
+				@Override
+				public KeyBundle get() {
+					return KeyBundle.create(context, level, K);
+				}
+			}, executor);
+			payload = CompletableFuture.supplyAsync(new Supplier<byte[][]>(){
+				@Override
+				public byte[][] get() {
+					try {
+						byte[] EKM = AES.encode(K, datablock);
+						return Packer.partition(EKM, level, context.getKey().getBitspace(), datablock.length, mtu);
+					} catch (InvalidKeyException | IllegalBlockSizeException | BadPaddingException e){
+						throw new CompletionException(e);
+					}
+				}
+			}, executor);
+		} catch (RejectedExecutionException e){
+			// Skip the block like any other failure, releasing its permit
+			complete(sequenceNumber, null, e);
+			return sequenceNumber;
+		}
+		bundle.thenCombineAsync(payload, new BiFunction<KeyBundle, byte[][], byte[][]>(){
+			@Override
+			public byte[][] apply(KeyBundle b, byte[][] Mparts) {
+				b.use();
+				return Packer.assemble(b, sequenceNumber, Mparts);
+			}
+		}, executor).whenComplete(new BiConsumer<byte[][], Throwable>(){
+			@Override
+			public void accept(byte[][] packets, Throwable t) {
+				complete(sequenceNumber, packets, t);
+			}
+		});
+		return sequenceNumber;
+	}
+
+	/**
+	 * Wait until every submitted block is emitted
+	 *
+	 * @throws InterruptedException If interrupted while waiting
+	 * @throws ExecutionException If a block failed to pack or emit, reported once
+	 */
+	public void flush() throws InterruptedException, ExecutionException{
+		inFlight.acquire(depth);
+		inFlight.release(depth);
+		checkError();
+	}
+
+	/**
+	 * The amount of blocks being packed or awaiting emission
+	 */
+	public int getInFlight(){
+		return depth - inFlight.availablePermits();
+	}
+
+	public int getDepth(){
+		return depth;
+	}
+
+	/**
+	 * Report the first failure since the last report, the pipeline stays usable afterwards
+	 */
+	private synchronized void checkError() throws ExecutionException{
+		if (error != null){
+			Throwable t = error;
+			error = null;
+			throw new ExecutionException(t);
+		}
+	}
+
+	/**
+	 * Add a finished block to the reorder buffer and emit all blocks which are next in sequence.
+	 * A failed block, or a block the sink failed on, is skipped and reported by the next submit or flush.
+	 */
+	private void complete(long sequenceNumber, byte[][] packets, Throwable t){
+		synchronized (this){
+			if (t != null){
+				if (error == null)
+					error = t instanceof CompletionException && t.getCause() != null ? t.getCause() : t;
+				packets = new byte[0][];
+			}
+			ready.put(sequenceNumber, packets);
+		}
+		synchronized (emitLock){
+			while (true){
+				long next;
+				byte[][] out;
+				synchronized (this){
+					next = nextOut;
+					out = ready.remove(next);
+					if (out == null)
+						return;
+					nextOut++;
+				}
+				try {
+					if (out.length > 0)
+						sink.emit(next, out);
+				} catch (RuntimeException e){
+					synchronized (this){
+						if (error == null)
+							error = e;
+					}
+				} finally {
+					inFlight.release();
+				}
+			}
+		}
+	}
+
+}
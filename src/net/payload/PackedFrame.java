@@ -0,0 +1,78 @@
+package net.payload;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+
+/**
+ * A packet kept as its header and a read-only view of its encrypted data,
+ * such that several packets can share the same encrypted data without copying.
+ * 
+ * The serialized form is identical to the packets created by Packer.pack.
+ */
+public class PackedFrame {
+
+	private final byte[] header;
+	private final ByteBuffer payload;
+	
+	public PackedFrame(byte[] header, ByteBuffer payload){
+		this.header = header;
+		this.payload = payload.slice();
+	}
+	
+	public byte[] getHeader(){
+		return header;
+	}
+	
+	/**
+	 * A view of the encrypted data, independent of other views
+	 */
+	public ByteBuffer getPayload(){
+		return payload.asReadOnlyBuffer();
+	}
+	
+	/**
+	 * The size of the serialized packet in bytes
+	 */
+	public int size(){
+		return header.length + payload.remaining();
+	}
+	
+	/**
+	 * Write the serialized packet to a stream
+	 */
+	public void writeTo(OutputStream os) throws IOException{
+		os.write(header);
+		if (payload.hasArray()){
+			os.write(payload.array(), payload.arrayOffset() + payload.position(), payload.remaining());
+		} else {
+			ByteBuffer view = getPayload();
+			byte[] chunk = new byte[Math.min(view.remaining(), 8192)];
+			while (view.hasRemaining()){
+				int size = Math.min(chunk.length, view.remaining());
+				view.get(chunk, 0, size);
+				os.write(chunk, 0, size);
+			}
+		}
+	}
+	
+	/**
+	 * Write the serialized packet to a channel with a single gathering write
+	 */
+	public void writeTo(GatheringByteChannel channel) throws IOException{
+		ByteBuffer[] buffers = new ByteBuffer[] {ByteBuffer.wrap(header), getPayload()};
+		while (buffers[0].hasRemaining() || buffers[1].hasRemaining())
+			channel.write(buffers);
+	}
+	
+	/**
+	 * Copy the serialized packet into a new array
+	 */
+	public byte[] toByteArray(){
+		ByteBuffer out = ByteBuffer.allocate(size());
+		out.put(header).put(getPayload());
+		return out.array();
+	}
+	
+}
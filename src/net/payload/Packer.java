@@ -1,5 +1,6 @@
 package net.payload;
 
+import java.io.ByteArrayInputStream;
 import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
@@ -7,26 +8,33 @@ import java.math.BigInteger;
 import java.nio.ByteBuffer;
 import java.security.InvalidKeyException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 import javax.crypto.BadPaddingException;
 import javax.crypto.IllegalBlockSizeException;
 
 import crypto.impl.AES;
 import crypto.impl.AESKey;
 import crypto.impl.AESSplitter;
-import crypto.impl.Paillier;
 import crypto.impl.PaillierPrivateKey;
 import crypto.impl.PaillierPublicKey;
-import crypto.impl.AdditiveSplitter;
-import crypto.impl.SHA256;
 
 public class Packer {
 
 	/**
 	 * This must be the same on the sending and receiving end
 	 */
-	private static int SYMM_KEY_SIZE = 256; 
+	static int SYMM_KEY_SIZE = 256; 
+	
+	/**
+	 * Set in the size field of aggregate frames, which a single packet is never large enough for
+	 */
+	static final int AGGREGATE_FLAG = 0x80000000;
 	
 	/**
 	 * Pack and homomorphically partition data payloaded under AES
@@ -38,58 +46,404 @@ public class Packer {
 	 * @return The shuffled homomorphically partitioned encrypted message set
 	 * @throws IllegalBlockSizeException If the datablock is too big or small
 	 */
-	public static byte[][] pack(PaillierPublicKey key, int partitions, int sequenceNumber, byte[] datablock) throws IllegalBlockSizeException {
-		// Generate a block key, partition and hash it
-		AESKey K = new AESKey(SYMM_KEY_SIZE);
-		BigInteger[] parts = AdditiveSplitter.split(K.getKeyBigInteger(), key.getBitspace(), partitions, key.getN());
-		for (int i = 0; i < parts.length; i++)
-			parts[i] = Paillier.encode(key, parts[i]);
-		BigInteger Khash = SHA256.hash(K.getKeyBigInteger());
+	public static byte[][] pack(PaillierPublicKey key, int partitions, long sequenceNumber, byte[] datablock) throws IllegalBlockSizeException {
+		return pack(key, partitions, sequenceNumber, datablock, 0);
+	}
+	
+	/**
+	 * Pack and homomorphically partition data payloaded under AES,
+	 * such that every packet fits within a certain MTU
+	 *  
+	 * @param key The Public Key of the receiver
+	 * @param partitions The amount of channels to partition for
+	 * @param sequenceNumber The sequence number of this message block
+	 * @param datablock The message (block)
+	 * @param mtu The maximum size of a single packet in bytes, or 0 for no limit
+	 * @return The shuffled homomorphically partitioned encrypted message set
+	 * @throws IllegalBlockSizeException If the datablock is too big or small
+	 */
+	public static byte[][] pack(PaillierPublicKey key, int partitions, long sequenceNumber, byte[] datablock, int mtu) throws IllegalBlockSizeException {
+		return pack(KeyBundle.create(key, partitions), sequenceNumber, datablock, mtu);
+	}
+	
+	/**
+	 * Pack and homomorphically partition data payloaded under AES,
+	 * appending a tag to every packet
+	 *  
+	 * @param key The Public Key of the receiver
+	 * @param partitions The amount of channels to partition for
+	 * @param sequenceNumber The sequence number of this message block
+	 * @param datablock The message (block)
+	 * @param authenticator The authenticator for the receiver
+	 * @return The shuffled homomorphically partitioned encrypted authenticated message set
+	 * @throws IllegalBlockSizeException If the datablock is too big or small
+	 */
+	public static byte[][] pack(PaillierPublicKey key, int partitions, long sequenceNumber, byte[] datablock, PacketAuthenticator authenticator) throws IllegalBlockSizeException {
+		return authenticator.seal(pack(key, partitions, sequenceNumber, datablock));
+	}
+	
+	/**
+	 * Pack and homomorphically partition data payloaded under AES,
+	 * using the precomputed values of the receiver
+	 *  
+	 * @param context The context of the receiver, see RecipientCache
+	 * @param partitions The amount of channels to partition for
+	 * @param sequenceNumber The sequence number of this message block
+	 * @param datablock The message (block)
+	 * @return The shuffled homomorphically partitioned encrypted message set
+	 * @throws IllegalBlockSizeException If the datablock is too big or small
+	 */
+	public static byte[][] pack(RecipientContext context, int partitions, long sequenceNumber, byte[] datablock) throws IllegalBlockSizeException {
+		return pack(KeyBundle.create(context, partitions), sequenceNumber, datablock, 0);
+	}
+	
+	/**
+	 * Pack data payloaded under AES, using a prepared key bundle
+	 *  
+	 * @param bundle The unused key bundle for the receiver
+	 * @param sequenceNumber The sequence number of this message block
+	 * @param datablock The message (block)
+	 * @return The shuffled homomorphically partitioned encrypted message set
+	 * @throws IllegalBlockSizeException If the datablock is too big or small
+	 */
+	public static byte[][] pack(KeyBundle bundle, long sequenceNumber, byte[] datablock) throws IllegalBlockSizeException {
+		return pack(bundle, sequenceNumber, datablock, 0);
+	}
+	
+	/**
+	 * Pack data payloaded under AES, using a prepared key bundle,
+	 * such that every packet fits within a certain MTU
+	 *  
+	 * @param bundle The unused key bundle for the receiver
+	 * @param sequenceNumber The sequence number of this message block
+	 * @param datablock The message (block)
+	 * @param mtu The maximum size of a single packet in bytes, or 0 for no limit
+	 * @return The shuffled homomorphically partitioned encrypted message set
+	 * @throws IllegalBlockSizeException If the datablock is too big or small
+	 */
+	public static byte[][] pack(KeyBundle bundle, long sequenceNumber, byte[] datablock, int mtu) throws IllegalBlockSizeException {
+		bundle.use();
 		
 		// Encode and split the data
 		byte[] EKM = new byte[0];
 		try {
-			EKM = AES.encode(K, datablock);
+			EKM = AES.encode(bundle.getBlockKey(), datablock);
+		} catch (InvalidKeyException | BadPaddingException e1) {
+			e1.printStackTrace();
+		}
+		return split(bundle, sequenceNumber, EKM, datablock.length, mtu);
+	}
+	
+	/**
+	 * Pack data payloaded under AES, using a prepared key bundle, reading the
+	 * data in place (for instance from a mapped file) instead of from the heap
+	 *  
+	 * @param bundle The unused key bundle for the receiver
+	 * @param sequenceNumber The sequence number of this message block
+	 * @param datablock The message (block), from its position to its limit (which is not modified)
+	 * @param mtu The maximum size of a single packet in bytes, or 0 for no limit
+	 * @return The shuffled homomorphically partitioned encrypted message set
+	 * @throws IllegalBlockSizeException If the datablock is too big or small
+	 */
+	public static byte[][] pack(KeyBundle bundle, long sequenceNumber, ByteBuffer datablock, int mtu) throws IllegalBlockSizeException {
+		bundle.use();
+		
+		byte[] EKM = new byte[0];
+		try {
+			EKM = AES.encode(bundle.getBlockKey(), datablock);
+		} catch (InvalidKeyException | BadPaddingException e1) {
+			e1.printStackTrace();
+		}
+		return split(bundle, sequenceNumber, EKM, datablock.remaining(), mtu);
+	}
+	
+	/**
+	 * Split encrypted data over the partitions of a bundle and create their packets
+	 */
+	private static byte[][] split(KeyBundle bundle, long sequenceNumber, byte[] EKM, int length, int mtu) throws IllegalBlockSizeException {
+		byte[][] Mparts = partition(EKM, bundle.getPartitions(), bundle.getPublicKey().getBitspace(), length, mtu);
+		return assemble(bundle, sequenceNumber, Mparts);
+	}
+	
+	/**
+	 * Split encrypted data over a certain amount of partitions
+	 * 
+	 * @param EKM The encrypted data
+	 * @param partitions The amount of partitions
+	 * @param bitspace The bitspace of the receiver's key
+	 * @param length The length of the plaintext, for reporting
+	 * @param mtu The maximum size of a single packet in bytes, or 0 for no limit
+	 */
+	static byte[][] partition(byte[] EKM, int partitions, int bitspace, int length, int mtu) throws IllegalBlockSizeException {
+		byte[][] Mparts;
+		if (mtu > 0){
+			int maxSize = mtu - headerSize(bitspace);
+			if (maxSize <= 0 || (long) maxSize * partitions < EKM.length)
+				throw new IllegalBlockSizeException("Datablock of " + length + " bytes does not fit in " + 
+														partitions + " packets of " + mtu + " bytes");
+			Mparts = AESSplitter.splitBounded(EKM, partitions, maxSize);
+		} else {
+			Mparts = AESSplitter.splitUniform(EKM, partitions);
+		}
+		return Mparts;
+	}
+	
+	/**
+	 * Pack and homomorphically partition data payloaded under AES, sizing the
+	 * partitions by the weights of the channels they are sent over, such that
+	 * all channels finish at about the same time
+	 *  
+	 * @param key The Public Key of the receiver
+	 * @param sequenceNumber The sequence number of this message block
+	 * @param datablock The message (block)
+	 * @param weights The relative throughput of every channel, one partition per channel
+	 * @param jitter The minimum randomization of every partition size, relative to its weighted size, in (0, 0.5)
+	 * @return The packet for every channel, in channel order
+	 * @throws IllegalBlockSizeException If the datablock is too big or small
+	 */
+	public static byte[][] packWeighted(PaillierPublicKey key, long sequenceNumber, byte[] datablock, double[] weights, double jitter) throws IllegalBlockSizeException {
+		return packWeighted(KeyBundle.create(key, weights.length), sequenceNumber, datablock, weights, jitter);
+	}
+	
+	/**
+	 * Pack data payloaded under AES, using a prepared key bundle, sizing the
+	 * partitions by the weights of the channels they are sent over
+	 *  
+	 * @param bundle The unused key bundle for the receiver, with a partition per channel
+	 * @param sequenceNumber The sequence number of this message block
+	 * @param datablock The message (block)
+	 * @param weights The relative throughput of every channel
+	 * @param jitter The minimum randomization of every partition size, relative to its weighted size, in (0, 0.5)
+	 * @return The packet for every channel, in channel order
+	 * @throws IllegalBlockSizeException If the datablock is too big or small
+	 */
+	public static byte[][] packWeighted(KeyBundle bundle, long sequenceNumber, byte[] datablock, double[] weights, double jitter) throws IllegalBlockSizeException {
+		int partitions = bundle.getPartitions();
+		if (weights.length != partitions)
+			throw new IllegalArgumentException(weights.length + " weights given for " + partitions + " partitions");
+		bundle.use();
+		
+		byte[] EKM = new byte[0];
+		try {
+			EKM = AES.encode(bundle.getBlockKey(), datablock);
 		} catch (InvalidKeyException | BadPaddingException e1) {
 			e1.printStackTrace();
 		}
-		byte[][] Mparts = AESSplitter.splitUniform(EKM, partitions);
+		// Send the partitions over the channels in random order, the position
+		// of a partition in the message is then independent of its channel
+		List<Integer> channels = new ArrayList<>();
+		for (int i = 0; i < partitions; i++)
+			channels.add(i);
+		Collections.shuffle(channels);
+		double[] partitionWeights = new double[partitions];
+		for (int i = 0; i < partitions; i++)
+			partitionWeights[i] = weights[channels.get(i)];
+		byte[][] frames = frame(bundle, sequenceNumber, AESSplitter.splitWeighted(EKM, partitionWeights, jitter));
+		byte[][] out = new byte[partitions][];
+		for (int i = 0; i < partitions; i++)
+			out[channels.get(i)] = frames[i];
+		return out;
+	}
+	
+	/**
+	 * Pack and homomorphically partition data payloaded under AES in counter mode,
+	 * where every partition is an independently encrypted segment.
+	 * The segments are encrypted in parallel and must be decrypted with
+	 * PacketCombiner.finishSegmented.
+	 *  
+	 * @param key The Public Key of the receiver
+	 * @param partitions The amount of channels to partition for
+	 * @param sequenceNumber The sequence number of this message block
+	 * @param datablock The message (block)
+	 * @param pool The pool to encrypt the segments on
+	 * @return The shuffled homomorphically partitioned encrypted message set
+	 */
+	public static byte[][] packSegmented(PaillierPublicKey key, int partitions, long sequenceNumber, byte[] datablock, ForkJoinPool pool) {
+		return packSegmented(KeyBundle.create(key, partitions), sequenceNumber, datablock, pool);
+	}
+	
+	/**
+	 * Pack data payloaded under AES in counter mode, using a prepared key bundle,
+	 * where every partition is an independently encrypted segment
+	 *  
+	 * @param bundle The unused key bundle for the receiver
+	 * @param sequenceNumber The sequence number of this message block
+	 * @param datablock The message (block)
+	 * @param pool The pool to encrypt the segments on
+	 * @return The shuffled homomorphically partitioned encrypted message set
+	 */
+	public static byte[][] packSegmented(KeyBundle bundle, long sequenceNumber, byte[] datablock, ForkJoinPool pool) {
+		bundle.use();
+		int partitions = bundle.getPartitions();
 		
-		// Create packets equal to the requested amount of partitions
-		List<byte[]> out = new ArrayList<>();
+		// Counter mode keeps the size, so the plaintext can be partitioned up front
+		int[] sizes = AESSplitter.sizeUniform(datablock.length, partitions);
+		byte[] EKM = new byte[0];
+		try {
+			EKM = AES.codeSegmented(bundle.getBlockKey(), datablock, sizes, pool);
+		} catch (InvalidKeyException e1) {
+			e1.printStackTrace();
+		}
+		byte[][] Mparts = new byte[partitions][];
+		int position = 0;
 		for (int i = 0; i < partitions; i++){
-			byte[] EKi = new byte[] {};
-			try {
-				EKi = AES.encode(K, ByteBuffer.allocate(4).putInt(i).array());
-			} catch (InvalidKeyException | IllegalBlockSizeException
-					| BadPaddingException e) {
-				e.printStackTrace();
-			}
-			
-			ByteBuffer bSeq = ByteBuffer.allocate(4).putInt(sequenceNumber);
-			ByteBuffer bHomo = ByteBuffer.allocate(key.getBitspace()+1).put(packBigInteger(parts[i], key.getBitspace()+1));
-			ByteBuffer bHash = ByteBuffer.allocate(32).put(packBigInteger(Khash, 32));
-			ByteBuffer bKi = ByteBuffer.allocate(16).put(EKi);
-			ByteBuffer bEKMi = ByteBuffer.wrap(Mparts[i]);
-			
-			int size = 4 + bSeq.capacity() +
-					bHomo.capacity() +
-					bHash.capacity() +
-					bKi.capacity() +
-					bEKMi.capacity();
-			
-			ByteBuffer bOut = ByteBuffer.allocate(size).putInt(size)
-										.put(bSeq.array())
-										.put(bHomo.array())
-										.put(bHash.array())
-										.put(bKi.array())
-										.put(bEKMi.array());
-			out.add(bOut.array());
+			Mparts[i] = Arrays.copyOfRange(EKM, position, position + sizes[i]);
+			position += sizes[i];
 		}
+		return assemble(bundle, sequenceNumber, Mparts);
+	}
+	
+	/**
+	 * Create packets equal to the amount of partitions
+	 */
+	static byte[][] assemble(KeyBundle bundle, long sequenceNumber, byte[][] Mparts){
+		List<byte[]> out = new ArrayList<>(Arrays.asList(frame(bundle, sequenceNumber, Mparts)));
 		// Finally shuffle the array, such that reordering the partitions of 
 		// an encrypted message M is not dependent on timing
 		Collections.shuffle(out);
-		return out.toArray(new byte[partitions][]);
+		return out.toArray(new byte[out.size()][]);
+	}
+	
+	/**
+	 * Create the packets of the partitions, in partition order
+	 */
+	private static byte[][] frame(KeyBundle bundle, long sequenceNumber, byte[][] Mparts){
+		int partitions = bundle.getPartitions();
+		int bitspace = bundle.getPublicKey().getBitspace();
+		byte[][] out = new byte[partitions][];
+		for (int i = 0; i < partitions; i++){
+			int size = headerSize(bitspace) + Mparts[i].length;
+			
+			ByteBuffer bOut = ByteBuffer.allocate(size).putInt(size)
+										.putLong(sequenceNumber)
+										.putInt(bundle.getKeyId())
+										.put(bundle.getShare(i))
+										.put(bundle.getHash())
+										.put(bundle.getChannelId(i))
+										.put(Mparts[i]);
+			out[i] = bOut.array();
+		}
+		return out;
+	}
+	
+	/**
+	 * Pack the same data for multiple receivers, encrypting and partitioning it only once.
+	 * Every receiver gets the block key encapsulated under its own Public Key (in parallel),
+	 * while the frames of all receivers share the same encrypted data without copying.
+	 *  
+	 * @param keys The Public Keys of the receivers
+	 * @param partitions The amount of channels to partition for
+	 * @param sequenceNumber The sequence number of this message block
+	 * @param datablock The message (block)
+	 * @return Per receiver (in order of keys) the shuffled homomorphically partitioned encrypted message set
+	 * @throws IllegalBlockSizeException If the datablock is too big or small
+	 */
+	public static List<PackedFrame[]> packMulti(List<PaillierPublicKey> keys, final int partitions, long sequenceNumber, byte[] datablock) throws IllegalBlockSizeException {
+		final AESKey K = new AESKey(SYMM_KEY_SIZE);
+		
+		// Encapsulate the block key for every receiver in parallel
+		List<Future<KeyBundle>> bundles = new ArrayList<>();
+		for (final PaillierPublicKey key : keys){
+			bundles.add(ForkJoinPool.commonPool().submit(new Callable<KeyBundle>(){
+				@Override
+				public KeyBundle call() {
+					return KeyBundle.create(key, partitions, K);
+				}
+			}));
+		}
+		
+		// Meanwhile, encode and split the data once
+		byte[] EKM = new byte[0];
+		try {
+			EKM = AES.encode(K, datablock);
+		} catch (InvalidKeyException | BadPaddingException e1) {
+			e1.printStackTrace();
+		}
+		int[] sizes = AESSplitter.sizeUniform(EKM.length, partitions);
+		ByteBuffer[] Mparts = new ByteBuffer[partitions];
+		int position = 0;
+		for (int i = 0; i < partitions; i++){
+			Mparts[i] = ByteBuffer.wrap(EKM, position, sizes[i]).slice();
+			position += sizes[i];
+		}
+		
+		List<PackedFrame[]> out = new ArrayList<>();
+		for (Future<KeyBundle> future : bundles){
+			KeyBundle bundle;
+			try {
+				bundle = future.get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IllegalStateException("Interrupted while encapsulating block key", e);
+			} catch (ExecutionException e) {
+				throw new IllegalStateException("Could not encapsulate block key", e);
+			}
+			bundle.use();
+			int bitspace = bundle.getPublicKey().getBitspace();
+			List<PackedFrame> frames = new ArrayList<>();
+			for (int i = 0; i < partitions; i++){
+				int size = headerSize(bitspace) + sizes[i];
+				ByteBuffer bHeader = ByteBuffer.allocate(headerSize(bitspace)).putInt(size)
+											.putLong(sequenceNumber)
+											.putInt(bundle.getKeyId())
+											.put(bundle.getShare(i))
+											.put(bundle.getHash())
+											.put(bundle.getChannelId(i));
+				frames.add(new PackedFrame(bHeader.array(), Mparts[i]));
+			}
+			// Every receiver gets its own order
+			Collections.shuffle(frames);
+			out.add(frames.toArray(new PackedFrame[partitions]));
+		}
+		return out;
+	}
+	
+	/**
+	 * The size in bytes of a packet without its encrypted data block
+	 * 
+	 * @param bitspace The bit size of the receiver's key
+	 */
+	public static int headerSize(int bitspace){
+		return 4 + 8 + 4 + (bitspace+1) + 32 + 16;
+	}
+	
+	/**
+	 * Get the sequence number of a packet without parsing the rest of it
+	 * 
+	 * @param packet The packet as created by pack
+	 * @throws IllegalPacketException If the packet is too short to hold a sequence number
+	 */
+	public static long peekSequenceNumber(byte[] packet) throws IllegalPacketException{
+		if (packet.length < 12)
+			throw new IllegalPacketException("Packet of " + packet.length + " bytes has no sequence number");
+		return ByteBuffer.wrap(packet, 4, 8).getLong();
+	}
+	
+	/**
+	 * Get the receiver's key id of a packet without parsing the rest of it
+	 * 
+	 * @param packet The packet as created by pack
+	 * @throws IllegalPacketException If the packet is too short to hold a key id
+	 */
+	public static int peekKeyId(byte[] packet) throws IllegalPacketException{
+		if (packet.length < 16)
+			throw new IllegalPacketException("Packet of " + packet.length + " bytes has no key id");
+		return ByteBuffer.wrap(packet, 12, 4).getInt();
+	}
+	
+	/**
+	 * Get the encrypted channel id of a packet without parsing the rest of it,
+	 * for instance to acknowledge the packet to its sender
+	 * 
+	 * @param packet The packet as created by pack
+	 * @param bitspace The bitspace of the receiver's key
+	 * @throws IllegalPacketException If the packet is too short to hold a channel id
+	 */
+	public static byte[] peekChannelId(byte[] packet, int bitspace) throws IllegalPacketException{
+		int end = headerSize(bitspace);
+		if (packet.length < end)
+			throw new IllegalPacketException("Packet of " + packet.length + " bytes has no channel id");
+		return Arrays.copyOfRange(packet, end - 16, end);
 	}
 	
 	/**
@@ -101,53 +455,256 @@ public class Packer {
 	 * @throws IOException If the stream could not be read/was corrupted
 	 */
 	public static RawPacket read(PaillierPrivateKey key, InputStream is) throws IOException{
-		byte[] bSize = new byte[4];
-		if (is.read(bSize) != 4)
-			throw new EOFException("Reached end of stream while parsing packet size");
-		int iSize = ByteBuffer.wrap(bSize).getInt();
+		return readPayload(readHeader(key, is), is);
+	}
+	
+	/**
+	 * Read in a single RawPacket from a stream, for a receiver holding multiple keys
+	 * 
+	 * @param cache The contexts of the receiver's keys, by key id
+	 * @param is The stream
+	 * @return The container for the read packet, to be combined with the context of its key id
+	 * @throws IOException If the stream could not be read/was corrupted or the key id is unknown
+	 */
+	public static RawPacket read(DecryptorCache cache, InputStream is) throws IOException{
+		int iSize = readSize(is);
+		byte[] bIds = new byte[8 + 4];
+		if (readFully(is, bIds) != bIds.length)
+			throw new EOFException("Reached end of stream while parsing packet sequence number and key id");
+		ByteBuffer ids = ByteBuffer.wrap(bIds);
+		long lSeq = ids.getLong();
+		int iKeyId = ids.getInt();
+		DecryptionContext context = cache.get(iKeyId);
+		if (context == null)
+			throw new IOException("Unknown key id " + iKeyId);
+		return readPayload(readHeader(context.getKey().getBitspace(), iSize, lSeq, iKeyId, is), is);
+	}
+	
+	private static RawPacket readPayload(PacketHeader header, InputStream is) throws IOException{
+		byte[] bEKMi = new byte[header.getPayloadLength()];
+		if (readFully(is, bEKMi) != bEKMi.length)
+			throw new EOFException("Reached end of stream while parsing encrypted data block");
 		
-		byte[] bSeq = new byte[4];
-		if (is.read(bSeq) != 4)
-			throw new EOFException("Reached end of stream while parsing packet sequence number");
-		int iSeq = ByteBuffer.wrap(bSeq).getInt();
+		return new RawPacket(header.getSequenceNumber(), header.getKeyId(), header.getPartKey(), header.getKeyHash(), header.getEncChannelId(), bEKMi);
+	}
+	
+	/**
+	 * Read in a single authenticated RawPacket from a stream, checking its tag
+	 * before parsing any of it
+	 * 
+	 * @param key The Private Key for decoding
+	 * @param is The stream
+	 * @param authenticator The authenticator for the sender
+	 * @return The container for the read packet
+	 * @throws IOException If the stream could not be read/was corrupted or the tag is invalid
+	 */
+	public static RawPacket read(PaillierPrivateKey key, InputStream is, PacketAuthenticator authenticator) throws IOException{
+		int iSize = readSize(is);
+		if (iSize < headerSize(key.getBitspace()) + PacketAuthenticator.TAG_SIZE || iSize > authenticator.getMaxPacketSize()){
+			authenticator.reject();
+			throw new IOException("Authenticated packet size " + iSize + " out of range");
+		}
+		byte[] bPacket = new byte[iSize];
+		ByteBuffer.wrap(bPacket).putInt(iSize);
+		if (readFully(is, bPacket, 4, iSize - 4) != iSize - 4)
+			throw new EOFException("Reached end of stream while parsing authenticated packet");
+		if (!authenticator.verify(bPacket))
+			throw new IOException("Packet failed authentication");
 		
-		byte[] bHomo = new byte[key.getBitspace()+1];
-		if (is.read(bHomo) != bHomo.length)
+		// Strip the tag from the verified packet
+		ByteBuffer.wrap(bPacket).putInt(iSize - PacketAuthenticator.TAG_SIZE);
+		return read(key, new ByteArrayInputStream(bPacket, 0, iSize - PacketAuthenticator.TAG_SIZE));
+	}
+	
+	/**
+	 * Read in the header of a single packet from a stream,
+	 * leaving its encrypted data on the stream
+	 * 
+	 * @param key The Private Key for decoding
+	 * @param is The stream
+	 * @return The container for the read header
+	 * @throws IOException If the stream could not be read/was corrupted
+	 */
+	public static PacketHeader readHeader(PaillierPrivateKey key, InputStream is) throws IOException{
+		return readHeader(key.getBitspace(), readSize(is), is);
+	}
+	
+	/**
+	 * Read in the header of a single packet, following its size
+	 */
+	private static PacketHeader readHeader(int bitspace, int iSize, InputStream is) throws IOException{
+		byte[] bIds = new byte[8 + 4];
+		if (readFully(is, bIds) != bIds.length)
+			throw new EOFException("Reached end of stream while parsing packet sequence number and key id");
+		ByteBuffer ids = ByteBuffer.wrap(bIds);
+		return readHeader(bitspace, iSize, ids.getLong(), ids.getInt(), is);
+	}
+	
+	/**
+	 * Read in the header of a single packet, following its key id
+	 */
+	private static PacketHeader readHeader(int bitspace, int iSize, long lSeq, int iKeyId, InputStream is) throws IOException{
+		byte[] bHomo = new byte[bitspace+1];
+		if (readFully(is, bHomo) != bHomo.length)
 			throw new EOFException("Reached end of stream while parsing homomorphically encrypted key");
 		BigInteger biHomo = new BigInteger(bHomo);
 		
 		byte[] bHash = new byte[32];
-		if (is.read(bHash) != 32)
+		if (readFully(is, bHash) != 32)
 			throw new EOFException("Reached end of stream while parsing key hash");
 		BigInteger biHash = new BigInteger(bHash);
 		
 		byte[] bKi = new byte[16];
-		if (is.read(bKi) != 16)
+		if (readFully(is, bKi) != 16)
 			throw new EOFException("Reached end of stream while parsing encrypted sequence number");
 		
-		int remainder = iSize - bSize.length - bSeq.length - bHomo.length - bHash.length - bKi.length;
-		byte[] bEKMi = new byte[remainder];
-		if (is.read(bEKMi) != remainder)
-			throw new EOFException("Reached end of stream while parsing encrypted data block");
+		int remainder = iSize - headerSize(bitspace);
+		if (remainder < 0)
+			throw new IOException("Packet size " + iSize + " is too small for its header");
 		
-		return new RawPacket(iSeq, biHomo, biHash, bKi, bEKMi);
+		return new PacketHeader(lSeq, iKeyId, biHomo, biHash, bKi, remainder);
+	}
+	
+	/**
+	 * Read in a single packet or an aggregate frame created by a ShareRelay from a stream.
+	 * The first packet of an aggregate carries the combined key share, the others carry
+	 * the neutral share 1, such that combining them all yields the block key.
+	 * 
+	 * @param key The Private Key for decoding
+	 * @param is The stream
+	 * @return The containers for the read packets
+	 * @throws IOException If the stream could not be read/was corrupted
+	 */
+	public static RawPacket[] readAggregate(PaillierPrivateKey key, InputStream is) throws IOException{
+		return readAggregate(key.getBitspace(), is);
+	}
+	
+	/**
+	 * Read in a single packet or an aggregate frame from a stream, without decoding anything
+	 * 
+	 * @param key The Public Key of the receiver
+	 * @param is The stream
+	 * @return The containers for the read packets
+	 * @throws IOException If the stream could not be read/was corrupted
+	 */
+	public static RawPacket[] readAggregate(PaillierPublicKey key, InputStream is) throws IOException{
+		return readAggregate(key.getBitspace(), is);
+	}
+	
+	private static RawPacket[] readAggregate(int bitspace, InputStream is) throws IOException{
+		int iSize = readSize(is);
+		if ((iSize & AGGREGATE_FLAG) == 0){
+			return new RawPacket[] {readPayload(readHeader(bitspace, iSize, is), is)};
+		}
+		int remainder = (iSize & ~AGGREGATE_FLAG) - 4;
+		
+		byte[] bHeader = new byte[8 + 4 + bitspace+1 + 32 + 4];
+		remainder -= bHeader.length;
+		if (remainder < 0)
+			throw new IOException("Aggregate size " + (iSize & ~AGGREGATE_FLAG) + " is too small for its header");
+		if (readFully(is, bHeader) != bHeader.length)
+			throw new EOFException("Reached end of stream while parsing aggregate header");
+		ByteBuffer header = ByteBuffer.wrap(bHeader);
+		long lSeq = header.getLong();
+		int iKeyId = header.getInt();
+		byte[] bHomo = new byte[bitspace+1];
+		header.get(bHomo);
+		byte[] bHash = new byte[32];
+		header.get(bHash);
+		int count = header.getInt();
+		BigInteger biHash = new BigInteger(bHash);
+		
+		if (count < 1 || count > remainder / 20)
+			throw new IOException("Aggregate of " + count + " packets does not fit its size");
+		RawPacket[] out = new RawPacket[count];
+		for (int i = 0; i < count; i++){
+			byte[] bPart = new byte[16 + 4];
+			if (readFully(is, bPart) != bPart.length)
+				throw new EOFException("Reached end of stream while parsing aggregated packet header");
+			byte[] bKi = Arrays.copyOf(bPart, 16);
+			int length = ByteBuffer.wrap(bPart, 16, 4).getInt();
+			remainder -= bPart.length;
+			if (length < 0 || length > remainder)
+				throw new IOException("Aggregated packet of " + length + " bytes does not fit the aggregate size");
+			byte[] bEKMi = new byte[length];
+			if (readFully(is, bEKMi) != length)
+				throw new EOFException("Reached end of stream while parsing encrypted data block");
+			remainder -= length;
+			out[i] = new RawPacket(lSeq, iKeyId, i == 0 ? new BigInteger(bHomo) : BigInteger.ONE, biHash, bKi, bEKMi);
+		}
+		if (remainder != 0)
+			throw new IOException("Aggregate has " + remainder + " trailing bytes");
+		return out;
+	}
+	
+	/**
+	 * Create an aggregate frame of packets of the same sequence number
+	 * 
+	 * @param bitspace The bit size of the receiver's key
+	 * @param sequenceNumber The sequence number of the packets
+	 * @param keyId The id of the receiver's key
+	 * @param share The combined homomorphically encrypted key share of the packets
+	 * @param hash The key hash of the packets
+	 * @param packets The packets, of which the encrypted channel ids and data are kept
+	 */
+	static byte[] packAggregate(int bitspace, long sequenceNumber, int keyId, BigInteger share, BigInteger hash, List<RawPacket> packets){
+		int size = 4 + 8 + 4 + (bitspace+1) + 32 + 4;
+		for (RawPacket packet : packets)
+			size += 16 + 4 + packet.getBlock().length;
+		ByteBuffer bOut = ByteBuffer.allocate(size).putInt(size | AGGREGATE_FLAG)
+									.putLong(sequenceNumber)
+									.putInt(keyId)
+									.put(packBigInteger(share, bitspace+1))
+									.put(packBigInteger(hash, 32))
+									.putInt(packets.size());
+		for (RawPacket packet : packets)
+			bOut.put(packet.getEncChannelId())
+				.putInt(packet.getBlock().length)
+				.put(packet.getBlock());
+		return bOut.array();
+	}
+	
+	private static int readSize(InputStream is) throws IOException{
+		byte[] bSize = new byte[4];
+		if (readFully(is, bSize) != 4)
+			throw new EOFException("Reached end of stream while parsing packet size");
+		return ByteBuffer.wrap(bSize).getInt();
+	}
+	
+	/**
+	 * Read bytes until the buffer is full or the stream ends,
+	 * as streams such as sockets may return partial reads
+	 * @return The amount of bytes read
+	 */
+	static int readFully(InputStream is, byte[] buffer) throws IOException{
+		return readFully(is, buffer, 0, buffer.length);
+	}
+	
+	/**
+	 * Read bytes until part of the buffer is full or the stream ends
+	 * @return The amount of bytes read
+	 */
+	static int readFully(InputStream is, byte[] buffer, int offset, int length) throws IOException{
+		int total = 0;
+		while (total < length){
+			int read = is.read(buffer, offset + total, length - total);
+			if (read < 0)
+				break;
+			total += read;
+		}
+		return total;
 	}
 	
 	/**
 	 * Pack a BigInteger into a certain amount of bytes
 	 */
-	private static byte[] packBigInteger(BigInteger bi, int bytes){
+	static byte[] packBigInteger(BigInteger bi, int bytes){
 		byte[] rep = bi.toByteArray();
 		byte[] out = new byte[bytes];
-		byte sign = (byte)(rep[0] & (byte) 0x80);
-		if (sign > 0){
-			// Expand by shifting the sign bit to the leftmost position
-			rep[0] &= 0x7F;
-			System.arraycopy(rep, 0, out, out.length - rep.length, rep.length);
-			out[0] |= 0x80;
-		} else {
-			System.arraycopy(rep, 0, out, out.length - rep.length, rep.length);
-		}
+		// Sign extend negative numbers, such that they read back as the same BigInteger
+		if (bi.signum() < 0)
+			Arrays.fill(out, 0, out.length - rep.length, (byte) 0xFF);
+		System.arraycopy(rep, 0, out, out.length - rep.length, rep.length);
 		return out;
 	}
 	
@@ -0,0 +1,128 @@
+package net.payload;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+import crypto.impl.HKDF;
+import crypto.impl.HMAC;
+
+/**
+ * Authenticates packets with a truncated HMAC-SHA256 tag, keyed from a secret shared
+ * with the peer, such that forged or corrupted packets are rejected before any of
+ * their (Paillier) contents are parsed.
+ *
+ * The tag is appended to a packet and counted in its size field, it covers everything before it.
+ */
+public class PacketAuthenticator {
+
+	/**
+	 * The size of the appended tag in bytes
+	 */
+	public static final int TAG_SIZE = 16;
+
+	/**
+	 * Packets claiming to be larger are rejected without reading them
+	 */
+	public static final int DEFAULT_MAX_PACKET_SIZE = 64 * 1024 * 1024;
+
+	/**
+	 * Context of the MAC key derivation
+	 */
+	private static final byte[] INFO = "PHENet packet authentication".getBytes(StandardCharsets.US_ASCII);
+
+	private final byte[] key;
+	private final int maxPacketSize;
+	private final AtomicLong accepted = new AtomicLong();
+	private final AtomicLong rejected = new AtomicLong();
+
+	/**
+	 * @param secret The secret shared with the peer
+	 */
+	public PacketAuthenticator(byte[] secret){
+		this(secret, DEFAULT_MAX_PACKET_SIZE);
+	}
+
+	/**
+	 * @param secret The secret shared with the peer
+	 * @param maxPacketSize The size of the largest packet to accept, including its tag
+	 */
+	public PacketAuthenticator(byte[] secret, int maxPacketSize){
+		this.key = HKDF.derive(secret, new byte[0], INFO, 32);
+		this.maxPacketSize = maxPacketSize;
+	}
+
+	/**
+	 * Append a tag to a packet
+	 *
+	 * @param packet The packet as created by Packer.pack
+	 * @return The authenticated packet
+	 */
+	public byte[] seal(byte[] packet){
+		byte[] out = new byte[packet.length + TAG_SIZE];
+		System.arraycopy(packet, 0, out, 0, packet.length);
+		ByteBuffer.wrap(out).putInt(out.length);
+		System.arraycopy(HMAC.hash(key, out, 0, packet.length), 0, out, packet.length, TAG_SIZE);
+		return out;
+	}
+
+	/**
+	 * Append a tag to every packet of a block
+	 */
+	public byte[][] seal(byte[][] packets){
+		byte[][] out = new byte[packets.length][];
+		for (int i = 0; i < packets.length; i++)
+			out[i] = seal(packets[i]);
+		return out;
+	}
+
+	/**
+	 * Check the tag of an authenticated packet in constant time, counting the outcome
+	 *
+	 * @param packet The authenticated packet
+	 * @return Whether the tag is valid
+	 */
+	public boolean verify(byte[] packet){
+		if (packet.length < 4 + TAG_SIZE || packet.length > maxPacketSize){
+			rejected.incrementAndGet();
+			return false;
+		}
+		byte[] tag = HMAC.hash(key, packet, 0, packet.length - TAG_SIZE);
+		byte[] received = new byte[TAG_SIZE];
+		System.arraycopy(packet, packet.length - TAG_SIZE, received, 0, TAG_SIZE);
+		if (!MessageDigest.isEqual(Arrays.copyOf(tag, TAG_SIZE), received)){
+			rejected.incrementAndGet();
+			return false;
+		}
+		accepted.incrementAndGet();
+		return true;
+	}
+
+	/**
+	 * Count a packet rejected before its tag could be checked
+	 */
+	void reject(){
+		rejected.incrementAndGet();
+	}
+
+	public int getMaxPacketSize(){
+		return maxPacketSize;
+	}
+
+	/**
+	 * The amount of packets with a valid tag
+	 */
+	public long getAccepted(){
+		return accepted.get();
+	}
+
+	/**
+	 * The amount of packets rejected for a missing, invalid or oversized tag
+	 */
+	public long getRejected(){
+		return rejected.get();
+	}
+
+}
@@ -1,10 +1,12 @@
 package net.payload;
 
+import java.io.IOException;
 import java.math.BigInteger;
 import java.nio.ByteBuffer;
 import java.security.InvalidKeyException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
 
 import javax.crypto.BadPaddingException;
 import javax.crypto.IllegalBlockSizeException;
@@ -20,47 +22,219 @@ import crypto.impl.SHA256;
  */
 public class PacketCombiner {
 
-	private final int sequenceNumber;
+	private final long sequenceNumber;
+	private final int keyId;
 	private List<RawPacket> packets = new ArrayList<RawPacket>();
-	private BigInteger Kt = BigInteger.ONE;
 	private BigInteger Khash = null;
+	private long bufferedSize = 0;
+	private boolean recovered = false;
 	
-	private BigInteger n2;
+	private final ShareAccumulator shares;
 	private Paillier paillier;
 	
+	private final SlabAllocator allocator;
+	private List<ByteBuffer> stored = new ArrayList<ByteBuffer>();
+	private SpillFile spill = null;
+	
 	/**
 	 * Link this combiner to a certain sequence number
 	 */
-	public PacketCombiner(PaillierPrivateKey key, int sequenceNumber){
+	public PacketCombiner(PaillierPrivateKey key, long sequenceNumber){
+		this(key, new Paillier(key), sequenceNumber);
+	}
+	
+	/**
+	 * Link this combiner to a certain sequence number,
+	 * decoding with an existing Paillier instance for the key
+	 */
+	public PacketCombiner(PaillierPrivateKey key, Paillier paillier, long sequenceNumber){
 		this.sequenceNumber = sequenceNumber;
-		this.paillier = new Paillier(key);
-		this.n2 = key.getN().multiply(key.getN());
+		this.keyId = DecryptionContext.keyId(key.getN());
+		this.paillier = paillier;
+		this.shares = new ShareAccumulator(key.getN().multiply(key.getN()));
+		this.allocator = null;
+	}
+	
+	/**
+	 * Link this combiner to a certain sequence number,
+	 * decoding with a shared context for the key
+	 */
+	public PacketCombiner(DecryptionContext context, long sequenceNumber){
+		this(context, sequenceNumber, null);
 	}
 	
 	/**
-	 * Combine another raw packet and see if the message can be constructed yet
+	 * Link this combiner to a certain sequence number,
+	 * decoding with a shared context for the key and storing the
+	 * data of the read packets off-heap until finish or release
+	 * 
+	 * @param allocator The allocator of the off-heap memory, or null to keep the data on the heap
+	 */
+	public PacketCombiner(DecryptionContext context, long sequenceNumber, SlabAllocator allocator){
+		this.sequenceNumber = sequenceNumber;
+		this.keyId = context.getKeyId();
+		this.paillier = context.getPaillier();
+		this.shares = new ShareAccumulator(context.getN2());
+		this.allocator = allocator;
+	}
+	
+	/**
+	 * Combine another raw packet and see if the message can be constructed yet.
+	 * A packet repeating the channel id of a read packet (such as a hedged retransmission)
+	 * is ignored, as combining its key share twice would corrupt the key.
 	 * 
 	 * @param p The packet to add
 	 * @return Whether the block of this sequence number is complete
 	 * @throws IllegalPacketException If the packet is malformed
 	 */
 	public boolean read(RawPacket p) throws IllegalPacketException{
-		if (sequenceNumber != p.getSequenceNumber())
-			throw new IllegalPacketException("Tried to combine packet with seq.no. " + p.getSequenceNumber() + 
-												" into " + sequenceNumber);
-		if (Khash != null && !Khash.equals(p.getKeyHash()))
-			throw new IllegalPacketException("Tried to combine packet with different hash");
-		if (Khash == null){
-			Khash = p.getKeyHash();
+		return read(new RawPacket[] {p});
+	}
+	
+	/**
+	 * Combine multiple raw packets, such as the packets of an aggregate frame,
+	 * and see if the message can be constructed yet, decoding the key only once.
+	 * The shares of packets of the frame which were read before are divided out,
+	 * see ShareAccumulator.
+	 * 
+	 * @param ps The packets to add
+	 * @return Whether the block of this sequence number is complete
+	 * @throws IllegalPacketException If a packet is malformed
+	 */
+	public boolean read(RawPacket[] ps) throws IllegalPacketException{
+		for (RawPacket p : ps){
+			if (sequenceNumber != p.getSequenceNumber())
+				throw new IllegalPacketException("Tried to combine packet with seq.no. " + p.getSequenceNumber() + 
+													" into " + sequenceNumber);
+			if (p.getKeyId() != 0 && p.getKeyId() != keyId)
+				throw new IllegalPacketException("Tried to combine packet for key id " + p.getKeyId() + 
+													" into " + keyId);
+			if (Khash != null && !Khash.equals(p.getKeyHash()))
+				throw new IllegalPacketException("Tried to combine packet with different hash");
+			if (Khash == null){
+				Khash = p.getKeyHash();
+			}
 		}
 		
-		Kt = Kt.multiply(p.getPartKey()).mod(n2);
-		packets.add(p);
-		return SHA256.test(paillier.decode(Kt).toByteArray(), Khash.toByteArray());
+		ShareAccumulator.Selection selection = shares.select(ps);
+		// Store the data first, such that a failed spill leaves the combiner unchanged
+		List<ByteBuffer> chunks = new ArrayList<ByteBuffer>();
+		if (spill != null){
+			// Once spilled, later data of the block goes straight to disk
+			try {
+				for (RawPacket p : selection.getFresh())
+					chunks.add(spill.append(ByteBuffer.wrap(p.getBlock())));
+			} catch (IOException e){
+				for (ByteBuffer chunk : chunks)
+					spill.free(chunk);
+				throw new BudgetExceededException("Failed to spill packet data: " + e.getMessage());
+			}
+		} else if (allocator != null){
+			for (RawPacket p : selection.getFresh())
+				chunks.add(allocator.store(p.getBlock()));
+		}
+		shares.accept(selection);
+		stored.addAll(chunks);
+		for (RawPacket p : selection.getFresh()){
+			bufferedSize += p.getBlock().length;
+			packets.add(isStored() ? strip(p) : p);
+		}
+		if (selection.getFresh().isEmpty())
+			return recovered;
+		// Compare as numbers, the byte representations may differ in length
+		recovered = SHA256.hash(paillier.decode(shares.getProduct())).equals(Khash);
+		return recovered;
+	}
+	
+	public long getSequenceNumber(){
+		return sequenceNumber;
+	}
+	
+	/**
+	 * The amount of packets ignored for repeating the channel id of a read packet
+	 */
+	public long getDuplicates(){
+		return shares.getDuplicates();
+	}
+	
+	/**
+	 * The amount of encrypted data bytes held by the read packets
+	 */
+	public long getBufferedSize(){
+		return bufferedSize;
 	}
 	
 	/**
-	 * Decrypt the message formed by all read partial packets
+	 * Move the data of the read packets (and of packets read later) to a spill file,
+	 * only the key accumulator, hash and channel ids stay in memory
+	 * 
+	 * @param file The file to append the data to
+	 * @return The amount of data bytes moved out of memory, 0 if already spilled
+	 * @throws IOException If the data could not be written, the combiner is then unchanged
+	 */
+	public long spill(SpillFile file) throws IOException{
+		if (spill != null)
+			return 0;
+		List<ByteBuffer> views = new ArrayList<ByteBuffer>();
+		long size = 0;
+		try {
+			for (int j = 0; j < packets.size(); j++){
+				ByteBuffer data = allocator == null ? ByteBuffer.wrap(packets.get(j).getBlock()) : stored.get(j);
+				views.add(file.append(data));
+				size += data.remaining();
+			}
+		} catch (IOException e){
+			for (ByteBuffer view : views)
+				file.free(view);
+			throw e;
+		}
+		release();
+		for (int j = 0; j < packets.size(); j++)
+			packets.set(j, strip(packets.get(j)));
+		stored = views;
+		spill = file;
+		return size;
+	}
+	
+	/**
+	 * Whether the data of this combiner is held by a spill file
+	 */
+	public boolean isSpilled(){
+		return spill != null;
+	}
+	
+	/**
+	 * Free the off-heap or spilled data of the read packets, for instance when the block expires.
+	 * The combiner can not be finished afterwards.
+	 */
+	public void release(){
+		if (spill != null){
+			for (ByteBuffer view : stored)
+				spill.free(view);
+		} else if (allocator != null){
+			for (ByteBuffer chunk : stored)
+				allocator.free(chunk);
+		}
+		stored.clear();
+	}
+	
+	/**
+	 * Whether the data of the read packets is held outside of the packets themselves
+	 */
+	private boolean isStored(){
+		return spill != null || allocator != null;
+	}
+	
+	/**
+	 * A copy of a packet without its data, only keeping the small header fields on the heap
+	 */
+	private static RawPacket strip(RawPacket p){
+		return new RawPacket(p.getSequenceNumber(), p.getKeyId(), p.getPartKey(), p.getKeyHash(), p.getEncChannelId(), new byte[0]);
+	}
+	
+	/**
+	 * Decrypt the message formed by all read partial packets,
+	 * releasing their off-heap or spilled data if any
 	 * 
 	 * @return The decrypted message
 	 * @throws InvalidKeyException If the AES key decoded incorrectly
@@ -68,7 +242,20 @@ public class PacketCombiner {
 	 * @throws BadPaddingException If the data blocks were malformed
 	 */
 	public byte[] finish() throws InvalidKeyException, IllegalBlockSizeException, BadPaddingException{
-		AESKey K = new AESKey(paillier.decode(Kt));
+		AESKey K = new AESKey(paillier.decode(shares.getProduct()));
+		if (isStored()){
+			try {
+				// Decrypt straight from the chunks or the mapped spill file, in channel order
+				ByteBuffer[] ordered = new ByteBuffer[packets.size()];
+				for (int j = 0; j < packets.size(); j++){
+					int i = ByteBuffer.wrap(AES.decode(K, packets.get(j).getEncChannelId())).getInt();
+					ordered[i] = stored.get(j).duplicate();
+				}
+				return AES.decode(K, ordered);
+			} finally {
+				release();
+			}
+		}
 		// Reorder the encrypted message
 		RawPacket[] ordered = new RawPacket[packets.size()];
 		int size = 0;
@@ -87,4 +274,33 @@ public class PacketCombiner {
 		}
 		return AES.decode(K, enc);
 	}
+	
+	/**
+	 * Decrypt the message formed by all read partial packets, which were
+	 * packed with Packer.packSegmented, decrypting the partitions in parallel.
+	 * Off-heap or spilled data is copied to the heap per partition and released.
+	 * 
+	 * @param pool The pool to decrypt the partitions on
+	 * @return The decrypted message
+	 * @throws InvalidKeyException If the AES key decoded incorrectly
+	 * @throws IllegalBlockSizeException If the channel ids were malformed
+	 * @throws BadPaddingException If the channel ids were malformed
+	 */
+	public byte[] finishSegmented(ForkJoinPool pool) throws InvalidKeyException, IllegalBlockSizeException, BadPaddingException{
+		AESKey K = new AESKey(paillier.decode(shares.getProduct()));
+		// Reorder the encrypted message
+		byte[][] ordered = new byte[packets.size()][];
+		for (int j = 0; j < packets.size(); j++){
+			int i = ByteBuffer.wrap(AES.decode(K, packets.get(j).getEncChannelId())).getInt();
+			if (!isStored()){
+				ordered[i] = packets.get(j).getBlock();
+			} else {
+				ordered[i] = new byte[stored.get(j).remaining()];
+				stored.get(j).duplicate().get(ordered[i]);
+			}
+		}
+		release();
+		// Every partition is an independent segment
+		return AES.codeSegments(K, ordered, pool);
+	}
 }
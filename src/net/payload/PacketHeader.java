@@ -0,0 +1,25 @@
+package net.payload;
+
+import java.math.BigInteger;
+
+/**
+ * Class used to store the header of a received partial packet,
+ * of which the encrypted data is still to be read
+ */
+public class PacketHeader extends RawPacket {
+
+	private final int payloadLength;
+
+	public PacketHeader(long sequenceNumber, int keyId, BigInteger partKey, BigInteger keyHash, byte[] channelid, int payloadLength){
+		super(sequenceNumber, keyId, partKey, keyHash, channelid, new byte[0]);
+		this.payloadLength = payloadLength;
+	}
+
+	/**
+	 * The amount of encrypted data bytes following the header
+	 */
+	public int getPayloadLength(){
+		return payloadLength;
+	}
+
+}
@@ -0,0 +1,270 @@
+package net.payload;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.security.GeneralSecurityException;
+import java.security.InvalidKeyException;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import crypto.impl.AES;
+import crypto.impl.AESKey;
+import crypto.impl.Paillier;
+import crypto.impl.PaillierPrivateKey;
+import crypto.impl.SHA256;
+
+/**
+ * Class to combine packets packed with Packer.packSegmented, decrypting their data while it arrives.
+ *
+ * The headers of all partitions are read first (see Packer.readHeader), which recovers the key.
+ * From then on every piece of encrypted data is decrypted as soon as it is read, by seeking
+ * in the counter mode segment of its partition. The plaintext is delivered to the sink in order,
+ * as soon as it forms a contiguous prefix of the message. Data read before the key was
+ * recovered is buffered and decrypted at once on recovery.
+ */
+public class ProgressiveCombiner {
+
+	/**
+	 * Receives the plaintext of the message, in order
+	 */
+	public interface Sink {
+
+		void write(ByteBuffer plaintext) throws IOException;
+
+	}
+
+	/**
+	 * The amount of bytes read from a stream at a time
+	 */
+	private static final int CHUNK_SIZE = 16384;
+
+	private final long sequenceNumber;
+	private final Sink sink;
+	private final Map<PacketHeader, Partition> partitions = new IdentityHashMap<>();
+	private final List<Partition> arrived = new ArrayList<>();
+	private BigInteger Kt = BigInteger.ONE;
+	private BigInteger Khash = null;
+	private AESKey K = null;
+	private Partition[] ordered = null;
+	private int next = 0;
+	private long delivered = 0;
+
+	private BigInteger n2;
+	private Paillier paillier;
+
+	/**
+	 * Link this combiner to a certain sequence number, writing the plaintext to a channel
+	 */
+	public ProgressiveCombiner(PaillierPrivateKey key, long sequenceNumber, final WritableByteChannel channel){
+		this(key, new Paillier(key), sequenceNumber, new Sink(){
+			@Override
+			public void write(ByteBuffer plaintext) throws IOException {
+				while (plaintext.hasRemaining())
+					channel.write(plaintext);
+			}
+		});
+	}
+
+	/**
+	 * Link this combiner to a certain sequence number,
+	 * decoding with an existing Paillier instance for the key
+	 */
+	public ProgressiveCombiner(PaillierPrivateKey key, Paillier paillier, long sequenceNumber, Sink sink){
+		this.sequenceNumber = sequenceNumber;
+		this.paillier = paillier;
+		this.sink = sink;
+		this.n2 = key.getN().multiply(key.getN());
+	}
+
+	/**
+	 * Combine another packet header and see if the key can be recovered yet
+	 *
+	 * @param header The header to add
+	 * @return Whether the key of this sequence number is recovered
+	 * @throws IllegalPacketException If the header is malformed
+	 * @throws IOException If the sink could not be written to
+	 */
+	public synchronized boolean readHeader(PacketHeader header) throws IllegalPacketException, IOException{
+		if (sequenceNumber != header.getSequenceNumber())
+			throw new IllegalPacketException("Tried to combine packet with seq.no. " + header.getSequenceNumber() +
+												" into " + sequenceNumber);
+		if (K != null)
+			throw new IllegalPacketException("Tried to combine packet into recovered block " + sequenceNumber);
+		if (Khash != null && !Khash.equals(header.getKeyHash()))
+			throw new IllegalPacketException("Tried to combine packet with different hash");
+		if (Khash == null){
+			Khash = header.getKeyHash();
+		}
+
+		Kt = Kt.multiply(header.getPartKey()).mod(n2);
+		Partition partition = new Partition(header);
+		partitions.put(header, partition);
+		arrived.add(partition);
+		BigInteger secret = paillier.decode(Kt);
+		if (SHA256.hash(secret).equals(Khash))
+			recover(new AESKey(secret));
+		return K != null;
+	}
+
+	/**
+	 * Decrypt (or buffer, if the key is not recovered yet) the next part of the
+	 * encrypted data of a packet and deliver the plaintext which became contiguous
+	 *
+	 * @param header The header of the packet, as passed to readHeader
+	 * @param data The encrypted data
+	 * @param offset The start of the part in data
+	 * @param length The length of the part
+	 * @throws IllegalPacketException If the header is unknown or the part exceeds its packet
+	 * @throws IOException If the sink could not be written to
+	 */
+	public synchronized void readPayload(PacketHeader header, byte[] data, int offset, int length) throws IllegalPacketException, IOException{
+		Partition partition = partitions.get(header);
+		if (partition == null)
+			throw new IllegalPacketException("Tried to read data of an unknown packet");
+		if (partition.received + length > header.getPayloadLength())
+			throw new IllegalPacketException("Data exceeds the packet size by " +
+												(partition.received + length - header.getPayloadLength()) + " bytes");
+		if (K == null){
+			partition.pending.write(data, offset, length);
+		} else {
+			byte[] plain = new byte[length];
+			decode(partition, partition.received, data, offset, length, plain);
+			partition.plain.write(plain, 0, length);
+		}
+		partition.received += length;
+		deliver();
+	}
+
+	/**
+	 * Read the remaining encrypted data of a packet from a stream
+	 *
+	 * @param header The header of the packet, as passed to readHeader
+	 * @param is The stream, positioned after the data read so far
+	 * @throws IllegalPacketException If the header is unknown
+	 * @throws IOException If the stream could not be read or the sink could not be written to
+	 */
+	public void readPayload(PacketHeader header, InputStream is) throws IllegalPacketException, IOException{
+		int remaining;
+		synchronized (this){
+			Partition partition = partitions.get(header);
+			if (partition == null)
+				throw new IllegalPacketException("Tried to read data of an unknown packet");
+			remaining = header.getPayloadLength() - partition.received;
+		}
+		byte[] chunk = new byte[Math.min(CHUNK_SIZE, Math.max(remaining, 1))];
+		while (remaining > 0){
+			int read = is.read(chunk, 0, Math.min(chunk.length, remaining));
+			if (read == -1)
+				throw new EOFException("Reached end of stream while parsing encrypted data block");
+			readPayload(header, chunk, 0, read);
+			remaining -= read;
+		}
+	}
+
+	/**
+	 * Whether the key of this sequence number is recovered
+	 */
+	public synchronized boolean isRecovered(){
+		return K != null;
+	}
+
+	/**
+	 * Whether the entire message was delivered to the sink
+	 */
+	public synchronized boolean isComplete(){
+		return ordered != null && next == ordered.length;
+	}
+
+	/**
+	 * The amount of plaintext bytes delivered to the sink
+	 */
+	public synchronized long getDelivered(){
+		return delivered;
+	}
+
+	public long getSequenceNumber(){
+		return sequenceNumber;
+	}
+
+	/**
+	 * Order the partitions and decrypt the data buffered so far
+	 */
+	private void recover(AESKey key) throws IllegalPacketException, IOException{
+		Partition[] order = new Partition[arrived.size()];
+		for (Partition partition : arrived){
+			int i;
+			try {
+				i = ByteBuffer.wrap(AES.decode(key, partition.header.getEncChannelId())).getInt();
+			} catch (GeneralSecurityException e){
+				throw new IllegalPacketException("Could not decrypt channel id");
+			}
+			if (i < 0 || i >= order.length || order[i] != null)
+				throw new IllegalPacketException("Illegal channel id " + i);
+			partition.index = i;
+			order[i] = partition;
+		}
+		K = key;
+		ordered = order;
+		for (Partition partition : arrived){
+			byte[] enc = partition.pending.toByteArray();
+			partition.pending = null;
+			byte[] plain = new byte[enc.length];
+			decode(partition, 0, enc, 0, enc.length, plain);
+			partition.plain.write(plain, 0, plain.length);
+		}
+		deliver();
+	}
+
+	private void decode(Partition partition, long position, byte[] in, int offset, int length, byte[] out) throws IllegalPacketException{
+		try {
+			AES.codeSegment(K, partition.index, position, in, offset, length, out, 0);
+		} catch (InvalidKeyException e){
+			throw new IllegalPacketException("Could not decrypt data of channel " + partition.index);
+		}
+	}
+
+	/**
+	 * Hand the contiguous prefix of decrypted data to the sink
+	 */
+	private void deliver() throws IOException{
+		if (ordered == null)
+			return;
+		while (next < ordered.length){
+			Partition partition = ordered[next];
+			if (partition.plain.size() > 0){
+				byte[] plain = partition.plain.toByteArray();
+				partition.plain.reset();
+				sink.write(ByteBuffer.wrap(plain));
+				delivered += plain.length;
+			}
+			if (partition.received < partition.header.getPayloadLength())
+				break;
+			next++;
+		}
+	}
+
+	/**
+	 * Progress of a single partition
+	 */
+	private static class Partition {
+
+		private final PacketHeader header;
+		private int index = -1;
+		private int received = 0;
+		private ByteArrayOutputStream pending = new ByteArrayOutputStream();
+		private final ByteArrayOutputStream plain = new ByteArrayOutputStream();
+
+		private Partition(PacketHeader header){
+			this.header = header;
+		}
+
+	}
+
+}
@@ -7,24 +7,37 @@ import java.math.BigInteger;
  */
 public class RawPacket {
 
-	private final int sequenceNumber;
+	private final long sequenceNumber;
+	private final int keyId;
 	private final BigInteger partKey;
 	private final BigInteger keyHash;
 	private final byte[] channelid;
 	private final byte[] block;
 	
-	public RawPacket(int sequenceNumber, BigInteger partKey, BigInteger keyHash, byte[] channelid, byte[] block){
+	public RawPacket(long sequenceNumber, BigInteger partKey, BigInteger keyHash, byte[] channelid, byte[] block){
+		this(sequenceNumber, 0, partKey, keyHash, channelid, block);
+	}
+	
+	public RawPacket(long sequenceNumber, int keyId, BigInteger partKey, BigInteger keyHash, byte[] channelid, byte[] block){
 		this.sequenceNumber = sequenceNumber;
+		this.keyId = keyId;
 		this.partKey = partKey;
 		this.keyHash = keyHash;
 		this.channelid = channelid;
 		this.block = block;
 	}
 
-	public int getSequenceNumber() {
+	public long getSequenceNumber() {
 		return sequenceNumber;
 	}
 
+	/**
+	 * The id of the receiver's key (see DecryptionContext.keyId), or 0 if the frame carries none
+	 */
+	public int getKeyId() {
+		return keyId;
+	}
+
 	public BigInteger getPartKey() {
 		return partKey;
 	}
@@ -0,0 +1,448 @@
+package net.payload;
+
+import java.io.IOException;
+import java.security.InvalidKeyException;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.crypto.BadPaddingException;
+import javax.crypto.IllegalBlockSizeException;
+
+import crypto.impl.PaillierPrivateKey;
+
+/**
+ * Class to route RawPackets of many in-flight sequence numbers to their PacketCombiner.
+ *
+ * Safe to feed from many receiver threads: the sequence number map is striped over
+ * independently locked open addressing tables (without boxing the keys), and every
+ * combiner is read under its own lock.
+ * Partial blocks which do not complete within a timeout are expired by a timing wheel
+ * and the encrypted data held by all partial blocks is capped by a memory budget.
+ * Optionally, that data is kept off-heap in slabs until its block completes or expires,
+ * and the data of the oldest partial blocks is spilled to disk instead of exceeding the budget.
+ * Packets of sequence numbers which fell out of the window of a ReplayFilter, or of blocks
+ * which already completed, are dropped before any of their contents are decoded.
+ */
+public class ReassemblyEngine {
+
+	/**
+	 * Amount of independently locked tables, must be a power of two
+	 */
+	private static final int STRIPES = 64;
+
+	/**
+	 * Amount of buckets in the expiry wheel
+	 */
+	private static final int WHEEL_SIZE = 128;
+
+	private final DecryptorCache cache;
+	private final long memoryBudget;
+	private final long timeout;
+	private final SlabAllocator allocator;
+	private final SpillFile spillFile;
+	private final ReplayFilter filter;
+
+	private final Segment[] segments = new Segment[STRIPES];
+	private final TimingWheel<Entry> wheel;
+	private final AtomicLong buffered = new AtomicLong();
+	private final AtomicLong spilled = new AtomicLong();
+	private final LinkedHashSet<Entry> oldest = new LinkedHashSet<>();
+
+	/**
+	 * Create an engine for a certain receiver
+	 *
+	 * @param key The Private Key for decoding
+	 * @param memoryBudget The maximum amount of encrypted data bytes to buffer
+	 * @param timeout The time in milliseconds after its first packet in which a block must complete
+	 */
+	public ReassemblyEngine(PaillierPrivateKey key, long memoryBudget, long timeout){
+		this(new DecryptorCache(), memoryBudget, timeout);
+		cache.register(key);
+	}
+
+	/**
+	 * Create an engine for a receiver holding multiple keys,
+	 * every packet is combined using the context of its key id
+	 *
+	 * @param cache The contexts of the receiver's keys, by key id
+	 * @param memoryBudget The maximum amount of encrypted data bytes to buffer
+	 * @param timeout The time in milliseconds after its first packet in which a block must complete
+	 */
+	public ReassemblyEngine(DecryptorCache cache, long memoryBudget, long timeout){
+		this(cache, memoryBudget, timeout, null);
+	}
+
+	/**
+	 * Create an engine for a receiver holding multiple keys,
+	 * storing the encrypted data of partial blocks off-heap
+	 *
+	 * @param cache The contexts of the receiver's keys, by key id
+	 * @param memoryBudget The maximum amount of encrypted data bytes to buffer
+	 * @param timeout The time in milliseconds after its first packet in which a block must complete
+	 * @param allocator The allocator of the off-heap memory, or null to keep the data on the heap
+	 */
+	public ReassemblyEngine(DecryptorCache cache, long memoryBudget, long timeout, SlabAllocator allocator){
+		this(cache, memoryBudget, timeout, allocator, null);
+	}
+
+	/**
+	 * Create an engine for a receiver holding multiple keys, which spills
+	 * the data of its oldest partial blocks to disk when over the memory budget
+	 *
+	 * @param cache The contexts of the receiver's keys, by key id
+	 * @param memoryBudget The maximum amount of encrypted data bytes to buffer in memory
+	 * @param timeout The time in milliseconds after its first packet in which a block must complete
+	 * @param allocator The allocator of the off-heap memory, or null to keep the data on the heap
+	 * @param spillFile The file to spill to, or null to reject packets over the budget
+	 */
+	public ReassemblyEngine(DecryptorCache cache, long memoryBudget, long timeout, SlabAllocator allocator, SpillFile spillFile){
+		this(cache, memoryBudget, timeout, allocator, spillFile, new ReplayFilter());
+	}
+
+	/**
+	 * Create an engine for a receiver holding multiple keys, with a certain replay filter
+	 *
+	 * @param cache The contexts of the receiver's keys, by key id
+	 * @param memoryBudget The maximum amount of encrypted data bytes to buffer in memory
+	 * @param timeout The time in milliseconds after its first packet in which a block must complete
+	 * @param allocator The allocator of the off-heap memory, or null to keep the data on the heap
+	 * @param spillFile The file to spill to, or null to reject packets over the budget
+	 * @param filter The filter of replayed sequence numbers, or null to accept any sequence number
+	 */
+	public ReassemblyEngine(DecryptorCache cache, long memoryBudget, long timeout, SlabAllocator allocator, SpillFile spillFile, ReplayFilter filter){
+		this.cache = cache;
+		this.filter = filter;
+		this.allocator = allocator;
+		this.spillFile = spillFile;
+		this.memoryBudget = memoryBudget;
+		this.timeout = timeout;
+		for (int i = 0; i < STRIPES; i++)
+			segments[i] = new Segment();
+		this.wheel = new TimingWheel<>(Math.max(1, timeout / (WHEEL_SIZE / 2)), WHEEL_SIZE);
+	}
+
+	/**
+	 * Combine a packet with the other packets of its sequence number
+	 *
+	 * @param p The packet to add
+	 * @return The decrypted block if this packet completed it, null otherwise (also if it was replayed)
+	 * @throws BudgetExceededException If buffering the packet would exceed the memory budget
+	 * @throws IllegalPacketException If the packet is malformed
+	 * @throws InvalidKeyException If the AES key decoded incorrectly
+	 * @throws IllegalBlockSizeException If the data blocks were malformed
+	 * @throws BadPaddingException If the data blocks were malformed
+	 */
+	public byte[] offer(RawPacket p) throws IllegalPacketException, InvalidKeyException, IllegalBlockSizeException, BadPaddingException{
+		if (filter != null && !filter.accept(p.getSequenceNumber()))
+			return null;
+		DecryptionContext context = cache.get(p.getKeyId());
+		if (context == null)
+			throw new IllegalPacketException("Packet for unknown key id " + p.getKeyId());
+		int size = p.getBlock().length;
+		reserve(size);
+		while (true){
+			Entry entry = getOrCreate(context, p.getSequenceNumber());
+			PacketCombiner combiner;
+			synchronized (entry){
+				// Lost a race with completion or expiry, the sequence number starts over unless it completed
+				if (entry.done){
+					if (filter != null && !filter.accept(p.getSequenceNumber())){
+						buffered.addAndGet(-size);
+						return null;
+					}
+					continue;
+				}
+				combiner = entry.combiner;
+				boolean complete;
+				try {
+					complete = combiner.read(p);
+				} catch (IllegalPacketException e){
+					buffered.addAndGet(-size);
+					throw e;
+				}
+				// Spilled blocks keep their data on disk
+				if (combiner.isSpilled())
+					buffered.addAndGet(-size);
+				else
+					entry.size += size;
+				if (!complete)
+					return null;
+				// Late and retransmitted packets of this block are dropped from now on
+				if (filter != null)
+					filter.complete(p.getSequenceNumber());
+				retire(entry);
+			}
+			return combiner.finish();
+		}
+	}
+
+	/**
+	 * Expire all partial blocks which did not complete in time
+	 *
+	 * @return The sequence numbers of the expired blocks
+	 */
+	public long[] expire(){
+		return expire(System.currentTimeMillis());
+	}
+
+	/**
+	 * Expire all partial blocks which did not complete before a certain time
+	 *
+	 * @param now The current time in milliseconds
+	 * @return The sequence numbers of the expired blocks
+	 */
+	public long[] expire(long now){
+		List<Entry> timeouts = wheel.advance(now);
+		long[] expired = new long[timeouts.size()];
+		int count = 0;
+		for (Entry entry : timeouts){
+			synchronized (entry){
+				if (!entry.done){
+					entry.combiner.release();
+					retire(entry);
+					expired[count++] = entry.sequenceNumber;
+				}
+			}
+		}
+		long[] out = new long[count];
+		System.arraycopy(expired, 0, out, 0, count);
+		return out;
+	}
+
+	/**
+	 * The amount of sequence numbers with a partial block
+	 */
+	public int size(){
+		int size = 0;
+		for (Segment segment : segments){
+			synchronized (segment){
+				size += segment.size;
+			}
+		}
+		return size;
+	}
+
+	/**
+	 * The amount of encrypted data bytes currently buffered
+	 */
+	public long getBufferedSize(){
+		return buffered.get();
+	}
+
+	/**
+	 * The amount of packets dropped by the replay filter, including late packets of completed blocks
+	 */
+	public long getReplayed(){
+		return filter == null ? 0 : filter.getRejected();
+	}
+
+	public long getMemoryBudget(){
+		return memoryBudget;
+	}
+
+	/**
+	 * The amount of partial blocks spilled to disk
+	 */
+	public long getSpilled(){
+		return spilled.get();
+	}
+
+	/**
+	 * Claim part of the memory budget
+	 */
+	private void reserve(int size) throws BudgetExceededException{
+		while (true){
+			long current = buffered.get();
+			if (current + size <= memoryBudget){
+				if (buffered.compareAndSet(current, current + size))
+					return;
+			} else if (!spillOldest()){
+				throw new BudgetExceededException("Buffering " + size + " bytes would exceed the memory budget of " + memoryBudget);
+			}
+		}
+	}
+
+	/**
+	 * Spill the data of the oldest partial block which is still in memory
+	 *
+	 * @return Whether a block was spilled
+	 * @throws BudgetExceededException If writing to the spill file failed
+	 */
+	private boolean spillOldest() throws BudgetExceededException{
+		if (spillFile == null)
+			return false;
+		while (true){
+			Entry entry;
+			synchronized (oldest){
+				Iterator<Entry> it = oldest.iterator();
+				if (!it.hasNext())
+					return false;
+				entry = it.next();
+				it.remove();
+			}
+			synchronized (entry){
+				if (entry.done || entry.combiner.isSpilled())
+					continue;
+				try {
+					entry.combiner.spill(spillFile);
+				} catch (IOException e){
+					throw new BudgetExceededException("Failed to spill block " + entry.sequenceNumber + ": " + e.getMessage());
+				}
+				buffered.addAndGet(-entry.size);
+				entry.size = 0;
+				spilled.incrementAndGet();
+				return true;
+			}
+		}
+	}
+
+	/**
+	 * Remove an entry and release its memory, the caller must hold the entry lock.
+	 * The entry is unlinked from the wheel and the spill order and drops its combiner,
+	 * such that the data of its packets can be collected right away.
+	 */
+	private void retire(Entry entry){
+		entry.done = true;
+		Segment segment = segmentFor(entry.sequenceNumber);
+		synchronized (segment){
+			segment.remove(entry.sequenceNumber, entry);
+		}
+		buffered.addAndGet(-entry.size);
+		entry.size = 0;
+		if (entry.timeout != null)
+			wheel.cancel(entry.timeout);
+		if (spillFile != null){
+			synchronized (oldest){
+				oldest.remove(entry);
+			}
+		}
+		entry.combiner = null;
+	}
+
+	private Entry getOrCreate(DecryptionContext context, long sequenceNumber){
+		Segment segment = segmentFor(sequenceNumber);
+		Entry entry;
+		synchronized (segment){
+			entry = segment.get(sequenceNumber);
+			if (entry != null)
+				return entry;
+			entry = new Entry(sequenceNumber, new PacketCombiner(context, sequenceNumber, allocator));
+			segment.put(sequenceNumber, entry);
+		}
+		synchronized (entry){
+			// Retired before it was linked, by a packet of another thread
+			if (entry.done)
+				return entry;
+			if (spillFile != null){
+				// Keep the partial blocks in order of arrival
+				synchronized (oldest){
+					oldest.add(entry);
+				}
+			}
+			entry.timeout = wheel.schedule(entry, System.currentTimeMillis() + timeout);
+		}
+		return entry;
+	}
+
+	private Segment segmentFor(long sequenceNumber){
+		return segments[spread(sequenceNumber) & (STRIPES - 1)];
+	}
+
+	/**
+	 * Scramble the bits of a sequence number, as consecutive numbers are common
+	 */
+	private static int spread(long key){
+		long h = key * 0x9E3779B97F4A7C15L;
+		h ^= h >>> 32;
+		return (int) (h ^ (h >>> 16));
+	}
+
+	/**
+	 * State of a single in-flight sequence number
+	 */
+	private static class Entry {
+
+		private final long sequenceNumber;
+		private PacketCombiner combiner;
+		private TimingWheel.Timeout<Entry> timeout;
+		private long size = 0;
+		private boolean done = false;
+
+		private Entry(long sequenceNumber, PacketCombiner combiner){
+			this.sequenceNumber = sequenceNumber;
+			this.combiner = combiner;
+		}
+
+	}
+
+	/**
+	 * Open addressing long to Entry table with linear probing,
+	 * callers must hold the segment lock
+	 */
+	private static class Segment {
+
+		private long[] keys = new long[16];
+		private Entry[] values = new Entry[16];
+		private int size = 0;
+
+		private Entry get(long key){
+			int mask = keys.length - 1;
+			for (int i = (spread(key) >>> 6) & mask; values[i] != null; i = (i + 1) & mask)
+				if (keys[i] == key)
+					return values[i];
+			return null;
+		}
+
+		private void put(long key, Entry value){
+			if ((size + 1) * 4 > keys.length * 3)
+				resize(keys.length * 2);
+			int mask = keys.length - 1;
+			int i = (spread(key) >>> 6) & mask;
+			while (values[i] != null && keys[i] != key)
+				i = (i + 1) & mask;
+			if (values[i] == null)
+				size++;
+			keys[i] = key;
+			values[i] = value;
+		}
+
+		/**
+		 * Remove the mapping of a key, only if it still maps to a certain value
+		 */
+		private void remove(long key, Entry value){
+			int mask = keys.length - 1;
+			int i = (spread(key) >>> 6) & mask;
+			while (values[i] != null && keys[i] != key)
+				i = (i + 1) & mask;
+			if (values[i] != value)
+				return;
+			values[i] = null;
+			size--;
+			// Shift back the following entries of the probe sequence, so no tombstones are needed
+			for (int j = (i + 1) & mask; values[j] != null; j = (j + 1) & mask){
+				int home = (spread(keys[j]) >>> 6) & mask;
+				if (((j - home) & mask) >= ((j - i) & mask)){
+					keys[i] = keys[j];
+					values[i] = values[j];
+					values[j] = null;
+					i = j;
+				}
+			}
+		}
+
+		private void resize(int capacity){
+			long[] oldKeys = keys;
+			Entry[] oldValues = values;
+			keys = new long[capacity];
+			values = new Entry[capacity];
+			size = 0;
+			for (int i = 0; i < oldKeys.length; i++)
+				if (oldValues[i] != null)
+					put(oldKeys[i], oldValues[i]);
+		}
+
+	}
+
+}
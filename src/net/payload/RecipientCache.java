@@ -0,0 +1,93 @@
+package net.payload;
+
+import java.math.BigInteger;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import crypto.impl.PaillierPublicKey;
+
+/**
+ * Keeps the RecipientContexts of the most recently used receiver keys,
+ * such that a sender talking to many peers only sets up each context once.
+ */
+public class RecipientCache {
+
+	/**
+	 * Default amount of receivers to keep the context of
+	 */
+	public static final int DEFAULT_CAPACITY = 64;
+
+	private final int capacity;
+	private final LinkedHashMap<BigInteger, RecipientContext> contexts;
+	private long hits = 0;
+	private long misses = 0;
+
+	public RecipientCache(){
+		this(DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * @param capacity The amount of receivers to keep the context of, the least recently used is evicted
+	 */
+	public RecipientCache(final int capacity){
+		if (capacity < 1)
+			throw new IllegalArgumentException("Capacity " + capacity + " is not positive");
+		this.capacity = capacity;
+		this.contexts = new LinkedHashMap<BigInteger, RecipientContext>(16, 0.75f, true){
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<BigInteger, RecipientContext> eldest){
+				return size() > capacity;
+			}
+		};
+	}
+
+	/**
+	 * Get the context of a receiver key, creating it if it is not cached
+	 * 
+	 * @param key The Public Key of the receiver
+	 */
+	public RecipientContext get(PaillierPublicKey key){
+		synchronized (this){
+			RecipientContext context = contexts.get(key.getN());
+			if (context != null && context.getKey().getG().equals(key.getG())){
+				hits++;
+				return context;
+			}
+			misses++;
+		}
+		// Build outside of the lock, a concurrent miss for the same key only costs a duplicate
+		RecipientContext context = new RecipientContext(key);
+		synchronized (this){
+			contexts.put(key.getN(), context);
+		}
+		return context;
+	}
+
+	/**
+	 * The amount of cached contexts
+	 */
+	public synchronized int size(){
+		return contexts.size();
+	}
+
+	public int getCapacity(){
+		return capacity;
+	}
+
+	/**
+	 * The amount of lookups served from the cache
+	 */
+	public synchronized long getHits(){
+		return hits;
+	}
+
+	/**
+	 * The amount of lookups which created a context
+	 */
+	public synchronized long getMisses(){
+		return misses;
+	}
+
+}
@@ -0,0 +1,106 @@
+package net.payload;
+
+import java.math.BigInteger;
+import java.security.SecureRandom;
+
+import crypto.impl.PaillierPublicKey;
+
+/**
+ * The per receiver part of packing blocks: the squared modulus, a fixed-base table for g,
+ * a source of randomness and the packed sizes of the receiver's ciphertexts.
+ *
+ * Encoding with a context replaces the modPow of g by at most bitspace/4 + 30 multiplications.
+ * The context may be used by several threads concurrently.
+ */
+public final class RecipientContext {
+
+	/**
+	 * Bits per digit of the fixed-base exponent
+	 */
+	private static final int WINDOW = 4;
+
+	private final PaillierPublicKey key;
+	private final BigInteger n2;
+	private final int keyId;
+	private final BigInteger[] powers;
+	private final SecureRandom random = new SecureRandom();
+
+	/**
+	 * Precompute the encoding values of a key
+	 */
+	public RecipientContext(PaillierPublicKey key){
+		this.key = key;
+		this.n2 = key.getN().multiply(key.getN());
+		this.keyId = DecryptionContext.keyId(key.getN());
+		// powers[i] = g^(16^i) mod n^2, covering exponents up to n
+		this.powers = new BigInteger[(key.getN().bitLength() + WINDOW - 1) / WINDOW];
+		BigInteger power = key.getG().mod(n2);
+		for (int i = 0; i < powers.length; i++){
+			powers[i] = power;
+			power = power.modPow(BigInteger.valueOf(1 << WINDOW), n2);
+		}
+	}
+
+	/**
+	 * Encrypt data for the receiver
+	 * 
+	 * @param data The data to encrypt, which is reduced modulo n (like the splitter's negative parts)
+	 */
+	public BigInteger encode(BigInteger data){
+		BigInteger r;
+		do {
+			r = new BigInteger(key.getN().bitLength(), random);
+		} while (r.compareTo(BigInteger.ONE) <= 0 || r.compareTo(key.getN()) >= 0);
+		return pow(data.mod(key.getN())).multiply(r.modPow(key.getN(), n2)).mod(n2);
+	}
+
+	/**
+	 * g^e mod n^2 from the table (Brickell et al.), for 0 <= e < n
+	 */
+	private BigInteger pow(BigInteger e){
+		int[] digits = new int[powers.length];
+		for (int i = 0; i < digits.length; i++)
+			for (int b = 0; b < WINDOW; b++)
+				if (e.testBit(i * WINDOW + b))
+					digits[i] |= 1 << b;
+		BigInteger a = BigInteger.ONE;
+		BigInteger b = BigInteger.ONE;
+		for (int d = (1 << WINDOW) - 1; d > 0; d--){
+			for (int i = 0; i < digits.length; i++)
+				if (digits[i] == d)
+					b = b.multiply(powers[i]).mod(n2);
+			a = a.multiply(b).mod(n2);
+		}
+		return a;
+	}
+
+	public PaillierPublicKey getKey(){
+		return key;
+	}
+
+	/**
+	 * The squared modulus of the key
+	 */
+	public BigInteger getN2(){
+		return n2;
+	}
+
+	public int getKeyId(){
+		return keyId;
+	}
+
+	/**
+	 * The size of a packed key share in bytes
+	 */
+	public int getShareSize(){
+		return key.getBitspace() + 1;
+	}
+
+	/**
+	 * The size of a packet header for this receiver in bytes
+	 */
+	public int getHeaderSize(){
+		return Packer.headerSize(key.getBitspace());
+	}
+
+}
@@ -0,0 +1,155 @@
+package net.payload;
+
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Anti-replay filter for the packets of a single peer, to be consulted before
+ * a packet is combined (and any Paillier work is done).
+ *
+ * Like the IPsec anti-replay window, a bitmap covers the latest window sequence numbers:
+ * older sequence numbers and completed blocks are rejected in constant time.
+ * Within the window, a packet repeating the encrypted channel id of an earlier
+ * packet of the same sequence number is rejected as a duplicate.
+ */
+public class ReplayFilter {
+
+	/**
+	 * Default amount of sequence numbers covered by the window
+	 */
+	public static final int DEFAULT_WINDOW = 1024;
+
+	private final int window;
+	private final long[] completed;
+	private final Map<Long, Set<ByteBuffer>> seen = new HashMap<>();
+	private boolean started = false;
+	private long top;
+	private long rejected = 0;
+
+	public ReplayFilter(){
+		this(DEFAULT_WINDOW);
+	}
+
+	/**
+	 * @param window The amount of sequence numbers covered, a multiple of 64
+	 */
+	public ReplayFilter(int window){
+		if (window < 64 || window % 64 != 0)
+			throw new IllegalArgumentException("Window " + window + " is not a positive multiple of 64");
+		this.window = window;
+		this.completed = new long[window / 64];
+	}
+
+	/**
+	 * Check a packet and remember it if it is accepted
+	 *
+	 * @param sequenceNumber The sequence number of the packet
+	 * @param channelId The encrypted channel id of the packet
+	 * @return Whether the packet is neither too old, of a completed block, nor a duplicate
+	 */
+	public synchronized boolean accept(long sequenceNumber, byte[] channelId){
+		if (!accept(sequenceNumber))
+			return false;
+		Set<ByteBuffer> ids = seen.get(sequenceNumber);
+		if (ids == null){
+			ids = new HashSet<>();
+			seen.put(sequenceNumber, ids);
+		}
+		if (!ids.add(ByteBuffer.wrap(channelId.clone()))){
+			rejected++;
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Check the sequence number of a packet only, leaving duplicate detection
+	 * to the caller (for instance a PacketCombiner, which ignores repeated channel ids)
+	 *
+	 * @param sequenceNumber The sequence number of the packet
+	 * @return Whether the sequence number is neither too old nor of a completed block
+	 */
+	public synchronized boolean accept(long sequenceNumber){
+		if (started && isTooOld(sequenceNumber)){
+			rejected++;
+			return false;
+		}
+		if (!started || sequenceNumber > top)
+			slide(sequenceNumber);
+		if (isCompleted(sequenceNumber)){
+			rejected++;
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Forget the channel ids seen for a sequence number, such that its packets are
+	 * accepted again (for instance when they are retransmitted after a failed attempt)
+	 */
+	public synchronized void forget(long sequenceNumber){
+		seen.remove(sequenceNumber);
+	}
+
+	/**
+	 * Mark the block of a sequence number as completed, rejecting all its later packets
+	 */
+	public synchronized void complete(long sequenceNumber){
+		if (!started || sequenceNumber > top)
+			slide(sequenceNumber);
+		if (isTooOld(sequenceNumber))
+			return;
+		int bit = bit(sequenceNumber);
+		completed[bit >>> 6] |= 1L << bit;
+		seen.remove(sequenceNumber);
+	}
+
+	/**
+	 * The amount of packets rejected
+	 */
+	public synchronized long getRejected(){
+		return rejected;
+	}
+
+	public int getWindow(){
+		return window;
+	}
+
+	private boolean isTooOld(long sequenceNumber){
+		return sequenceNumber < top && top - sequenceNumber >= window;
+	}
+
+	private boolean isCompleted(long sequenceNumber){
+		int bit = bit(sequenceNumber);
+		return (completed[bit >>> 6] & (1L << bit)) != 0;
+	}
+
+	private int bit(long sequenceNumber){
+		return (int) Math.floorMod(sequenceNumber, (long) window);
+	}
+
+	/**
+	 * Move the window up to a new highest sequence number
+	 */
+	private void slide(long sequenceNumber){
+		if (!started || sequenceNumber - top >= window){
+			for (int i = 0; i < completed.length; i++)
+				completed[i] = 0;
+		} else {
+			for (long s = top + 1; s <= sequenceNumber; s++){
+				int bit = bit(s);
+				completed[bit >>> 6] &= ~(1L << bit);
+			}
+		}
+		started = true;
+		top = sequenceNumber;
+		for (Iterator<Long> it = seen.keySet().iterator(); it.hasNext();)
+			if (isTooOld(it.next()))
+				it.remove();
+	}
+
+}
@@ -0,0 +1,45 @@
+package net.payload;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import crypto.impl.AESKey;
+
+/**
+ * Thread-safe store of recovered session secrets, evicting the least recently used session
+ */
+public class SessionCache {
+
+	private final Map<Long, AESKey> sessions;
+	
+	/**
+	 * @param capacity The maximum amount of sessions to remember
+	 */
+	public SessionCache(final int capacity){
+		this.sessions = new LinkedHashMap<Long, AESKey>(16, 0.75f, true){
+			private static final long serialVersionUID = 5008546925716291457L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Long, AESKey> eldest) {
+				return size() > capacity;
+			}
+		};
+	}
+	
+	/**
+	 * Get the secret of a session
+	 * @return The secret, or null if it was not recovered (yet)
+	 */
+	public synchronized AESKey get(long sessionId){
+		return sessions.get(sessionId);
+	}
+	
+	public synchronized void put(long sessionId, AESKey secret){
+		sessions.put(sessionId, secret);
+	}
+	
+	public synchronized int size(){
+		return sessions.size();
+	}
+	
+}
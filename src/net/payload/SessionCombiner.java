@@ -0,0 +1,154 @@
+package net.payload;
+
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.security.InvalidKeyException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import javax.crypto.BadPaddingException;
+import javax.crypto.IllegalBlockSizeException;
+
+import crypto.impl.AES;
+import crypto.impl.AESKey;
+import crypto.impl.Paillier;
+import crypto.impl.PaillierPrivateKey;
+import crypto.impl.SHA256;
+
+/**
+ * Class to combine SessionPackets and decode them into a message.
+ *
+ * The session secret is recovered from the key shares of the first block of a session
+ * and stored in a SessionCache, from which the combiners of later blocks take it.
+ * Blocks of a session can therefore only complete once its first block did.
+ */
+public class SessionCombiner {
+
+	private final long sequenceNumber;
+	private final SessionCache cache;
+	private List<SessionPacket> packets = new ArrayList<SessionPacket>();
+	private Set<ByteBuffer> channelIds = new HashSet<ByteBuffer>();
+	private long sessionId = 0;
+	private BigInteger Kt = BigInteger.ONE;
+	private BigInteger Khash = null;
+	private AESKey K = null;
+	private int partitions = -1;
+
+	private BigInteger n2;
+	private Paillier paillier;
+
+	/**
+	 * Link this combiner to a certain sequence number
+	 */
+	public SessionCombiner(PaillierPrivateKey key, SessionCache cache, long sequenceNumber){
+		this(key, new Paillier(key), cache, sequenceNumber);
+	}
+
+	/**
+	 * Link this combiner to a certain sequence number,
+	 * decoding with an existing Paillier instance for the key
+	 */
+	public SessionCombiner(PaillierPrivateKey key, Paillier paillier, SessionCache cache, long sequenceNumber){
+		this.sequenceNumber = sequenceNumber;
+		this.cache = cache;
+		this.paillier = paillier;
+		this.n2 = key.getN().multiply(key.getN());
+	}
+
+	/**
+	 * Combine another session packet and see if the message can be constructed yet.
+	 * Packets repeating the channel id of a read packet are ignored.
+	 *
+	 * @param p The packet to add
+	 * @return Whether the block of this sequence number is complete
+	 * @throws IllegalPacketException If the packet is malformed
+	 */
+	public boolean read(SessionPacket p) throws IllegalPacketException{
+		if (sequenceNumber != p.getSequenceNumber())
+			throw new IllegalPacketException("Tried to combine packet with seq.no. " + p.getSequenceNumber() +
+												" into " + sequenceNumber);
+		if (!packets.isEmpty() && sessionId != p.getSessionId())
+			throw new IllegalPacketException("Tried to combine packet with different session");
+		sessionId = p.getSessionId();
+		if (!channelIds.add(ByteBuffer.wrap(p.getEncChannelId())))
+			return isComplete();
+		if (p.hasKeyShare()){
+			if (Khash != null && !Khash.equals(p.getKeyHash()))
+				throw new IllegalPacketException("Tried to combine packet with different hash");
+			if (Khash == null){
+				Khash = p.getKeyHash();
+			}
+			Kt = Kt.multiply(p.getPartKey()).mod(n2);
+			// A retransmitted first block needs no decryption
+			if (cache.get(sessionId) == null){
+				BigInteger secret = paillier.decode(Kt);
+				if (SHA256.hash(secret).equals(Khash))
+					cache.put(sessionId, new AESKey(secret));
+			}
+		}
+		packets.add(p);
+		return isComplete();
+	}
+
+	/**
+	 * Whether the session secret is known and all partitions of this block arrived
+	 *
+	 * @throws IllegalPacketException If the partition count could not be decrypted
+	 */
+	public boolean isComplete() throws IllegalPacketException{
+		if (packets.isEmpty())
+			return false;
+		if (K == null){
+			AESKey secret = cache.get(sessionId);
+			if (secret == null)
+				return false;
+			K = SessionPacker.deriveBlockKey(secret, sessionId, sequenceNumber);
+		}
+		if (partitions < 0){
+			try {
+				partitions = ByteBuffer.wrap(AES.decode(K, packets.get(0).getEncChannelId())).getInt(4);
+			} catch (GeneralSecurityException e){
+				throw new IllegalPacketException("Could not decrypt partition count");
+			}
+		}
+		return packets.size() >= partitions;
+	}
+
+	public long getSequenceNumber(){
+		return sequenceNumber;
+	}
+
+	/**
+	 * Decrypt the message formed by all read partial packets
+	 *
+	 * @return The decrypted message
+	 * @throws InvalidKeyException If the AES key was derived incorrectly
+	 * @throws IllegalBlockSizeException If the data blocks were malformed
+	 * @throws BadPaddingException If the data blocks were malformed
+	 */
+	public byte[] finish() throws InvalidKeyException, IllegalBlockSizeException, BadPaddingException{
+		if (K == null)
+			throw new InvalidKeyException("Secret of session " + sessionId + " was not recovered");
+		// Reorder the encrypted message
+		SessionPacket[] ordered = new SessionPacket[packets.size()];
+		int size = 0;
+		for (SessionPacket packet : packets){
+			int i = ByteBuffer.wrap(AES.decode(K, packet.getEncChannelId())).getInt();
+			ordered[i] = packet;
+			size += packet.getBlock().length;
+		}
+		// Then decode the actual message
+		byte[] enc = new byte[size];
+		int enci = 0;
+		for (int i = 0; i < ordered.length; i++){
+			byte[] eblock = ordered[i].getBlock();
+			System.arraycopy(eblock, 0, enc, enci, eblock.length);
+			enci += eblock.length;
+		}
+		return AES.decode(K, enc);
+	}
+
+}
@@ -0,0 +1,231 @@
+package net.payload;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.InvalidKeyException;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import javax.crypto.BadPaddingException;
+import javax.crypto.IllegalBlockSizeException;
+
+import crypto.impl.AES;
+import crypto.impl.AESKey;
+import crypto.impl.AESSplitter;
+import crypto.impl.AdditiveSplitter;
+import crypto.impl.HKDF;
+import crypto.impl.Paillier;
+import crypto.impl.PaillierPrivateKey;
+import crypto.impl.PaillierPublicKey;
+import crypto.impl.SHA256;
+
+/**
+ * Packer which amortizes the Paillier encryption of a key over many blocks.
+ *
+ * A session secret is homomorphically partitioned and encrypted once per session,
+ * and sent along with the first block of the session only. Every block is encrypted
+ * with its own AES key, derived from the session secret and the sequence number.
+ * A new session starts after a certain amount of blocks or time.
+ *
+ * Packet layout: size, sequence number, session id, flags,
+ * [homomorphically encrypted share, secret hash], encrypted channel id and partition count, data
+ */
+public class SessionPacker {
+
+	/**
+	 * This must be the same on the sending and receiving end
+	 */
+	private static int SYMM_KEY_SIZE = 256;
+
+	/**
+	 * Flag set on packets carrying a share of the session secret
+	 */
+	private static final byte FLAG_KEY = 1;
+
+	/**
+	 * Context of the block key derivation
+	 */
+	private static final byte[] INFO = "PHENet session block".getBytes(StandardCharsets.US_ASCII);
+
+	private final PaillierPublicKey key;
+	private final int partitions;
+	private final int rekeyBlocks;
+	private final long rekeyMillis;
+	private final SecureRandom random = new SecureRandom();
+
+	private Session session = null;
+
+	/**
+	 * @param key The Public Key of the receiver
+	 * @param partitions The amount of channels to partition for
+	 * @param rekeyBlocks The amount of blocks after which a new session starts
+	 * @param rekeyMillis The time in milliseconds after which a new session starts
+	 */
+	public SessionPacker(PaillierPublicKey key, int partitions, int rekeyBlocks, long rekeyMillis){
+		this.key = key;
+		this.partitions = partitions;
+		this.rekeyBlocks = rekeyBlocks;
+		this.rekeyMillis = rekeyMillis;
+	}
+
+	/**
+	 * Pack and partition data payloaded under a key derived from the session secret
+	 *
+	 * @param sequenceNumber The sequence number of this message block
+	 * @param datablock The message (block)
+	 * @return The shuffled partitioned encrypted message set
+	 * @throws IllegalBlockSizeException If the datablock is too big or small
+	 */
+	public byte[][] pack(long sequenceNumber, byte[] datablock) throws IllegalBlockSizeException {
+		Session current;
+		boolean first;
+		synchronized (this){
+			if (session == null || session.blocks >= rekeyBlocks || System.currentTimeMillis() - session.start >= rekeyMillis)
+				session = new Session();
+			current = session;
+			first = current.blocks++ == 0;
+		}
+		AESKey K = deriveBlockKey(current.secret, current.id, sequenceNumber);
+
+		// Encode and split the data
+		byte[] EKM = new byte[0];
+		try {
+			EKM = AES.encode(K, datablock);
+		} catch (InvalidKeyException | BadPaddingException e1) {
+			e1.printStackTrace();
+		}
+		byte[][] Mparts = AESSplitter.splitUniform(EKM, partitions);
+
+		List<byte[]> out = new ArrayList<>();
+		for (int i = 0; i < partitions; i++){
+			byte[] EKi = new byte[] {};
+			try {
+				EKi = AES.encode(K, ByteBuffer.allocate(8).putInt(i).putInt(partitions).array());
+			} catch (InvalidKeyException | IllegalBlockSizeException
+					| BadPaddingException e) {
+				e.printStackTrace();
+			}
+			int size = 4 + 8 + 8 + 1 + 16 + Mparts[i].length;
+			if (first)
+				size += key.getBitspace() + 1 + 32;
+
+			ByteBuffer bOut = ByteBuffer.allocate(size).putInt(size)
+										.putLong(sequenceNumber)
+										.putLong(current.id)
+										.put(first ? FLAG_KEY : 0);
+			if (first)
+				bOut.put(Packer.packBigInteger(current.parts[i], key.getBitspace()+1))
+					.put(Packer.packBigInteger(current.hash, 32));
+			bOut.put(EKi).put(Mparts[i]);
+			out.add(bOut.array());
+		}
+		// Finally shuffle the array, such that reordering the partitions of
+		// an encrypted message M is not dependent on timing
+		Collections.shuffle(out);
+		return out.toArray(new byte[partitions][]);
+	}
+
+	/**
+	 * Start a new session with the next block
+	 */
+	public synchronized void rekey(){
+		session = null;
+	}
+
+	/**
+	 * The id of the current session, or 0 if no block was packed yet
+	 */
+	public synchronized long getSessionId(){
+		return session == null ? 0 : session.id;
+	}
+
+	/**
+	 * Derive the AES key of a single block from the session secret
+	 */
+	public static AESKey deriveBlockKey(AESKey secret, long sessionId, long sequenceNumber){
+		byte[] salt = ByteBuffer.allocate(8).putLong(sessionId).array();
+		byte[] info = ByteBuffer.allocate(INFO.length + 8).put(INFO).putLong(sequenceNumber).array();
+		return new AESKey(HKDF.derive(secret.getKey().getEncoded(), salt, info, SYMM_KEY_SIZE / 8));
+	}
+
+	/**
+	 * Read in a single SessionPacket from a stream
+	 *
+	 * @param key The Private Key for decoding
+	 * @param is The stream
+	 * @return The container for the read packet
+	 * @throws IOException If the stream could not be read/was corrupted
+	 */
+	public static SessionPacket read(PaillierPrivateKey key, InputStream is) throws IOException{
+		byte[] bHeader = new byte[4 + 8 + 8 + 1];
+		if (Packer.readFully(is, bHeader) != bHeader.length)
+			throw new EOFException("Reached end of stream while parsing packet header");
+		ByteBuffer header = ByteBuffer.wrap(bHeader);
+		int iSize = header.getInt();
+		long lSeq = header.getLong();
+		long lSession = header.getLong();
+		boolean hasKey = (header.get() & FLAG_KEY) != 0;
+
+		BigInteger biHomo = null;
+		BigInteger biHash = null;
+		int remainder = iSize - bHeader.length - 16;
+		if (hasKey){
+			byte[] bHomo = new byte[key.getBitspace()+1];
+			if (Packer.readFully(is, bHomo) != bHomo.length)
+				throw new EOFException("Reached end of stream while parsing homomorphically encrypted key");
+			biHomo = new BigInteger(bHomo);
+
+			byte[] bHash = new byte[32];
+			if (Packer.readFully(is, bHash) != 32)
+				throw new EOFException("Reached end of stream while parsing key hash");
+			biHash = new BigInteger(bHash);
+			remainder -= bHomo.length + bHash.length;
+		}
+
+		byte[] bKi = new byte[16];
+		if (Packer.readFully(is, bKi) != 16)
+			throw new EOFException("Reached end of stream while parsing encrypted sequence number");
+
+		if (remainder < 0)
+			throw new IOException("Packet size " + iSize + " is too small for its header");
+		byte[] bEKMi = new byte[remainder];
+		if (Packer.readFully(is, bEKMi) != remainder)
+			throw new EOFException("Reached end of stream while parsing encrypted data block");
+
+		return new SessionPacket(lSeq, lSession, biHomo, biHash, bKi, bEKMi);
+	}
+
+	/**
+	 * Secret and encrypted shares of a single session
+	 */
+	private class Session {
+
+		private final long id;
+		private final AESKey secret;
+		private final BigInteger[] parts;
+		private final BigInteger hash;
+		private final long start = System.currentTimeMillis();
+		private int blocks = 0;
+
+		private Session(){
+			long sessionId;
+			do {
+				sessionId = random.nextLong();
+			} while (sessionId == 0);
+			this.id = sessionId;
+			this.secret = new AESKey(SYMM_KEY_SIZE);
+			this.parts = AdditiveSplitter.split(secret.getKeyBigInteger(), key.getBitspace(), partitions, key.getN());
+			for (int i = 0; i < parts.length; i++)
+				parts[i] = Paillier.encode(key, parts[i]);
+			this.hash = SHA256.hash(secret.getKeyBigInteger());
+		}
+
+	}
+
+}
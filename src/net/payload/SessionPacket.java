@@ -0,0 +1,29 @@
+package net.payload;
+
+import java.math.BigInteger;
+
+/**
+ * Class used to store received partial packets of a session.
+ * Only the packets of the first block of a session carry a key share.
+ */
+public class SessionPacket extends RawPacket {
+
+	private final long sessionId;
+	
+	public SessionPacket(long sequenceNumber, long sessionId, BigInteger partKey, BigInteger keyHash, byte[] channelid, byte[] block){
+		super(sequenceNumber, partKey, keyHash, channelid, block);
+		this.sessionId = sessionId;
+	}
+	
+	public long getSessionId() {
+		return sessionId;
+	}
+	
+	/**
+	 * Whether this packet carries a share of the session secret
+	 */
+	public boolean hasKeyShare() {
+		return getPartKey() != null;
+	}
+	
+}
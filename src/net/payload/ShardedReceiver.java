@@ -0,0 +1,227 @@
+package net.payload;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.locks.LockSupport;
+
+import crypto.impl.PaillierPrivateKey;
+
+/**
+ * Thread-per-core receiver, as an alternative to a shared ReassemblyEngine.
+ *
+ * Packets are routed by a hash of their sequence number to one of N shards.
+ * Every shard is a single thread owning its combiners and decryption context, so
+ * no locking is needed and the state of a sequence number stays in one core's cache.
+ * Packets are handed to the shards and completed blocks are handed to the consumer
+ * through single producer single consumer queues: route() must only be called from
+ * one thread and poll() must only be called from one thread.
+ * Every shard drops packets of sequence numbers which fell out of the window of its
+ * ReplayFilter, or whose block it completed, before parsing them.
+ */
+public class ShardedReceiver implements Closeable {
+
+	/**
+	 * Time to park an idle shard thread
+	 */
+	private static final long IDLE_NANOS = 50000;
+
+	private final Shard[] shards;
+	private int nextPoll = 0;
+
+	/**
+	 * Start a receiver
+	 *
+	 * @param key The Private Key for decoding
+	 * @param shards The amount of shard threads, typically the amount of cores
+	 * @param queueSize The capacity of the queues to and from every shard
+	 * @param timeout The time in milliseconds after its first packet in which a block must complete
+	 */
+	public ShardedReceiver(PaillierPrivateKey key, int shards, int queueSize, long timeout){
+		this.shards = new Shard[shards];
+		for (int i = 0; i < shards; i++){
+			this.shards[i] = new Shard(key, queueSize, timeout);
+			Thread thread = new Thread(this.shards[i], "ShardedReceiver-" + i);
+			thread.setDaemon(true);
+			this.shards[i].thread = thread;
+			thread.start();
+		}
+	}
+
+	/**
+	 * Hand a packet to the shard owning its sequence number
+	 *
+	 * @param packet The packet as created by Packer.pack
+	 * @return Whether the packet was accepted (false if the shard queue was full)
+	 * @throws IllegalPacketException If the packet has no sequence number
+	 */
+	public boolean route(byte[] packet) throws IllegalPacketException{
+		return shards[shardOf(Packer.peekSequenceNumber(packet))].inbound.offer(packet);
+	}
+
+	/**
+	 * Take a completed block from any shard
+	 *
+	 * @return The block, or null if no block was completed
+	 */
+	public CompletedBlock poll(){
+		for (int i = 0; i < shards.length; i++){
+			Shard shard = shards[nextPoll];
+			nextPoll = (nextPoll + 1) % shards.length;
+			CompletedBlock block = shard.outbound.poll();
+			if (block != null)
+				return block;
+		}
+		return null;
+	}
+
+	/**
+	 * The amount of packets which could not be read or combined
+	 */
+	public long getRejected(){
+		long rejected = 0;
+		for (Shard shard : shards)
+			rejected += shard.rejected;
+		return rejected;
+	}
+
+	/**
+	 * The amount of packets dropped as replayed, or as late packets of completed blocks
+	 */
+	public long getReplayed(){
+		long replayed = 0;
+		for (Shard shard : shards)
+			replayed += shard.filter.getRejected();
+		return replayed;
+	}
+
+	/**
+	 * The amount of partial blocks which did not complete in time
+	 */
+	public long getExpired(){
+		long expired = 0;
+		for (Shard shard : shards)
+			expired += shard.expired;
+		return expired;
+	}
+
+	public int getShards(){
+		return shards.length;
+	}
+
+	/**
+	 * Stop all shards, dropping partial blocks
+	 */
+	@Override
+	public void close(){
+		for (Shard shard : shards)
+			shard.running = false;
+		for (Shard shard : shards){
+			LockSupport.unpark(shard.thread);
+			try {
+				shard.thread.join();
+			} catch (InterruptedException e){
+				Thread.currentThread().interrupt();
+				return;
+			}
+		}
+	}
+
+	private int shardOf(long sequenceNumber){
+		long h = sequenceNumber * 0x9E3779B97F4A7C15L;
+		h ^= h >>> 32;
+		return (int) ((h ^ (h >>> 16)) & 0x7FFFFFFF) % shards.length;
+	}
+
+	/**
+	 * Single threaded share of the receiver
+	 */
+	private static class Shard implements Runnable {
+
+		private final PaillierPrivateKey key;
+		private final DecryptionContext context;
+		private final long timeout;
+		private final SpscQueue<byte[]> inbound;
+		private final SpscQueue<CompletedBlock> outbound;
+		private final Map<Long, TimingWheel.Timeout<PacketCombiner>> combiners = new HashMap<>();
+		private final TimingWheel<PacketCombiner> wheel;
+		private final ReplayFilter filter = new ReplayFilter();
+		private final long tick;
+		private long nextExpiry = 0;
+
+		private Thread thread;
+		private volatile boolean running = true;
+		private volatile long rejected = 0;
+		private volatile long expired = 0;
+
+		private Shard(PaillierPrivateKey key, int queueSize, long timeout){
+			this.key = key;
+			this.context = new DecryptionContext(key);
+			this.timeout = timeout;
+			this.inbound = new SpscQueue<>(queueSize);
+			this.outbound = new SpscQueue<>(queueSize);
+			this.tick = Math.max(1, timeout / 64);
+			this.wheel = new TimingWheel<>(tick, 128);
+		}
+
+		@Override
+		public void run(){
+			while (running){
+				// Expire every tick, a busy shard may never find its queue empty
+				long now = System.currentTimeMillis();
+				if (now >= nextExpiry){
+					expire(now);
+					nextExpiry = now + tick;
+				}
+				byte[] packet = inbound.poll();
+				if (packet == null){
+					LockSupport.parkNanos(IDLE_NANOS);
+					continue;
+				}
+				try {
+					if (!filter.accept(Packer.peekSequenceNumber(packet)))
+						continue;
+					process(Packer.read(key, new ByteArrayInputStream(packet)));
+				} catch (IOException | IllegalPacketException | GeneralSecurityException e){
+					rejected++;
+				}
+			}
+		}
+
+		private void process(RawPacket raw) throws IllegalPacketException, GeneralSecurityException{
+			Long seq = raw.getSequenceNumber();
+			TimingWheel.Timeout<PacketCombiner> scheduled = combiners.get(seq);
+			PacketCombiner combiner;
+			if (scheduled == null){
+				combiner = new PacketCombiner(context, seq);
+				combiners.put(seq, wheel.schedule(combiner, System.currentTimeMillis() + timeout));
+			} else {
+				combiner = scheduled.getItem();
+			}
+			if (!combiner.read(raw))
+				return;
+			// Do not keep the completed block reachable from the wheel until its timeout
+			wheel.cancel(combiners.remove(seq));
+			filter.complete(seq);
+			CompletedBlock block = new CompletedBlock(seq, combiner.finish());
+			// Wait for the consumer rather than dropping a completed block
+			while (!outbound.offer(block) && running)
+				LockSupport.parkNanos(IDLE_NANOS);
+		}
+
+		private void expire(long now){
+			for (PacketCombiner combiner : wheel.advance(now)){
+				TimingWheel.Timeout<PacketCombiner> scheduled = combiners.get(combiner.getSequenceNumber());
+				if (scheduled != null && scheduled.getItem() == combiner){
+					combiners.remove(combiner.getSequenceNumber());
+					expired++;
+				}
+			}
+		}
+
+	}
+
+}
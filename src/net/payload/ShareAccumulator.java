@@ -0,0 +1,120 @@
+package net.payload;
+
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Product of the key shares of distinct packets, counting every channel id once.
+ *
+ * The packets of an aggregate frame carry a single share for all of them. When such
+ * a frame repeats packets which were read before, the shares of those packets are
+ * divided out again, provided they are known: a packet read on its own, or the only
+ * new packet of a frame, has a known share. A frame overlapping packets of unknown
+ * share can not be split and is ignored as a whole.
+ */
+class ShareAccumulator {
+
+	private final BigInteger n2;
+	private final Map<ByteBuffer, BigInteger> shares = new HashMap<>();
+	private BigInteger product = BigInteger.ONE;
+	private long duplicates = 0;
+
+	/**
+	 * @param n2 The square of the modulus of the receiver's key
+	 */
+	ShareAccumulator(BigInteger n2){
+		this.n2 = n2;
+	}
+
+	/**
+	 * Determine the new packets of a frame and their combined share, without adding them
+	 *
+	 * @param ps The packets of a single packet or aggregate frame
+	 * @return The selection to pass to accept
+	 */
+	Selection select(RawPacket[] ps){
+		BigInteger share = BigInteger.ONE;
+		BigInteger overlap = BigInteger.ONE;
+		boolean separable = true;
+		List<RawPacket> fresh = new ArrayList<>(ps.length);
+		for (RawPacket p : ps){
+			if (!BigInteger.ONE.equals(p.getPartKey()))
+				share = share.multiply(p.getPartKey()).mod(n2);
+			ByteBuffer id = ByteBuffer.wrap(p.getEncChannelId());
+			if (!shares.containsKey(id)){
+				fresh.add(p);
+				continue;
+			}
+			BigInteger known = shares.get(id);
+			if (known == null)
+				separable = false;
+			else
+				overlap = overlap.multiply(known).mod(n2);
+		}
+		if (fresh.isEmpty() || !separable)
+			return new Selection(Collections.<RawPacket>emptyList(), BigInteger.ONE, ps.length);
+		if (fresh.size() < ps.length)
+			share = share.multiply(overlap.modInverse(n2)).mod(n2);
+		return new Selection(fresh, share, ps.length - fresh.size());
+	}
+
+	/**
+	 * Add the new packets of a selection to the current state
+	 */
+	void accept(Selection selection){
+		duplicates += selection.ignored;
+		if (selection.fresh.isEmpty())
+			return;
+		for (RawPacket p : selection.fresh)
+			shares.put(ByteBuffer.wrap(p.getEncChannelId()), selection.fresh.size() == 1 ? selection.share : null);
+		product = product.multiply(selection.share).mod(n2);
+	}
+
+	/**
+	 * The product of the shares of all distinct packets
+	 */
+	BigInteger getProduct(){
+		return product;
+	}
+
+	/**
+	 * The amount of packets ignored for repeating a channel id, or for overlapping inseparably
+	 */
+	long getDuplicates(){
+		return duplicates;
+	}
+
+	/**
+	 * The amount of distinct packets
+	 */
+	int size(){
+		return shares.size();
+	}
+
+	/**
+	 * The new packets of a frame and their combined share
+	 */
+	static class Selection {
+
+		private final List<RawPacket> fresh;
+		private final BigInteger share;
+		private final int ignored;
+
+		private Selection(List<RawPacket> fresh, BigInteger share, int ignored){
+			this.fresh = fresh;
+			this.share = share;
+			this.ignored = ignored;
+		}
+
+		List<RawPacket> getFresh(){
+			return fresh;
+		}
+
+	}
+
+}
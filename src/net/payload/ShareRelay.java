@@ -0,0 +1,206 @@
+package net.payload;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import crypto.impl.PaillierPublicKey;
+
+/**
+ * Intermediate node which merges the packets of a block arriving over several inbound
+ * channels into a single aggregate frame for the next hop.
+ *
+ * The key shares are multiplied without decrypting them (so the relay only needs the
+ * receiver's Public Key), while the encrypted channel ids and data are passed on as is.
+ * The receiver reads the aggregate with Packer.readAggregate and decodes the key once,
+ * and the last hop carries a single share and hash instead of one per packet.
+ * Aggregates may themselves be relayed again.
+ * Frames repeating packets which were relayed before (such as hedged retransmissions)
+ * only contribute their new packets, and a sequence number whose frames do not all
+ * arrive within a timeout is forwarded as a partial aggregate.
+ */
+public class ShareRelay {
+
+	/**
+	 * Receives the aggregate frames to forward
+	 */
+	public interface Sink {
+
+		void forward(long sequenceNumber, byte[] frame);
+
+	}
+
+	/**
+	 * Default time in milliseconds after its first frame in which a sequence number must complete
+	 */
+	public static final long DEFAULT_TIMEOUT = 10000;
+
+	private final PaillierPublicKey key;
+	private final BigInteger n2;
+	private final int inbound;
+	private final long timeout;
+	private final Sink sink;
+	private final Map<Long, Group> pending = new HashMap<>();
+	private final TimingWheel<Group> wheel;
+	private long forwarded = 0;
+	private long duplicates = 0;
+
+	/**
+	 * @param key The Public Key of the receiver
+	 * @param inbound The amount of frames (packets or aggregates) to merge per sequence number
+	 * @param sink Receives the aggregate frames
+	 */
+	public ShareRelay(PaillierPublicKey key, int inbound, Sink sink){
+		this(key, inbound, DEFAULT_TIMEOUT, sink);
+	}
+
+	/**
+	 * @param key The Public Key of the receiver
+	 * @param inbound The amount of frames (packets or aggregates) to merge per sequence number
+	 * @param timeout The time in milliseconds after its first frame after which a partial aggregate is forwarded
+	 * @param sink Receives the aggregate frames
+	 */
+	public ShareRelay(PaillierPublicKey key, int inbound, long timeout, Sink sink){
+		this.key = key;
+		this.n2 = key.getN().multiply(key.getN());
+		this.inbound = inbound;
+		this.timeout = timeout;
+		this.sink = sink;
+		this.wheel = new TimingWheel<>(Math.max(1, timeout / 64), 128);
+	}
+
+	/**
+	 * Merge an inbound packet or aggregate frame, forwarding the aggregate once complete.
+	 * Sequence numbers which timed out are forwarded first.
+	 *
+	 * @param frame The frame as created by Packer.pack or another relay
+	 * @return Whether the aggregate of this frame was forwarded
+	 * @throws IllegalPacketException If the frame is malformed
+	 */
+	public boolean offer(byte[] frame) throws IllegalPacketException{
+		expire(System.currentTimeMillis());
+		RawPacket[] packets;
+		try {
+			packets = Packer.readAggregate(key, new ByteArrayInputStream(frame));
+		} catch (IOException e){
+			throw new IllegalPacketException("Malformed frame: " + e.getMessage());
+		}
+		long sequenceNumber = packets[0].getSequenceNumber();
+		Group group;
+		synchronized (this){
+			group = pending.get(sequenceNumber);
+			if (group == null){
+				group = new Group(sequenceNumber, packets[0].getKeyId(), packets[0].getKeyHash(), new ShareAccumulator(n2));
+				group.timeout = wheel.schedule(group, System.currentTimeMillis() + timeout);
+				pending.put(sequenceNumber, group);
+			} else if (group.keyId != packets[0].getKeyId()){
+				throw new IllegalPacketException("Tried to relay packet for key id " + packets[0].getKeyId() + " into " + group.keyId);
+			} else if (!group.hash.equals(packets[0].getKeyHash())){
+				throw new IllegalPacketException("Tried to relay packet with different hash");
+			}
+			ShareAccumulator.Selection selection = group.shares.select(packets);
+			long before = group.shares.getDuplicates();
+			group.shares.accept(selection);
+			duplicates += group.shares.getDuplicates() - before;
+			// Repeated packets neither contribute their share again nor count as a frame
+			if (selection.getFresh().isEmpty())
+				return false;
+			group.packets.addAll(selection.getFresh());
+			if (++group.frames < inbound)
+				return false;
+			pending.remove(sequenceNumber);
+			wheel.cancel(group.timeout);
+			forwarded++;
+		}
+		forward(group);
+		return true;
+	}
+
+	/**
+	 * Forward the partial aggregates of all sequence numbers which did not complete in time
+	 *
+	 * @param now The current time in milliseconds
+	 * @return The amount of aggregates forwarded
+	 */
+	public int expire(long now){
+		List<Group> groups = new ArrayList<>();
+		synchronized (this){
+			for (Group group : wheel.advance(now)){
+				if (pending.remove(group.sequenceNumber, group))
+					groups.add(group);
+			}
+			forwarded += groups.size();
+		}
+		for (Group group : groups)
+			forward(group);
+		return groups.size();
+	}
+
+	/**
+	 * Forward the aggregates of all sequence numbers, including incomplete ones
+	 */
+	public void flush(){
+		List<Group> groups;
+		synchronized (this){
+			groups = new ArrayList<>(pending.values());
+			pending.clear();
+			for (Group group : groups)
+				wheel.cancel(group.timeout);
+			forwarded += groups.size();
+		}
+		for (Group group : groups)
+			forward(group);
+	}
+
+	/**
+	 * The amount of sequence numbers waiting for inbound frames
+	 */
+	public synchronized int size(){
+		return pending.size();
+	}
+
+	/**
+	 * The amount of aggregates forwarded
+	 */
+	public synchronized long getForwarded(){
+		return forwarded;
+	}
+
+	/**
+	 * The amount of inbound packets not relayed for repeating an earlier packet
+	 */
+	public synchronized long getDuplicates(){
+		return duplicates;
+	}
+
+	private void forward(Group group){
+		sink.forward(group.sequenceNumber, Packer.packAggregate(key.getBitspace(), group.sequenceNumber, group.keyId, group.shares.getProduct(), group.hash, group.packets));
+	}
+
+	/**
+	 * Merged frames of a single sequence number
+	 */
+	private static class Group {
+
+		private final long sequenceNumber;
+		private final int keyId;
+		private final BigInteger hash;
+		private final ShareAccumulator shares;
+		private final List<RawPacket> packets = new ArrayList<>();
+		private TimingWheel.Timeout<Group> timeout;
+		private int frames = 0;
+
+		private Group(long sequenceNumber, int keyId, BigInteger hash, ShareAccumulator shares){
+			this.sequenceNumber = sequenceNumber;
+			this.keyId = keyId;
+			this.hash = hash;
+			this.shares = shares;
+		}
+
+	}
+
+}
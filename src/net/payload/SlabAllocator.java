@@ -0,0 +1,133 @@
+package net.payload;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+
+/**
+ * Allocator of off-heap chunks for buffered payloads, carved from large direct slabs.
+ *
+ * Chunks come in power of two size classes, every class keeping a free list of its chunks,
+ * so the heap only holds the (small) buffer objects regardless of the buffered volume.
+ * Requests larger than a slab get a dedicated direct buffer which is not pooled.
+ */
+public class SlabAllocator {
+
+	/**
+	 * Default size of a slab in bytes
+	 */
+	public static final int DEFAULT_SLAB_SIZE = 1024 * 1024;
+
+	/**
+	 * The smallest chunk size in bytes
+	 */
+	private static final int MIN_CHUNK = 256;
+
+	private final int slabSize;
+	private final ArrayDeque<ByteBuffer>[] free;
+	private long reserved = 0;
+	private long allocated = 0;
+
+	public SlabAllocator(){
+		this(DEFAULT_SLAB_SIZE);
+	}
+
+	/**
+	 * @param slabSize The size of a slab in bytes, a power of two of at least 256
+	 */
+	@SuppressWarnings("unchecked")
+	public SlabAllocator(int slabSize){
+		if (slabSize < MIN_CHUNK || Integer.bitCount(slabSize) != 1)
+			throw new IllegalArgumentException("Slab size " + slabSize + " is not a power of two of at least " + MIN_CHUNK);
+		this.slabSize = slabSize;
+		this.free = new ArrayDeque[sizeClass(slabSize) + 1];
+		for (int i = 0; i < free.length; i++)
+			free[i] = new ArrayDeque<>();
+	}
+
+	/**
+	 * Allocate a chunk and copy data into it
+	 *
+	 * @param data The data to store
+	 * @return The chunk, positioned at the data and limited to its length
+	 */
+	public ByteBuffer store(byte[] data){
+		ByteBuffer chunk = allocate(data.length);
+		chunk.put(data);
+		chunk.flip();
+		return chunk;
+	}
+
+	/**
+	 * Allocate a cleared chunk of at least a certain size
+	 */
+	public ByteBuffer allocate(int size){
+		if (size > slabSize){
+			synchronized (this){
+				allocated += size;
+			}
+			return ByteBuffer.allocateDirect(size);
+		}
+		int sizeClass = sizeClass(size);
+		ByteBuffer chunk;
+		synchronized (this){
+			chunk = free[sizeClass].poll();
+			if (chunk == null){
+				carve(sizeClass);
+				chunk = free[sizeClass].poll();
+			}
+			allocated += chunk.capacity();
+		}
+		chunk.clear();
+		return chunk;
+	}
+
+	/**
+	 * Return a chunk to its free list, it may not be used afterwards
+	 */
+	public synchronized void free(ByteBuffer chunk){
+		allocated -= chunk.capacity();
+		if (chunk.capacity() <= slabSize)
+			free[sizeClass(chunk.capacity())].push(chunk);
+	}
+
+	/**
+	 * The amount of off-heap bytes handed out
+	 */
+	public synchronized long getAllocated(){
+		return allocated;
+	}
+
+	/**
+	 * The amount of off-heap bytes held by the slabs
+	 */
+	public synchronized long getReserved(){
+		return reserved;
+	}
+
+	public int getSlabSize(){
+		return slabSize;
+	}
+
+	/**
+	 * Split a new slab into chunks of a size class, the caller must hold the lock
+	 */
+	private void carve(int sizeClass){
+		int chunkSize = MIN_CHUNK << sizeClass;
+		ByteBuffer slab = ByteBuffer.allocateDirect(slabSize);
+		reserved += slabSize;
+		for (int offset = 0; offset < slabSize; offset += chunkSize){
+			slab.limit(offset + chunkSize).position(offset);
+			free[sizeClass].push(slab.slice());
+		}
+	}
+
+	/**
+	 * The index of the smallest chunk size fitting a size
+	 */
+	private static int sizeClass(int size){
+		if (size <= MIN_CHUNK)
+			return 0;
+		return 32 - Integer.numberOfLeadingZeros(size - 1) - Integer.numberOfTrailingZeros(MIN_CHUNK);
+	}
+
+}
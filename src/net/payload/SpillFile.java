@@ -0,0 +1,189 @@
+package net.payload;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * Memory-mapped file holding the data of partial blocks which were spilled out of memory.
+ * Records are read back as views of the mapping, such that the operating system pages
+ * them in only when a block completes.
+ *
+ * The file is split into regions which are appended to in turn. Every region counts its
+ * live records, and a region whose records were all freed is rewritten from its start,
+ * so the file does not grow as long as the live data fits. Records larger than a region
+ * get a mapping of their own, which is dropped once freed.
+ */
+public class SpillFile implements Closeable {
+
+	/**
+	 * Default size of a mapped region in bytes
+	 */
+	public static final int DEFAULT_REGION_SIZE = 64 * 1024 * 1024;
+
+	private final Path path;
+	private final FileChannel channel;
+	private final int regionSize;
+	private final ArrayDeque<Region> drained = new ArrayDeque<>();
+	private final Map<ByteBuffer, Region> records = new IdentityHashMap<>();
+	private Region current = null;
+	private long size = 0;
+	private int mapped = 0;
+	private long live = 0;
+	private long spilled = 0;
+
+	/**
+	 * Create a spill file in the temporary directory, which is deleted on close
+	 */
+	public SpillFile() throws IOException{
+		this(Files.createTempFile("phenet", ".spill"), DEFAULT_REGION_SIZE);
+	}
+
+	/**
+	 * @param path The file to spill to, which is truncated and deleted on close
+	 * @param regionSize The size of a mapped region in bytes
+	 */
+	public SpillFile(Path path, int regionSize) throws IOException{
+		this.path = path;
+		this.regionSize = regionSize;
+		this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+				StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+	}
+
+	/**
+	 * Append a record
+	 *
+	 * @param data The data to append, from its position to its limit (which is not modified)
+	 * @return A view of the record in the mapping, to pass to free
+	 * @throws IOException If the file could not be grown or mapped
+	 */
+	public synchronized ByteBuffer append(ByteBuffer data) throws IOException{
+		int length = data.remaining();
+		Region region;
+		if (length > regionSize){
+			region = map(length);
+		} else {
+			if (current == null || current.position + length > regionSize){
+				// Records never span regions, continue in a drained region or a new one
+				if (current != null && current.live == 0)
+					current.position = 0;
+				else
+					current = drained.isEmpty() ? map(regionSize) : drained.poll();
+			}
+			region = current;
+		}
+		ByteBuffer view = region.buffer.duplicate();
+		view.position(region.position);
+		view.limit(region.position + length);
+		view = view.slice();
+		view.put(data.duplicate());
+		view.flip();
+		region.position += length;
+		region.live += length;
+		records.put(view, region);
+		live += length;
+		spilled += length;
+		return view;
+	}
+
+	/**
+	 * Mark a record as no longer needed
+	 *
+	 * @param record The view returned by append
+	 */
+	public synchronized void free(ByteBuffer record){
+		Region region = records.remove(record);
+		if (region == null)
+			return;
+		region.live -= record.capacity();
+		live -= record.capacity();
+		if (region.live > 0)
+			return;
+		if (region.buffer.capacity() > regionSize){
+			// Unmapped once collected, its part of the file is not reused
+			mapped--;
+		} else {
+			region.position = 0;
+			if (region != current)
+				drained.add(region);
+		}
+	}
+
+	/**
+	 * The amount of bytes of records which were not freed
+	 */
+	public synchronized long getLive(){
+		return live;
+	}
+
+	/**
+	 * The amount of regions currently mapped
+	 */
+	public synchronized int getRegions(){
+		return mapped;
+	}
+
+	/**
+	 * The size of the file in bytes
+	 */
+	public synchronized long getSize(){
+		return size;
+	}
+
+	/**
+	 * The total amount of bytes ever appended
+	 */
+	public synchronized long getSpilled(){
+		return spilled;
+	}
+
+	public Path getPath(){
+		return path;
+	}
+
+	/**
+	 * Close and delete the file, views of its records may not be used afterwards
+	 */
+	@Override
+	public synchronized void close() throws IOException{
+		records.clear();
+		drained.clear();
+		current = null;
+		channel.close();
+		Files.deleteIfExists(path);
+	}
+
+	/**
+	 * Map a new region at the end of the file
+	 */
+	private Region map(int length) throws IOException{
+		Region region = new Region(channel.map(FileChannel.MapMode.READ_WRITE, size, length));
+		size += length;
+		mapped++;
+		return region;
+	}
+
+	/**
+	 * A mapped part of the file, appended to from its start
+	 */
+	private static class Region {
+
+		private final MappedByteBuffer buffer;
+		private int position = 0;
+		private long live = 0;
+
+		private Region(MappedByteBuffer buffer){
+			this.buffer = buffer;
+		}
+
+	}
+
+}
@@ -0,0 +1,61 @@
+package net.payload;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Bounded lock-free queue for exactly one producer thread and one consumer thread
+ */
+public class SpscQueue<T> {
+
+	private final AtomicReferenceArray<T> buffer;
+	private final int mask;
+	private final AtomicLong head = new AtomicLong();
+	private final AtomicLong tail = new AtomicLong();
+	
+	/**
+	 * Create a queue holding at least a certain amount of items
+	 * (rounded up to a power of two)
+	 */
+	public SpscQueue(int capacity){
+		int size = Integer.highestOneBit(Math.max(2, capacity) - 1) << 1;
+		this.buffer = new AtomicReferenceArray<>(size);
+		this.mask = size - 1;
+	}
+	
+	/**
+	 * Append an item, may only be called by the producer thread
+	 * @return Whether the item was added (false if the queue was full)
+	 */
+	public boolean offer(T item){
+		long t = tail.get();
+		if (t - head.get() > mask)
+			return false;
+		buffer.lazySet((int) t & mask, item);
+		tail.lazySet(t + 1);
+		return true;
+	}
+	
+	/**
+	 * Take the oldest item, may only be called by the consumer thread
+	 * @return The item, or null if the queue was empty
+	 */
+	public T poll(){
+		long h = head.get();
+		if (h == tail.get())
+			return null;
+		T item = buffer.get((int) h & mask);
+		buffer.lazySet((int) h & mask, null);
+		head.lazySet(h + 1);
+		return item;
+	}
+	
+	public int size(){
+		return (int) (tail.get() - head.get());
+	}
+	
+	public boolean isEmpty(){
+		return size() == 0;
+	}
+	
+}
@@ -0,0 +1,125 @@
+package net.payload;
+
+import java.math.BigInteger;
+import java.security.InvalidKeyException;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.crypto.BadPaddingException;
+import javax.crypto.IllegalBlockSizeException;
+
+import crypto.impl.AES;
+import crypto.impl.AESKey;
+import crypto.impl.Paillier;
+import crypto.impl.PaillierPrivateKey;
+import crypto.impl.ReedSolomon;
+import crypto.impl.SHA256;
+import crypto.impl.ThresholdSplitter;
+
+/**
+ * Class to combine ThresholdPackets and decode them into a message,
+ * from the first threshold packets to arrive
+ */
+public class ThresholdCombiner {
+
+	private final long sequenceNumber;
+	private final BigInteger n;
+	private List<ThresholdPacket> packets = new ArrayList<ThresholdPacket>();
+	private byte[][] shards = null;
+	private BigInteger Khash = null;
+	private AESKey K = null;
+
+	private Paillier paillier;
+
+	/**
+	 * Link this combiner to a certain sequence number
+	 */
+	public ThresholdCombiner(PaillierPrivateKey key, long sequenceNumber){
+		this(key, new Paillier(key), sequenceNumber);
+	}
+
+	/**
+	 * Link this combiner to a certain sequence number,
+	 * decoding with an existing Paillier instance for the key
+	 */
+	public ThresholdCombiner(PaillierPrivateKey key, Paillier paillier, long sequenceNumber){
+		this.sequenceNumber = sequenceNumber;
+		this.paillier = paillier;
+		this.n = key.getN();
+	}
+
+	/**
+	 * Combine another threshold packet and see if the message can be constructed yet.
+	 * Packets arriving after the block is complete are ignored.
+	 *
+	 * @param p The packet to add
+	 * @return Whether the block of this sequence number is complete
+	 * @throws IllegalPacketException If the packet is malformed
+	 */
+	public boolean read(ThresholdPacket p) throws IllegalPacketException{
+		if (sequenceNumber != p.getSequenceNumber())
+			throw new IllegalPacketException("Tried to combine packet with seq.no. " + p.getSequenceNumber() +
+												" into " + sequenceNumber);
+		if (K != null)
+			return true;
+		if (Khash != null && !Khash.equals(p.getKeyHash()))
+			throw new IllegalPacketException("Tried to combine packet with different hash");
+		if (p.getThreshold() < 1 || p.getThreshold() > p.getPartitions() || p.getIndex() >= p.getPartitions())
+			throw new IllegalPacketException("Illegal index " + p.getIndex() + " for " + p.getThreshold() +
+												" of " + p.getPartitions() + " partitions");
+		if (shards == null){
+			Khash = p.getKeyHash();
+			shards = new byte[p.getPartitions()][];
+		} else {
+			ThresholdPacket first = packets.get(0);
+			if (first.getThreshold() != p.getThreshold() || first.getPartitions() != p.getPartitions()
+					|| first.getLength() != p.getLength() || first.getBlock().length != p.getBlock().length)
+				throw new IllegalPacketException("Tried to combine packet with different layout");
+		}
+		if (shards[p.getIndex()] != null)
+			throw new IllegalPacketException("Tried to combine packet with duplicate index " + p.getIndex());
+		if (p.getLength() < 0 || p.getLength() > (long) p.getBlock().length * p.getThreshold())
+			throw new IllegalPacketException("Data length " + p.getLength() + " exceeds the shards");
+
+		shards[p.getIndex()] = p.getBlock();
+		packets.add(p);
+		int threshold = p.getThreshold();
+		if (packets.size() < threshold)
+			return false;
+
+		// Combine the latest threshold shares, such that a bad share is eventually passed over
+		BigInteger[] split = new BigInteger[threshold];
+		int[] indices = new int[threshold];
+		for (int i = 0; i < threshold; i++){
+			ThresholdPacket packet = packets.get(packets.size() - threshold + i);
+			split[i] = packet.getPartKey();
+			indices[i] = packet.getIndex();
+		}
+		BigInteger secret = paillier.decode(ThresholdSplitter.combine(split, indices, n));
+		// Compare as numbers, the byte representations may differ in length
+		if (SHA256.hash(secret).equals(Khash))
+			K = new AESKey(secret);
+		return K != null;
+	}
+
+	public long getSequenceNumber(){
+		return sequenceNumber;
+	}
+
+	/**
+	 * Decrypt the message from the read packets
+	 *
+	 * @return The decrypted message
+	 * @throws InvalidKeyException If the AES key was not recovered
+	 * @throws IllegalBlockSizeException If the data shards were malformed
+	 * @throws BadPaddingException If the data shards were malformed
+	 */
+	public byte[] finish() throws InvalidKeyException, IllegalBlockSizeException, BadPaddingException{
+		if (K == null)
+			throw new InvalidKeyException("Key of block " + sequenceNumber + " was not recovered");
+		ThresholdPacket first = packets.get(0);
+		byte[] EKM = ReedSolomon.decode(shards, first.getThreshold(), first.getLength());
+		return AES.decode(K, EKM);
+	}
+
+}
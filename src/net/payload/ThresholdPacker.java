@@ -0,0 +1,142 @@
+package net.payload;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.security.InvalidKeyException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import javax.crypto.BadPaddingException;
+import javax.crypto.IllegalBlockSizeException;
+
+import crypto.impl.AES;
+import crypto.impl.AESKey;
+import crypto.impl.Paillier;
+import crypto.impl.PaillierPrivateKey;
+import crypto.impl.PaillierPublicKey;
+import crypto.impl.ReedSolomon;
+import crypto.impl.SHA256;
+import crypto.impl.ThresholdSplitter;
+
+/**
+ * Packer which tolerates lost or late channels: any threshold of the partitions
+ * of a block suffice to decode it.
+ *
+ * The AES key is split with Shamir's scheme before its Paillier encryption,
+ * and the encrypted data is erasure coded (Reed-Solomon) across the partitions.
+ * The index of a partition is sent in the clear, as it is needed to combine
+ * the key shares before the key is known.
+ *
+ * Packet layout: size, sequence number, index, threshold, partitions,
+ * homomorphically encrypted share, key hash, encrypted data length, data shard
+ */
+public class ThresholdPacker {
+
+	/**
+	 * Reed-Solomon over GF(256) supports at most this many shards
+	 */
+	public static final int MAX_PARTITIONS = 255;
+
+	/**
+	 * Pack and threshold partition data payloaded under AES
+	 *
+	 * @param key The Public Key of the receiver
+	 * @param threshold The amount of partitions needed to decode
+	 * @param partitions The amount of channels to partition for
+	 * @param sequenceNumber The sequence number of this message block
+	 * @param datablock The message (block)
+	 * @return The shuffled partitioned encrypted message set
+	 * @throws IllegalBlockSizeException If the datablock is too big or small
+	 */
+	public static byte[][] pack(PaillierPublicKey key, int threshold, int partitions, long sequenceNumber, byte[] datablock) throws IllegalBlockSizeException {
+		if (partitions > MAX_PARTITIONS)
+			throw new IllegalArgumentException("At most " + MAX_PARTITIONS + " partitions are supported");
+		AESKey K = new AESKey(Packer.SYMM_KEY_SIZE);
+		BigInteger[] parts = ThresholdSplitter.split(K.getKeyBigInteger(), threshold, partitions, key.getN());
+		byte[] hash = Packer.packBigInteger(SHA256.hash(K.getKeyBigInteger()), 32);
+
+		byte[] EKM = new byte[0];
+		try {
+			EKM = AES.encode(K, datablock);
+		} catch (InvalidKeyException | BadPaddingException e1) {
+			e1.printStackTrace();
+		}
+		byte[][] shards = ReedSolomon.encode(EKM, threshold, partitions);
+
+		List<byte[]> out = new ArrayList<>();
+		for (int i = 0; i < partitions; i++){
+			int size = headerSize(key.getBitspace()) + shards[i].length;
+			ByteBuffer bOut = ByteBuffer.allocate(size).putInt(size)
+										.putLong(sequenceNumber)
+										.put((byte) i)
+										.put((byte) threshold)
+										.put((byte) partitions)
+										.put(Packer.packBigInteger(Paillier.encode(key, parts[i]), key.getBitspace()+1))
+										.put(hash)
+										.putInt(EKM.length)
+										.put(shards[i]);
+			out.add(bOut.array());
+		}
+		// Finally shuffle the array, such that the packet order is not dependent on timing
+		Collections.shuffle(out);
+		return out.toArray(new byte[partitions][]);
+	}
+
+	/**
+	 * The size in bytes of a packet without its data shard
+	 *
+	 * @param bitspace The bit size of the receiver's key
+	 */
+	public static int headerSize(int bitspace){
+		return 4 + 8 + 3 + (bitspace+1) + 32 + 4;
+	}
+
+	/**
+	 * Read in a single ThresholdPacket from a stream
+	 *
+	 * @param key The Private Key for decoding
+	 * @param is The stream
+	 * @return The container for the read packet
+	 * @throws IOException If the stream could not be read/was corrupted
+	 */
+	public static ThresholdPacket read(PaillierPrivateKey key, InputStream is) throws IOException{
+		byte[] bHeader = new byte[4 + 8 + 3];
+		if (Packer.readFully(is, bHeader) != bHeader.length)
+			throw new EOFException("Reached end of stream while parsing packet header");
+		ByteBuffer header = ByteBuffer.wrap(bHeader);
+		int iSize = header.getInt();
+		long lSeq = header.getLong();
+		int index = header.get() & 0xff;
+		int threshold = header.get() & 0xff;
+		int partitions = header.get() & 0xff;
+
+		byte[] bHomo = new byte[key.getBitspace()+1];
+		if (Packer.readFully(is, bHomo) != bHomo.length)
+			throw new EOFException("Reached end of stream while parsing homomorphically encrypted key");
+		BigInteger biHomo = new BigInteger(bHomo);
+
+		byte[] bHash = new byte[32];
+		if (Packer.readFully(is, bHash) != 32)
+			throw new EOFException("Reached end of stream while parsing key hash");
+		BigInteger biHash = new BigInteger(bHash);
+
+		byte[] bLength = new byte[4];
+		if (Packer.readFully(is, bLength) != 4)
+			throw new EOFException("Reached end of stream while parsing data length");
+		int length = ByteBuffer.wrap(bLength).getInt();
+
+		int remainder = iSize - headerSize(key.getBitspace());
+		if (remainder < 0)
+			throw new IOException("Packet size " + iSize + " is too small for its header");
+		byte[] bShard = new byte[remainder];
+		if (Packer.readFully(is, bShard) != remainder)
+			throw new EOFException("Reached end of stream while parsing data shard");
+
+		return new ThresholdPacket(lSeq, index, threshold, partitions, biHomo, biHash, length, bShard);
+	}
+
+}
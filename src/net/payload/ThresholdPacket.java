@@ -0,0 +1,49 @@
+package net.payload;
+
+import java.math.BigInteger;
+
+/**
+ * Class used to store received partial packets of a threshold block,
+ * any threshold of which suffice to decode the block
+ */
+public class ThresholdPacket extends RawPacket {
+
+	private final int index;
+	private final int threshold;
+	private final int partitions;
+	private final int length;
+
+	public ThresholdPacket(long sequenceNumber, int index, int threshold, int partitions, BigInteger partKey, BigInteger keyHash, int length, byte[] block){
+		super(sequenceNumber, partKey, keyHash, new byte[0], block);
+		this.index = index;
+		this.threshold = threshold;
+		this.partitions = partitions;
+		this.length = length;
+	}
+
+	/**
+	 * The index of the key share and data shard carried by this packet
+	 */
+	public int getIndex() {
+		return index;
+	}
+
+	/**
+	 * The amount of packets needed to decode the block
+	 */
+	public int getThreshold() {
+		return threshold;
+	}
+
+	public int getPartitions() {
+		return partitions;
+	}
+
+	/**
+	 * The length of the encrypted block, before it was sharded
+	 */
+	public int getLength() {
+		return length;
+	}
+
+}
@@ -0,0 +1,124 @@
+package net.payload;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Hashed timing wheel for expiring items after a deadline.
+ *
+ * Scheduling and cancelling are O(1): an item is put in the bucket of its deadline tick.
+ * Advancing the wheel only visits the buckets of the ticks that passed.
+ * Deadlines are rounded up to the tick resolution.
+ */
+public class TimingWheel<T> {
+
+	private final long tickMillis;
+	private final List<Set<Timeout<T>>> buckets;
+	private long currentTick;
+
+	/**
+	 * Create a wheel starting at the current time
+	 * @param tickMillis The resolution of the wheel in milliseconds
+	 * @param size The amount of buckets
+	 */
+	public TimingWheel(long tickMillis, int size){
+		this(tickMillis, size, System.currentTimeMillis());
+	}
+
+	/**
+	 * Create a wheel starting at a certain time
+	 * @param tickMillis The resolution of the wheel in milliseconds
+	 * @param size The amount of buckets
+	 * @param now The current time in milliseconds
+	 */
+	public TimingWheel(long tickMillis, int size, long now){
+		if (tickMillis < 1 || size < 1)
+			throw new IllegalArgumentException("Tick and wheel size must be positive");
+		this.tickMillis = tickMillis;
+		this.buckets = new ArrayList<>(size);
+		for (int i = 0; i < size; i++)
+			buckets.add(new LinkedHashSet<Timeout<T>>());
+		this.currentTick = now / tickMillis;
+	}
+
+	/**
+	 * Schedule an item to expire at a certain time
+	 * @param item The item to expire
+	 * @param deadline The time in milliseconds at which the item expires
+	 * @return The handle to cancel the timeout with
+	 */
+	public synchronized Timeout<T> schedule(T item, long deadline){
+		long tick = Math.max((deadline + tickMillis - 1) / tickMillis, currentTick + 1);
+		Timeout<T> timeout = new Timeout<T>(item, tick);
+		buckets.get((int) (tick % buckets.size())).add(timeout);
+		return timeout;
+	}
+
+	/**
+	 * Cancel a scheduled timeout, such that the wheel no longer references its item
+	 * @param timeout The handle returned by schedule
+	 * @return Whether the timeout was still scheduled
+	 */
+	public synchronized boolean cancel(Timeout<T> timeout){
+		return buckets.get((int) (timeout.tick % buckets.size())).remove(timeout);
+	}
+
+	/**
+	 * Advance the wheel to a certain time
+	 * @param now The current time in milliseconds
+	 * @return The items whose deadline passed
+	 */
+	public synchronized List<T> advance(long now){
+		List<T> out = new ArrayList<>();
+		long tick = now / tickMillis;
+		if (tick <= currentTick)
+			return out;
+		// Every bucket is visited at most once per call
+		long steps = Math.min(tick - currentTick, buckets.size());
+		for (long i = 1; i <= steps; i++){
+			Iterator<Timeout<T>> it = buckets.get((int) ((currentTick + i) % buckets.size())).iterator();
+			while (it.hasNext()){
+				Timeout<T> timeout = it.next();
+				if (timeout.tick <= tick){
+					out.add(timeout.item);
+					it.remove();
+				}
+			}
+		}
+		currentTick = tick;
+		return out;
+	}
+
+	/**
+	 * The total amount of scheduled items
+	 */
+	public synchronized int size(){
+		int size = 0;
+		for (Set<Timeout<T>> bucket : buckets)
+			size += bucket.size();
+		return size;
+	}
+
+	/**
+	 * Handle of a scheduled item
+	 */
+	public static final class Timeout<T> {
+
+		private final T item;
+		private final long tick;
+
+		private Timeout(T item, long tick){
+			this.item = item;
+			this.tick = tick;
+		}
+
+		public T getItem(){
+			return item;
+		}
+
+	}
+
+}
@@ -0,0 +1,234 @@
+package net.transport;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketAddress;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+import net.payload.CompletedBlock;
+import net.payload.Packer;
+import net.payload.RawPacket;
+import net.payload.ReassemblyEngine;
+import crypto.impl.PaillierPrivateKey;
+
+/**
+ * TCP server accepting one connection per channel, for many peers with many channels each.
+ *
+ * Every connection is read by its own (blocking) task on the connection executor,
+ * which runs a virtual thread per connection when the JVM supports them.
+ * Combining packets, which includes the Paillier decryption, is handed to a fixed
+ * pool of platform threads so CPU-heavy work does not occupy the carriers of the
+ * connection threads. A connection waits for its packet to be combined before
+ * reading the next one, which bounds the work queued per connection.
+ *
+ * Closing the server stops accepting, closes all connections and waits for all
+ * connection and crypto tasks to finish.
+ */
+public class ChannelServer implements Closeable {
+
+	private final PaillierPrivateKey key;
+	private final ReassemblyEngine engine;
+	private final Consumer<CompletedBlock> listener;
+	private final ServerSocket server;
+	private final ExecutorService connections;
+	private final ExecutorService crypto;
+	private final Thread acceptor;
+	private final Set<Socket> sockets = ConcurrentHashMap.newKeySet();
+
+	private final AtomicInteger open = new AtomicInteger();
+	private final AtomicLong rejected = new AtomicLong();
+	private volatile boolean running = true;
+
+	/**
+	 * Start a server with a thread per connection and a crypto thread per core
+	 *
+	 * @param key The Private Key for decoding
+	 * @param local The local address to bind to
+	 * @param engine The engine to combine packets with
+	 * @param listener Receives the completed blocks (called from a crypto thread)
+	 */
+	public ChannelServer(PaillierPrivateKey key, SocketAddress local, ReassemblyEngine engine, Consumer<CompletedBlock> listener) throws IOException{
+		this(key, local, engine, listener, threadPerConnection(), Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * Start a server
+	 *
+	 * @param key The Private Key for decoding
+	 * @param local The local address to bind to
+	 * @param engine The engine to combine packets with
+	 * @param listener Receives the completed blocks (called from a crypto thread)
+	 * @param connections The executor to read connections on, owned by the server from now on
+	 * @param cryptoThreads The amount of threads to combine and decrypt packets on
+	 */
+	public ChannelServer(PaillierPrivateKey key, SocketAddress local, ReassemblyEngine engine, Consumer<CompletedBlock> listener,
+							ExecutorService connections, int cryptoThreads) throws IOException{
+		this.key = key;
+		this.engine = engine;
+		this.listener = listener;
+		this.connections = connections;
+		this.crypto = Executors.newFixedThreadPool(cryptoThreads, daemonThreads("ChannelServer-crypto-"));
+		this.server = new ServerSocket();
+		this.server.bind(local, 1024);
+		this.acceptor = daemonThreads("ChannelServer-accept-").newThread(new Runnable(){
+			@Override
+			public void run() {
+				accept();
+			}
+		});
+		this.acceptor.start();
+	}
+
+	/**
+	 * Create an executor running a virtual thread per task if the JVM supports them,
+	 * or a platform thread per task otherwise
+	 */
+	public static ExecutorService threadPerConnection(){
+		try {
+			return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+		} catch (ReflectiveOperationException e){
+			return Executors.newCachedThreadPool(daemonThreads("ChannelServer-connection-"));
+		}
+	}
+
+	public InetSocketAddress getLocalAddress(){
+		return (InetSocketAddress) server.getLocalSocketAddress();
+	}
+
+	/**
+	 * The amount of currently open connections
+	 */
+	public int getConnections(){
+		return open.get();
+	}
+
+	/**
+	 * The amount of packets which could not be read or combined
+	 */
+	public long getRejected(){
+		return rejected.get();
+	}
+
+	private void accept(){
+		while (running){
+			final Socket socket;
+			try {
+				socket = server.accept();
+			} catch (IOException e){
+				// Closed by close()
+				return;
+			}
+			sockets.add(socket);
+			try {
+				connections.execute(new Runnable(){
+					@Override
+					public void run() {
+						serve(socket);
+					}
+				});
+			} catch (RejectedExecutionException e){
+				closeQuietly(socket);
+				sockets.remove(socket);
+			}
+		}
+	}
+
+	/**
+	 * Read packets from a single channel connection until it is closed
+	 */
+	private void serve(Socket socket){
+		open.incrementAndGet();
+		try (InputStream is = new BufferedInputStream(socket.getInputStream())){
+			while (running){
+				final RawPacket raw;
+				try {
+					raw = Packer.read(key, is);
+				} catch (EOFException e){
+					return;
+				}
+				Future<byte[]> combined = crypto.submit(new Callable<byte[]>(){
+					@Override
+					public byte[] call() throws Exception {
+						byte[] block = engine.offer(raw);
+						if (block != null)
+							listener.accept(new CompletedBlock(raw.getSequenceNumber(), block));
+						return block;
+					}
+				});
+				try {
+					combined.get();
+				} catch (ExecutionException e){
+					rejected.incrementAndGet();
+				}
+			}
+		} catch (IOException | RejectedExecutionException e){
+			// Connection closed by the peer or by close()
+		} catch (InterruptedException e){
+			Thread.currentThread().interrupt();
+		} finally {
+			sockets.remove(socket);
+			open.decrementAndGet();
+		}
+	}
+
+	/**
+	 * Stop accepting, close all connections and wait for all tasks to finish
+	 */
+	@Override
+	public void close() throws IOException{
+		running = false;
+		server.close();
+		try {
+			acceptor.join();
+			for (Socket socket : sockets)
+				closeQuietly(socket);
+			connections.shutdown();
+			connections.awaitTermination(1, TimeUnit.MINUTES);
+			crypto.shutdown();
+			crypto.awaitTermination(1, TimeUnit.MINUTES);
+		} catch (InterruptedException e){
+			connections.shutdownNow();
+			crypto.shutdownNow();
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private static void closeQuietly(Socket socket){
+		try {
+			socket.close();
+		} catch (IOException e){
+			// Already closed
+		}
+	}
+
+	private static ThreadFactory daemonThreads(final String prefix){
+		final AtomicInteger count = new AtomicInteger();
+		return new ThreadFactory(){
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, prefix + count.getAndIncrement());
+				thread.setDaemon(true);
+				return thread;
+			}
+		};
+	}
+
+}
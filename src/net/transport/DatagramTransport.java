@@ -0,0 +1,259 @@
+package net.transport;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.security.InvalidKeyException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.crypto.BadPaddingException;
+import javax.crypto.IllegalBlockSizeException;
+
+import net.payload.DecryptorCache;
+import net.payload.IllegalPacketException;
+import net.payload.Packer;
+import net.payload.PacketCombiner;
+import net.payload.RawPacket;
+import net.payload.ReplayFilter;
+import crypto.impl.PaillierPrivateKey;
+
+/**
+ * UDP transport for packed blocks, where every packet travels in its own datagram.
+ *
+ * Blocks should be packed with Packer.pack(key, partitions, seq, data, getMTU()),
+ * such that every partition fits in a single datagram.
+ * Received datagrams are buffered in a ring per peer, and collected packets of too old
+ * or already completed sequence numbers are dropped by a ReplayFilter per peer.
+ * Duplicated packets are ignored by the combiner of their block.
+ *
+ * Not thread-safe: a transport should be driven by a single thread.
+ */
+public class DatagramTransport implements Closeable {
+
+	/**
+	 * Ethernet MTU minus the IPv4 and UDP headers
+	 */
+	public static final int DEFAULT_MTU = 1472;
+
+	/**
+	 * Default amount of datagrams buffered per peer
+	 */
+	public static final int DEFAULT_RING_SIZE = 1024;
+
+	private final DatagramChannel channel;
+	private final Selector selector;
+	private final int mtu;
+	private final int ringSize;
+
+	private final ByteBuffer sendBuffer;
+	private final ByteBuffer receiveBuffer;
+	private final Map<SocketAddress, PacketRing> rings = new HashMap<>();
+	private final Map<SocketAddress, ReplayFilter> filters = new HashMap<>();
+	private final Map<SocketAddress, Long> duplicates = new HashMap<>();
+	private final DecryptorCache contexts = new DecryptorCache();
+
+	/**
+	 * Bind a transport with the default MTU and ring size
+	 * @param local The local address to bind to
+	 */
+	public DatagramTransport(SocketAddress local) throws IOException{
+		this(local, DEFAULT_MTU, DEFAULT_RING_SIZE);
+	}
+
+	/**
+	 * Bind a transport
+	 * @param local The local address to bind to
+	 * @param mtu The maximum size of a datagram in bytes
+	 * @param ringSize The amount of datagrams to buffer per peer
+	 */
+	public DatagramTransport(SocketAddress local, int mtu, int ringSize) throws IOException{
+		this.mtu = mtu;
+		this.ringSize = ringSize;
+		this.sendBuffer = ByteBuffer.allocateDirect(mtu);
+		// One byte extra to detect datagrams exceeding the MTU
+		this.receiveBuffer = ByteBuffer.allocateDirect(mtu + 1);
+		this.channel = DatagramChannel.open();
+		this.channel.configureBlocking(false);
+		this.channel.bind(local);
+		this.selector = Selector.open();
+		this.channel.register(selector, SelectionKey.OP_READ);
+	}
+
+	public SocketAddress getLocalAddress() throws IOException{
+		return channel.getLocalAddress();
+	}
+
+	public int getMTU(){
+		return mtu;
+	}
+
+	/**
+	 * Send a batch of packets to a peer, one datagram per packet
+	 *
+	 * @param peer The address of the receiver
+	 * @param packets The packets to send (for instance the output of Packer.pack)
+	 * @return The amount of datagrams sent (the rest did not fit in the socket buffer)
+	 * @throws IllegalArgumentException If a packet exceeds the MTU
+	 */
+	public int send(SocketAddress peer, byte[][] packets) throws IOException{
+		for (byte[] packet : packets)
+			if (packet.length > mtu)
+				throw new IllegalArgumentException("Packet of " + packet.length + " bytes exceeds MTU of " + mtu);
+		int sent = 0;
+		for (byte[] packet : packets){
+			sendBuffer.clear();
+			sendBuffer.put(packet).flip();
+			if (channel.send(sendBuffer, peer) == 0)
+				break;
+			sent++;
+		}
+		return sent;
+	}
+
+	/**
+	 * Wait for datagrams to arrive and drain all of them into the peer rings
+	 *
+	 * @param timeout The maximum time to wait in milliseconds, or 0 to not wait
+	 * @return The amount of datagrams received
+	 */
+	public int receive(long timeout) throws IOException{
+		if (timeout > 0)
+			selector.select(timeout);
+		else
+			selector.selectNow();
+		selector.selectedKeys().clear();
+		int received = 0;
+		SocketAddress from;
+		receiveBuffer.clear();
+		while ((from = channel.receive(receiveBuffer)) != null){
+			receiveBuffer.flip();
+			// Anything over the MTU was not sent by a peer transport
+			if (receiveBuffer.remaining() <= mtu){
+				byte[] datagram = new byte[receiveBuffer.remaining()];
+				receiveBuffer.get(datagram);
+				getRing(from).offer(datagram);
+				received++;
+			}
+			receiveBuffer.clear();
+		}
+		return received;
+	}
+
+	/**
+	 * Take the oldest buffered datagram of a peer
+	 * @return The datagram, or null if none is buffered
+	 */
+	public byte[] poll(SocketAddress peer){
+		PacketRing ring = rings.get(peer);
+		return ring == null ? null : ring.poll();
+	}
+
+	/**
+	 * The peers datagrams have been received from
+	 */
+	public Set<SocketAddress> getPeers(){
+		return Collections.unmodifiableSet(rings.keySet());
+	}
+
+	/**
+	 * The amount of datagrams dropped for a peer because its ring was full
+	 */
+	public long getDropped(SocketAddress peer){
+		PacketRing ring = rings.get(peer);
+		return ring == null ? 0 : ring.getDropped();
+	}
+
+	/**
+	 * The amount of packets of a peer rejected as replayed or duplicated
+	 */
+	public long getReplayed(SocketAddress peer){
+		ReplayFilter filter = filters.get(peer);
+		Long duplicated = duplicates.get(peer);
+		return (filter == null ? 0 : filter.getRejected()) + (duplicated == null ? 0 : duplicated);
+	}
+
+	/**
+	 * Receive and combine all packets of a sequence number from a peer.
+	 * Buffered packets of other sequence numbers are left in the ring,
+	 * replayed and duplicated packets are dropped.
+	 *
+	 * @param key The Private Key for decoding
+	 * @param peer The address of the sender
+	 * @param sequenceNumber The sequence number of the block to receive
+	 * @param timeout The maximum time to wait in milliseconds
+	 * @return The decrypted block
+	 * @throws IncompleteSequenceException If not all packets arrived in time
+	 * @throws IllegalPacketException If a packet was malformed
+	 * @throws IOException If a datagram could not be received or parsed
+	 */
+	public byte[] collect(PaillierPrivateKey key, SocketAddress peer, long sequenceNumber, long timeout) throws IOException, IncompleteSequenceException, IllegalPacketException, InvalidKeyException, IllegalBlockSizeException, BadPaddingException{
+		PacketCombiner combiner = new PacketCombiner(contexts.register(key), sequenceNumber);
+		PacketRing ring = getRing(peer);
+		ReplayFilter filter = filters.get(peer);
+		if (filter == null){
+			filter = new ReplayFilter();
+			filters.put(peer, filter);
+		}
+		List<byte[]> skipped = new ArrayList<>();
+		long deadline = System.currentTimeMillis() + timeout;
+		int received = 0;
+		try {
+			while (true){
+				byte[] datagram;
+				while ((datagram = ring.poll()) != null){
+					RawPacket raw = Packer.read(key, new ByteArrayInputStream(datagram));
+					if (raw.getSequenceNumber() != sequenceNumber){
+						skipped.add(datagram);
+						continue;
+					}
+					if (!filter.accept(sequenceNumber))
+						continue;
+					long before = combiner.getDuplicates();
+					if (combiner.read(raw)){
+						filter.complete(sequenceNumber);
+						return combiner.finish();
+					}
+					if (combiner.getDuplicates() == before)
+						received++;
+				}
+				long remaining = deadline - System.currentTimeMillis();
+				if (remaining <= 0)
+					throw new IncompleteSequenceException(sequenceNumber, received);
+				receive(remaining);
+			}
+		} finally {
+			for (byte[] datagram : skipped)
+				ring.offer(datagram);
+			if (combiner.getDuplicates() > 0){
+				Long duplicated = duplicates.get(peer);
+				duplicates.put(peer, (duplicated == null ? 0 : duplicated) + combiner.getDuplicates());
+			}
+		}
+	}
+
+	@Override
+	public void close() throws IOException{
+		selector.close();
+		channel.close();
+	}
+
+	private PacketRing getRing(SocketAddress peer){
+		PacketRing ring = rings.get(peer);
+		if (ring == null){
+			ring = new PacketRing(ringSize);
+			rings.put(peer, ring);
+		}
+		return ring;
+	}
+
+}
@@ -0,0 +1,294 @@
+package net.transport;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import net.payload.IllegalPacketException;
+import net.payload.Packer;
+import crypto.impl.PaillierPublicKey;
+
+/**
+ * Sends the packets of blocks over several channels and hedges against stragglers:
+ * a packet which is not acknowledged within a percentile of its channel's delivery times
+ * is sent again over the fastest idle channel. A channel is idle while fewer than a small
+ * amount of its packets are outstanding, and the fastest is the one expected to deliver
+ * first given its median delivery time and the packets queued ahead.
+ *
+ * The receiver acknowledges packets by their encrypted channel id (RawPacket.getEncChannelId),
+ * by which PacketCombiner also ignores the duplicates hedging causes.
+ */
+public class HedgedSender {
+
+	/**
+	 * A path to the receiver
+	 */
+	public interface Channel {
+
+		void send(byte[] packet) throws IOException;
+
+	}
+
+	/**
+	 * Default percentile of a channel's delivery times after which its packets are hedged
+	 */
+	public static final double DEFAULT_PERCENTILE = 0.95;
+
+	/**
+	 * Default amount of outstanding packets below which a channel may carry hedges
+	 */
+	public static final int DEFAULT_IDLE_THRESHOLD = 4;
+
+	private final int bitspace;
+	private final List<Channel> channels;
+	private final double percentile;
+	private final long initialDeadline;
+	private final int idleThreshold;
+	private final LatencyTracker latencies;
+	private final int[] outstanding;
+	private final Map<Long, Block> blocks = new HashMap<>();
+	private long hedged = 0;
+
+	/**
+	 * @param key The Public Key of the receiver
+	 * @param channels The paths to the receiver, one per partition
+	 * @param initialDeadline The deadline in nanoseconds for channels without recorded deliveries
+	 */
+	public HedgedSender(PaillierPublicKey key, List<Channel> channels, long initialDeadline){
+		this(key, channels, DEFAULT_PERCENTILE, initialDeadline);
+	}
+
+	/**
+	 * @param key The Public Key of the receiver
+	 * @param channels The paths to the receiver, one per partition
+	 * @param percentile The percentile of a channel's delivery times after which its packets are hedged
+	 * @param initialDeadline The deadline in nanoseconds for channels without recorded deliveries
+	 */
+	public HedgedSender(PaillierPublicKey key, List<Channel> channels, double percentile, long initialDeadline){
+		this(key, channels, percentile, initialDeadline, DEFAULT_IDLE_THRESHOLD);
+	}
+
+	/**
+	 * @param key The Public Key of the receiver
+	 * @param channels The paths to the receiver, one per partition
+	 * @param percentile The percentile of a channel's delivery times after which its packets are hedged
+	 * @param initialDeadline The deadline in nanoseconds for channels without recorded deliveries
+	 * @param idleThreshold The amount of outstanding packets below which a channel may carry hedges
+	 */
+	public HedgedSender(PaillierPublicKey key, List<Channel> channels, double percentile, long initialDeadline, int idleThreshold){
+		this.bitspace = key.getBitspace();
+		this.channels = new ArrayList<>(channels);
+		this.percentile = percentile;
+		this.initialDeadline = initialDeadline;
+		this.idleThreshold = idleThreshold;
+		this.latencies = new LatencyTracker(channels.size());
+		this.outstanding = new int[channels.size()];
+	}
+
+	/**
+	 * Send the packets of a block, packet i over channel i
+	 *
+	 * @param sequenceNumber The sequence number of the block
+	 * @param packets The packets in channel order, see Packer.packWeighted
+	 * @throws IOException If a channel failed to send
+	 * @throws IllegalPacketException If a packet is malformed
+	 */
+	public void send(long sequenceNumber, byte[][] packets) throws IOException, IllegalPacketException{
+		send(sequenceNumber, packets, System.nanoTime());
+	}
+
+	/**
+	 * Send the packets of a block at a certain time
+	 *
+	 * @param now The current time in nanoseconds
+	 */
+	public void send(long sequenceNumber, byte[][] packets, long now) throws IOException, IllegalPacketException{
+		if (packets.length != channels.size())
+			throw new IllegalArgumentException(packets.length + " packets given for " + channels.size() + " channels");
+		Block block = new Block(packets, now);
+		for (int i = 0; i < packets.length; i++)
+			block.indices.put(ByteBuffer.wrap(Packer.peekChannelId(packets[i], bitspace)), i);
+		synchronized (this){
+			blocks.put(sequenceNumber, block);
+			for (int i = 0; i < packets.length; i++)
+				outstanding[i]++;
+		}
+		for (int i = 0; i < packets.length; i++)
+			channels.get(i).send(packets[i]);
+	}
+
+	/**
+	 * Handle the acknowledgement of a packet
+	 *
+	 * @param sequenceNumber The sequence number of the packet
+	 * @param channelId The encrypted channel id of the packet
+	 * @return Whether the packet was outstanding
+	 */
+	public boolean acknowledge(long sequenceNumber, byte[] channelId){
+		return acknowledge(sequenceNumber, channelId, System.nanoTime());
+	}
+
+	/**
+	 * Handle the acknowledgement of a packet at a certain time
+	 *
+	 * @param now The current time in nanoseconds
+	 */
+	public synchronized boolean acknowledge(long sequenceNumber, byte[] channelId, long now){
+		Block block = blocks.get(sequenceNumber);
+		if (block == null)
+			return false;
+		Integer index = block.indices.get(ByteBuffer.wrap(channelId));
+		if (index == null || block.acknowledged[index])
+			return false;
+		block.acknowledged[index] = true;
+		// Whichever copy arrived, the original channel took at least this long
+		latencies.record(index, now - block.sentAt);
+		outstanding[index]--;
+		if (block.hedges[index] >= 0)
+			outstanding[block.hedges[index]]--;
+		if (++block.acknowledgements == block.packets.length)
+			blocks.remove(sequenceNumber);
+		return true;
+	}
+
+	/**
+	 * Forget a block, for instance once the receiver completed it without acknowledging every packet
+	 */
+	public synchronized void complete(long sequenceNumber){
+		Block block = blocks.remove(sequenceNumber);
+		if (block == null)
+			return;
+		for (int i = 0; i < block.packets.length; i++){
+			if (block.acknowledged[i])
+				continue;
+			outstanding[i]--;
+			if (block.hedges[i] >= 0)
+				outstanding[block.hedges[i]]--;
+		}
+	}
+
+	/**
+	 * Send every packet past its deadline again over the fastest idle channel,
+	 * every packet is hedged at most once
+	 *
+	 * @return The amount of packets sent again
+	 * @throws IOException If a channel failed to send
+	 */
+	public int hedge() throws IOException{
+		return hedge(System.nanoTime());
+	}
+
+	/**
+	 * Hedge the packets past their deadline at a certain time
+	 *
+	 * @param now The current time in nanoseconds
+	 */
+	public int hedge(long now) throws IOException{
+		List<byte[]> resend = new ArrayList<>();
+		List<Integer> targets = new ArrayList<>();
+		synchronized (this){
+			for (Iterator<Block> it = blocks.values().iterator(); it.hasNext();){
+				Block block = it.next();
+				for (int i = 0; i < block.packets.length; i++){
+					if (block.acknowledged[i] || block.hedges[i] >= 0 || now - block.sentAt <= getDeadline(i))
+						continue;
+					int target = fastestIdle(i);
+					if (target < 0)
+						continue;
+					block.hedges[i] = target;
+					outstanding[target]++;
+					hedged++;
+					resend.add(block.packets[i]);
+					targets.add(target);
+				}
+			}
+		}
+		for (int i = 0; i < resend.size(); i++)
+			channels.get(targets.get(i)).send(resend.get(i));
+		return resend.size();
+	}
+
+	/**
+	 * The time in nanoseconds after which a packet sent over a channel is hedged
+	 */
+	public synchronized long getDeadline(int channel){
+		long deadline = latencies.getPercentile(channel, percentile);
+		return deadline < 0 ? initialDeadline : deadline;
+	}
+
+	/**
+	 * The delivery times of the channels
+	 */
+	public LatencyTracker getLatencies(){
+		return latencies;
+	}
+
+	/**
+	 * The amount of packets sent again
+	 */
+	public synchronized long getHedged(){
+		return hedged;
+	}
+
+	/**
+	 * The amount of blocks with unacknowledged packets
+	 */
+	public synchronized int size(){
+		return blocks.size();
+	}
+
+	/**
+	 * The idle channel expected to deliver a packet first, other than a certain channel,
+	 * the caller must hold the lock
+	 *
+	 * A packet sent over a channel waits for the packets outstanding on it, so the channel
+	 * is estimated to deliver it after its median delivery time for each of those plus one.
+	 *
+	 * @return The index of the channel, or -1 if no other channel is idle
+	 */
+	private int fastestIdle(int exclude){
+		int best = -1;
+		double bestEstimate = Double.MAX_VALUE;
+		for (int i = 0; i < channels.size(); i++){
+			if (i == exclude || outstanding[i] >= idleThreshold)
+				continue;
+			long latency = latencies.getPercentile(i, 0.5);
+			if (latency < 0)
+				latency = initialDeadline;
+			double estimate = (double) latency * (outstanding[i] + 1);
+			if (best < 0 || estimate < bestEstimate){
+				best = i;
+				bestEstimate = estimate;
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * Sending state of a single block
+	 */
+	private static class Block {
+
+		private final byte[][] packets;
+		private final long sentAt;
+		private final Map<ByteBuffer, Integer> indices = new HashMap<>();
+		private final boolean[] acknowledged;
+		private final int[] hedges;
+		private int acknowledgements = 0;
+
+		private Block(byte[][] packets, long sentAt){
+			this.packets = packets;
+			this.sentAt = sentAt;
+			this.acknowledged = new boolean[packets.length];
+			this.hedges = new int[packets.length];
+			for (int i = 0; i < hedges.length; i++)
+				hedges[i] = -1;
+		}
+
+	}
+
+}
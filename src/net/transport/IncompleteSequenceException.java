@@ -0,0 +1,31 @@
+package net.transport;
+
+/**
+ * Thrown when the packets of a sequence number did not all arrive in time,
+ * for instance because a datagram was lost on one of the paths
+ */
+public class IncompleteSequenceException extends Exception{
+
+	private static final long serialVersionUID = -2271937125516032884L;
+
+	private final long sequenceNumber;
+	private final int received;
+	
+	public IncompleteSequenceException(long sequenceNumber, int received){
+		super("Sequence number " + sequenceNumber + " incomplete after receiving " + received + " packets");
+		this.sequenceNumber = sequenceNumber;
+		this.received = received;
+	}
+	
+	public long getSequenceNumber(){
+		return sequenceNumber;
+	}
+	
+	/**
+	 * The amount of packets of this sequence number which did arrive
+	 */
+	public int getReceived(){
+		return received;
+	}
+	
+}
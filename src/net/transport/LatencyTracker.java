@@ -0,0 +1,78 @@
+package net.transport;
+
+import java.util.Arrays;
+
+/**
+ * Tracks the latest delivery times of every channel, to derive percentile based deadlines
+ */
+public class LatencyTracker {
+
+	/**
+	 * Default amount of samples kept per channel
+	 */
+	public static final int DEFAULT_SAMPLES = 128;
+
+	private final long[][] samples;
+	private final int[] sizes;
+	private final int[] next;
+
+	/**
+	 * @param channels The amount of channels
+	 */
+	public LatencyTracker(int channels){
+		this(channels, DEFAULT_SAMPLES);
+	}
+
+	/**
+	 * @param channels The amount of channels
+	 * @param samples The amount of latest samples kept per channel
+	 */
+	public LatencyTracker(int channels, int samples){
+		this.samples = new long[channels][samples];
+		this.sizes = new int[channels];
+		this.next = new int[channels];
+	}
+
+	/**
+	 * Record the delivery time of a packet
+	 *
+	 * @param channel The index of the channel
+	 * @param nanos The time from sending to acknowledgement in nanoseconds
+	 */
+	public synchronized void record(int channel, long nanos){
+		long[] ring = samples[channel];
+		ring[next[channel]] = nanos;
+		next[channel] = (next[channel] + 1) % ring.length;
+		if (sizes[channel] < ring.length)
+			sizes[channel]++;
+	}
+
+	/**
+	 * The latency a fraction of the recorded deliveries of a channel did not exceed
+	 *
+	 * @param channel The index of the channel
+	 * @param percentile The fraction, for instance 0.99
+	 * @return The latency in nanoseconds, or -1 if nothing was recorded
+	 */
+	public synchronized long getPercentile(int channel, double percentile){
+		int size = sizes[channel];
+		if (size == 0)
+			return -1;
+		long[] sorted = Arrays.copyOf(samples[channel], size);
+		Arrays.sort(sorted);
+		int index = (int) Math.ceil(percentile * size) - 1;
+		return sorted[Math.max(0, Math.min(size - 1, index))];
+	}
+
+	/**
+	 * The amount of samples currently kept for a channel
+	 */
+	public synchronized int getSamples(int channel){
+		return sizes[channel];
+	}
+
+	public int getChannels(){
+		return sizes.length;
+	}
+
+}
@@ -0,0 +1,68 @@
+package net.transport;
+
+/**
+ * Fixed capacity FIFO ring buffer for received datagrams of a single peer.
+ * When the ring is full, newly offered datagrams are dropped.
+ * 
+ * Not thread-safe: a ring is owned by the thread driving its transport.
+ */
+public class PacketRing {
+
+	private final byte[][] ring;
+	private int head = 0;
+	private int size = 0;
+	private long dropped = 0;
+	
+	/**
+	 * Create a ring which can hold a certain amount of datagrams
+	 */
+	public PacketRing(int capacity){
+		if (capacity < 1)
+			throw new IllegalArgumentException("Ring capacity must be positive");
+		this.ring = new byte[capacity][];
+	}
+	
+	/**
+	 * Append a datagram to the ring
+	 * @return Whether the datagram was stored (false if the ring was full)
+	 */
+	public boolean offer(byte[] datagram){
+		if (size == ring.length){
+			dropped++;
+			return false;
+		}
+		ring[(head + size) % ring.length] = datagram;
+		size++;
+		return true;
+	}
+	
+	/**
+	 * Take the oldest datagram from the ring
+	 * @return The datagram, or null if the ring is empty
+	 */
+	public byte[] poll(){
+		if (size == 0)
+			return null;
+		byte[] out = ring[head];
+		ring[head] = null;
+		head = (head + 1) % ring.length;
+		size--;
+		return out;
+	}
+	
+	public int size(){
+		return size;
+	}
+	
+	public int capacity(){
+		return ring.length;
+	}
+	
+	/**
+	 * The amount of datagrams dropped because the ring was full
+	 */
+	public long getDropped(){
+		return dropped;
+	}
+	
+}
@@ -0,0 +1,78 @@
+package net.transport;
+
+/**
+ * Live estimate of the throughput of every channel, as an exponentially weighted
+ * moving average of completed transfers, to size partitions with Packer.packWeighted.
+ *
+ * Channels without any transfer yet are assumed to be as fast as the average channel.
+ */
+public class ThroughputEstimator {
+
+	/**
+	 * Default weight of the latest transfer in the average
+	 */
+	public static final double DEFAULT_ALPHA = 0.2;
+
+	private final double alpha;
+	private final double[] rates;
+
+	/**
+	 * @param channels The amount of channels
+	 */
+	public ThroughputEstimator(int channels){
+		this(channels, DEFAULT_ALPHA);
+	}
+
+	/**
+	 * @param channels The amount of channels
+	 * @param alpha The weight of the latest transfer in the average, in (0, 1]
+	 */
+	public ThroughputEstimator(int channels, double alpha){
+		if (alpha <= 0 || alpha > 1)
+			throw new IllegalArgumentException("Alpha " + alpha + " is not in (0, 1]");
+		this.alpha = alpha;
+		this.rates = new double[channels];
+	}
+
+	/**
+	 * Record a completed transfer over a channel
+	 *
+	 * @param channel The index of the channel
+	 * @param bytes The amount of bytes transferred
+	 * @param nanos The time the transfer took in nanoseconds
+	 */
+	public synchronized void record(int channel, long bytes, long nanos){
+		double rate = bytes / (Math.max(1, nanos) / 1e9d);
+		rates[channel] = rates[channel] == 0 ? rate : alpha * rate + (1 - alpha) * rates[channel];
+	}
+
+	/**
+	 * The estimated throughput of a channel in bytes per second, or 0 if unknown
+	 */
+	public synchronized double getThroughput(int channel){
+		return rates[channel];
+	}
+
+	/**
+	 * The weights of all channels for Packer.packWeighted
+	 */
+	public synchronized double[] getWeights(){
+		double total = 0;
+		int known = 0;
+		for (double rate : rates){
+			if (rate > 0){
+				total += rate;
+				known++;
+			}
+		}
+		double[] weights = new double[rates.length];
+		for (int i = 0; i < rates.length; i++)
+			weights[i] = rates[i] > 0 ? rates[i] : (known == 0 ? 1 : total / known);
+		return weights;
+	}
+
+	public int getChannels(){
+		return rates.length;
+	}
+
+}
@@ -0,0 +1,101 @@
+package test.crypto;
+
+import static org.junit.Assert.*;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import crypto.impl.AESSplitter;
+
+public class TestAESSplitter {
+
+	/**
+	 * The size of the data to split
+	 */
+	private int DATASIZE = 1024*1024;
+
+	@Test
+	public void testWeighted() {
+		double[] weights = new double[] {1, 2, 4, 1};
+		byte[] data = new byte[DATASIZE];
+		new Random().nextBytes(data);
+		byte[][] parts = AESSplitter.splitWeighted(data, weights, 0.02);
+
+		int position = 0;
+		for (int i = 0; i < parts.length; i++){
+			double expected = DATASIZE * weights[i] / 8;
+			// Allow for the jitter of this and earlier partitions
+			assertEquals(expected, parts[i].length, expected * 0.2);
+			for (int j = 0; j < parts[i].length; j++)
+				assertEquals(data[position + j], parts[i][j]);
+			position += parts[i].length;
+		}
+		assertEquals(DATASIZE, position);
+	}
+
+	@Test
+	public void testJitter() {
+		double[] weights = new double[] {1, 1};
+		int[] first = AESSplitter.sizeWeighted(DATASIZE, weights, 0.3);
+		boolean varied = false;
+		for (int r = 0; r < 10 && !varied; r++)
+			varied = AESSplitter.sizeWeighted(DATASIZE, weights, 0.3)[0] != first[0];
+		assertTrue(varied);
+	}
+
+	@Test
+	public void testJitterFloor() {
+		// The heaviest partition is the last, taking what is left
+		double[] weights = new double[] {1, 2, 2, 3};
+		double jitter = 0.1;
+		for (int r = 0; r < 10; r++){
+			int[] sizes = AESSplitter.sizeWeighted(DATASIZE, weights, jitter);
+			int position = 0;
+			double remainingWeight = 8;
+			for (int i = 0; i < sizes.length - 1; i++){
+				// Every size but the last is corrected for the earlier ones, then randomized
+				double wanted = (int) ((DATASIZE - position) * (weights[i] / remainingWeight));
+				double deviation = Math.abs(sizes[i] - wanted);
+				assertTrue(deviation >= wanted * jitter - 1);
+				assertTrue(deviation <= wanted * jitter * 2 + 1);
+				position += sizes[i];
+				remainingWeight -= weights[i];
+			}
+		}
+	}
+
+	@Test
+	public void testHeaviestTakesRest() {
+		// A heavy partition before a light last one may not pass its deviation on to it
+		double[] weights = new double[] {1, 1, 1, 1, 1, 1, 8, 1};
+		double share = DATASIZE / 15d;
+		for (int r = 0; r < 100; r++){
+			int[] sizes = AESSplitter.sizeWeighted(DATASIZE, weights, 0.1);
+			// Allow for twice the jitter, plus the correction of earlier jitter
+			for (int i = 0; i < sizes.length; i++)
+				if (i != 6)
+					assertEquals(share, sizes[i], share * 0.35);
+			assertEquals(8 * share, sizes[6], 8 * share * 0.15);
+		}
+	}
+
+	@Test(expected=IllegalArgumentException.class)
+	public void testNoJitter() {
+		AESSplitter.sizeWeighted(DATASIZE, new double[] {1, 1}, 0);
+	}
+
+	@Test
+	public void testZeroWeight() {
+		int[] sizes = AESSplitter.sizeWeighted(DATASIZE, new double[] {0, 1}, 0.3);
+
+		assertEquals(0, sizes[0]);
+		assertEquals(DATASIZE, sizes[1]);
+	}
+
+	@Test(expected=IllegalArgumentException.class)
+	public void testNoWeight() {
+		AESSplitter.sizeWeighted(DATASIZE, new double[] {0, 0}, 0.3);
+	}
+
+}
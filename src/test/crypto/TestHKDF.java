@@ -0,0 +1,41 @@
+package test.crypto;
+
+import static org.junit.Assert.*;
+
+import java.math.BigInteger;
+
+import org.junit.Test;
+
+import crypto.impl.HKDF;
+
+public class TestHKDF {
+
+	private static byte[] hex(String s){
+		byte[] raw = new BigInteger("01" + s, 16).toByteArray();
+		byte[] out = new byte[raw.length - 1];
+		System.arraycopy(raw, 1, out, 0, out.length);
+		return out;
+	}
+	
+	/**
+	 * RFC 5869 test case 1
+	 */
+	@Test
+	public void testVector() {
+		byte[] ikm = hex("0b0b0b0b0b0b0b0b0b0b0b0b0b0b0b0b0b0b0b0b0b0b");
+		byte[] salt = hex("000102030405060708090a0b0c");
+		byte[] info = hex("f0f1f2f3f4f5f6f7f8f9");
+		byte[] okm = hex("3cb25f25faacd57a90434f64d0362f2a2d2d0a90cf1a5a4c5db02d56ecc4c5bf34007208d5b887185865");
+		
+		assertArrayEquals(okm, HKDF.derive(ikm, salt, info, 42));
+	}
+	
+	@Test
+	public void testInfo() {
+		byte[] ikm = new byte[32];
+		
+		assertFalse(new BigInteger(HKDF.derive(ikm, new byte[0], new byte[] {1}, 32)).equals(
+					new BigInteger(HKDF.derive(ikm, new byte[0], new byte[] {2}, 32))));
+	}
+	
+}
@@ -0,0 +1,55 @@
+package test.crypto;
+
+import static org.junit.Assert.*;
+
+import java.math.BigInteger;
+import java.util.Random;
+
+import org.junit.Test;
+
+import crypto.impl.Paillier;
+import crypto.impl.PaillierKeyPair;
+import crypto.impl.ReedSolomon;
+import crypto.impl.ThresholdSplitter;
+
+public class TestReedSolomon {
+
+	@Test
+	public void testAnyShards() {
+		byte[] data = new byte[10007];
+		new Random().nextBytes(data);
+		byte[][] shards = ReedSolomon.encode(data, 4, 7);
+
+		// Every combination of 4 out of 7 shards
+		for (int mask = 0; mask < (1 << 7); mask++){
+			if (Integer.bitCount(mask) != 4)
+				continue;
+			byte[][] available = new byte[7][];
+			for (int i = 0; i < 7; i++)
+				if ((mask & (1 << i)) != 0)
+					available[i] = shards[i];
+			assertArrayEquals(data, ReedSolomon.decode(available, 4, data.length));
+		}
+	}
+
+	@Test(expected=IllegalArgumentException.class)
+	public void testTooFewShards() {
+		byte[][] shards = ReedSolomon.encode(new byte[100], 3, 5);
+		shards[0] = shards[1] = shards[2] = null;
+		ReedSolomon.decode(shards, 3, 100);
+	}
+
+	@Test
+	public void testThresholdSplitter() {
+		PaillierKeyPair keyPair = PaillierKeyPair.forceGenerate(512, true);
+		BigInteger n = keyPair.getPublicKey().getN();
+		BigInteger secret = new BigInteger(256, new Random());
+		BigInteger[] parts = ThresholdSplitter.split(secret, 3, 5, n);
+		for (int i = 0; i < parts.length; i++)
+			parts[i] = Paillier.encode(keyPair.getPublicKey(), parts[i]);
+
+		BigInteger combined = ThresholdSplitter.combine(new BigInteger[] {parts[4], parts[0], parts[2]}, new int[] {4, 0, 2}, n);
+		assertEquals(secret, Paillier.decode(keyPair.getPrivateKey(), combined));
+	}
+
+}
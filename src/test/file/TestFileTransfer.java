@@ -0,0 +1,112 @@
+package test.file;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Random;
+
+import net.file.FileReceiver;
+import net.file.FileSender;
+import net.payload.Packer;
+import net.payload.RecipientContext;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import crypto.impl.PaillierKeyPair;
+
+public class TestFileTransfer {
+
+	/**
+	 * A keypair to use for these tests (use a fast choice of g)
+	 */
+	private PaillierKeyPair keyPair = PaillierKeyPair.forceGenerate(PaillierKeyPair.DEFAULT_BITS, true);
+
+	/**
+	 * The amount of partitions to create
+	 */
+	private int HOMOMORPHISMLEVEL = 4;
+
+	/**
+	 * The size of a block, the file ends with a partial block
+	 */
+	private int BLOCKSIZE = 16*1024;
+
+	private byte[] data = new byte[BLOCKSIZE * 7 + 1000];
+	private Path source;
+	private Path destination;
+
+	@Before
+	public void setUp() throws Exception {
+		new Random().nextBytes(data);
+		source = Files.createTempFile("source", ".bin");
+		destination = Files.createTempFile("destination", ".bin");
+		Files.write(source, data);
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		Files.deleteIfExists(source);
+		Files.deleteIfExists(destination);
+		Files.deleteIfExists(Paths.get(destination + ".part"));
+	}
+
+	/**
+	 * Send a block and let the receiver combine all its packets
+	 */
+	private boolean transfer(FileSender sender, FileReceiver receiver, long block) throws Exception {
+		boolean written = false;
+		for (byte[] packet : sender.pack(block))
+			written |= receiver.offer(Packer.read(keyPair.getPrivateKey(), new ByteArrayInputStream(packet)));
+		return written;
+	}
+
+	@Test
+	public void testResume() throws Exception {
+		FileSender sender = new FileSender(new RecipientContext(keyPair.getPublicKey()), HOMOMORPHISMLEVEL, source, BLOCKSIZE);
+		assertEquals(8, sender.getBlocks());
+
+		// Interrupt the transfer halfway
+		FileReceiver receiver = new FileReceiver(keyPair.getPrivateKey(), destination, data.length, BLOCKSIZE);
+		for (long block = 0; block < 4; block++)
+			assertTrue(transfer(sender, receiver, block));
+		assertFalse(receiver.isComplete());
+		receiver.close();
+		assertTrue(Files.exists(Paths.get(destination + ".part")));
+
+		// Only the missing blocks are sent again
+		receiver = new FileReceiver(keyPair.getPrivateKey(), destination, data.length, BLOCKSIZE);
+		assertEquals(4, receiver.getCompleted().cardinality());
+		int sent = 0;
+		for (long block = sender.nextMissing(receiver.getCompleted(), 0); block != -1; block = sender.nextMissing(receiver.getCompleted(), block + 1)){
+			assertTrue(transfer(sender, receiver, block));
+			sent++;
+		}
+		assertEquals(4, sent);
+		assertTrue(receiver.isComplete());
+		receiver.close();
+		sender.close();
+
+		assertArrayEquals(data, Files.readAllBytes(destination));
+		assertFalse(Files.exists(Paths.get(destination + ".part")));
+	}
+
+	@Test
+	public void testRestart() throws Exception {
+		FileSender sender = new FileSender(new RecipientContext(keyPair.getPublicKey()), HOMOMORPHISMLEVEL, source, BLOCKSIZE);
+		FileReceiver receiver = new FileReceiver(keyPair.getPrivateKey(), destination, data.length, BLOCKSIZE);
+		transfer(sender, receiver, 0);
+		receiver.close();
+
+		// A checkpoint of another layout is not resumed
+		receiver = new FileReceiver(keyPair.getPrivateKey(), destination, data.length, BLOCKSIZE / 2);
+		assertEquals(0, receiver.getCompleted().cardinality());
+		receiver.close();
+		sender.close();
+	}
+
+}
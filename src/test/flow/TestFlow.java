@@ -0,0 +1,189 @@
+package test.flow;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.SubmissionPublisher;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import net.flow.OrderedProcessor;
+import net.flow.PackProcessor;
+import net.flow.UnpackProcessor;
+import net.payload.CompletedBlock;
+import net.payload.Packer;
+import net.payload.ReassemblyEngine;
+
+import org.junit.After;
+import org.junit.Test;
+
+import crypto.impl.PaillierKeyPair;
+
+public class TestFlow {
+
+	/**
+	 * The keysize to use PaillierKeyPair.DEFAULT_BITS = 1024
+	 */
+	private int KEYSIZE = PaillierKeyPair.DEFAULT_BITS;
+
+	/**
+	 * A keypair to use for these tests (use a fast choice of g)
+	 */
+	private PaillierKeyPair keyPair = PaillierKeyPair.forceGenerate(KEYSIZE, true);
+
+	/**
+	 * The amount of partitions to create
+	 */
+	private int HOMOMORPHISMLEVEL = 4;
+
+	/**
+	 * The amount of blocks to stream
+	 */
+	private int BLOCKS = 12;
+
+	/**
+	 * The maximum amount of items per stage in flight
+	 */
+	private int PARALLELISM = 3;
+
+	private ExecutorService pool = Executors.newFixedThreadPool(4);
+
+	@After
+	public void tearDown(){
+		pool.shutdownNow();
+	}
+
+	/**
+	 * Subscriber which stores everything it receives, requesting a fixed amount up front
+	 */
+	private static class Collector<T> implements Flow.Subscriber<T> {
+
+		private final List<T> items = Collections.synchronizedList(new ArrayList<T>());
+		private final CountDownLatch done = new CountDownLatch(1);
+		private final long initial;
+		private Flow.Subscription subscription;
+		private Throwable error;
+
+		private Collector(long initial){
+			this.initial = initial;
+		}
+
+		@Override
+		public void onSubscribe(Flow.Subscription subscription) {
+			this.subscription = subscription;
+			subscription.request(initial);
+		}
+
+		@Override
+		public void onNext(T item) {
+			items.add(item);
+		}
+
+		@Override
+		public void onError(Throwable throwable) {
+			error = throwable;
+			done.countDown();
+		}
+
+		@Override
+		public void onComplete() {
+			done.countDown();
+		}
+
+		private void await() throws Throwable {
+			assertTrue(done.await(60, TimeUnit.SECONDS));
+			if (error != null)
+				throw error;
+		}
+
+	}
+
+	@Test(timeout=60000)
+	public void testBackpressure() throws Throwable {
+		final AtomicInteger applied = new AtomicInteger();
+		OrderedProcessor<Integer, Integer> processor = new OrderedProcessor<>(new OrderedProcessor.Stage<Integer, Integer>(){
+			@Override
+			public Integer apply(long index, Integer item) throws Exception {
+				applied.incrementAndGet();
+				// Make later items finish first
+				Thread.sleep(20 - item);
+				return item;
+			}
+		}, pool, PARALLELISM);
+		Collector<Integer> collector = new Collector<>(1);
+		processor.subscribe(collector);
+
+		SubmissionPublisher<Integer> publisher = new SubmissionPublisher<>(pool, 1);
+		publisher.subscribe(processor);
+		final List<Integer> offered = new ArrayList<>();
+		for (int i = 0; i < 20; i++)
+			offered.add(i);
+		Thread producer = new Thread(new Runnable(){
+			@Override
+			public void run() {
+				for (Integer i : offered)
+					publisher.submit(i);
+				publisher.close();
+			}
+		});
+		producer.start();
+		Thread.sleep(500);
+
+		// A subscriber which asked for one item must not cause more than parallelism items of work
+		assertEquals(1, collector.items.size());
+		assertTrue(applied.get() <= PARALLELISM + 1);
+
+		collector.subscription.request(Long.MAX_VALUE);
+		collector.await();
+		producer.join();
+
+		assertEquals(offered, collector.items);
+	}
+
+	@Test(timeout=60000)
+	public void testPackUnpack() throws Throwable {
+		byte[][] data = new byte[BLOCKS][];
+		PackProcessor packer = new PackProcessor(keyPair.getPublicKey(), HOMOMORPHISMLEVEL, 100, pool, PARALLELISM);
+		Collector<byte[][]> packed = new Collector<>(Long.MAX_VALUE);
+		packer.subscribe(packed);
+		SubmissionPublisher<byte[]> blocks = new SubmissionPublisher<>(pool, 2);
+		blocks.subscribe(packer);
+		for (int i = 0; i < BLOCKS; i++){
+			data[i] = new byte[8192];
+			new Random().nextBytes(data[i]);
+			blocks.submit(data[i]);
+		}
+		blocks.close();
+		packed.await();
+
+		List<byte[]> packets = new ArrayList<>();
+		for (int i = 0; i < BLOCKS; i++){
+			assertEquals(100 + i, Packer.peekSequenceNumber(packed.items.get(i)[0]));
+			Collections.addAll(packets, packed.items.get(i));
+		}
+		Collections.shuffle(packets);
+
+		ReassemblyEngine engine = new ReassemblyEngine(keyPair.getPrivateKey(), 16*1024*1024, 60000);
+		UnpackProcessor unpacker = new UnpackProcessor(keyPair.getPrivateKey(), engine, pool, PARALLELISM);
+		Collector<CompletedBlock> unpacked = new Collector<>(Long.MAX_VALUE);
+		unpacker.subscribe(unpacked);
+		SubmissionPublisher<byte[]> received = new SubmissionPublisher<>(pool, 2);
+		received.subscribe(unpacker);
+		for (byte[] packet : packets)
+			received.submit(packet);
+		received.close();
+		unpacked.await();
+
+		assertEquals(BLOCKS, unpacked.items.size());
+		for (CompletedBlock block : unpacked.items)
+			assertArrayEquals(data[(int) block.getSequenceNumber() - 100], block.getData());
+	}
+
+}
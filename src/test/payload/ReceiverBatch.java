@@ -0,0 +1,118 @@
+package test.payload;
+
+import java.io.ByteArrayInputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import net.payload.Packer;
+import net.payload.ReassemblyEngine;
+import net.payload.ShardedReceiver;
+import crypto.impl.PaillierKeyPair;
+
+/**
+ * Class for benchmarking receiver throughput of the shared ReassemblyEngine
+ * against the ShardedReceiver, for an increasing amount of threads
+ */
+public class ReceiverBatch {
+
+	/**
+	 * The keysize to use PaillierKeyPair.DEFAULT_BITS = 1024
+	 */
+	private static int KEYSIZE = PaillierKeyPair.DEFAULT_BITS;
+
+	/**
+	 * A keypair to use for these tests (use a fast choice of g)
+	 */
+	private static PaillierKeyPair keyPair = PaillierKeyPair.forceGenerate(KEYSIZE, true);
+
+	/**
+	 * Size in bytes of the random data per block
+	 */
+	private static int DATASIZE = 16*1024;
+
+	/**
+	 * The amount of blocks to receive per experiment
+	 */
+	private static int BLOCKS = 128;
+
+	/**
+	 * The amount of partitions to create
+	 */
+	private static int HOMOMORPHISMLEVEL = 8;
+
+	/**
+	 * Receive all packets with a shared engine fed by a thread pool
+	 */
+	private static long runShared(final List<byte[]> packets, int threads) throws Exception {
+		final ReassemblyEngine engine = new ReassemblyEngine(keyPair.getPrivateKey(), Long.MAX_VALUE, 600000);
+		final AtomicInteger done = new AtomicInteger();
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		long stime = System.nanoTime();
+		for (final byte[] packet : packets){
+			pool.execute(new Runnable(){
+				@Override
+				public void run() {
+					try {
+						if (engine.offer(Packer.read(keyPair.getPrivateKey(), new ByteArrayInputStream(packet))) != null)
+							done.incrementAndGet();
+					} catch (Exception e){
+						e.printStackTrace();
+					}
+				}
+			});
+		}
+		pool.shutdown();
+		pool.awaitTermination(1, TimeUnit.HOURS);
+		long etime = System.nanoTime() - stime;
+		if (done.get() != BLOCKS)
+			throw new IllegalStateException("Only completed " + done.get() + " blocks");
+		return etime;
+	}
+
+	/**
+	 * Receive all packets with a sharded receiver fed by this thread
+	 */
+	private static long runSharded(List<byte[]> packets, int shards) throws Exception {
+		try (ShardedReceiver receiver = new ShardedReceiver(keyPair.getPrivateKey(), shards, packets.size(), 600000)){
+			long stime = System.nanoTime();
+			for (byte[] packet : packets)
+				receiver.route(packet);
+			int done = 0;
+			while (done < BLOCKS){
+				if (receiver.poll() != null)
+					done++;
+				else
+					Thread.yield();
+			}
+			return System.nanoTime() - stime;
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+		List<byte[]> packets = new ArrayList<>();
+		for (int seq = 0; seq < BLOCKS; seq++){
+			byte[] data = new byte[DATASIZE];
+			new Random().nextBytes(data);
+			Collections.addAll(packets, Packer.pack(keyPair.getPublicKey(), HOMOMORPHISMLEVEL, seq, data));
+		}
+		Collections.shuffle(packets);
+
+		// Warm up
+		runShared(packets, 1);
+		runSharded(packets, 1);
+
+		int cores = Runtime.getRuntime().availableProcessors();
+		for (int threads = 1; threads <= cores; threads *= 2){
+			double shared = runShared(packets, threads)/1e9d;
+			double sharded = runSharded(packets, threads)/1e9d;
+			System.out.println(threads + " threads: shared " + BLOCKS/shared + " blocks/s, sharded " + BLOCKS/sharded + " blocks/s");
+		}
+	}
+
+}
@@ -0,0 +1,145 @@
+package test.payload;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import net.payload.Coalescer;
+import net.payload.IllegalPacketException;
+import net.payload.Packer;
+import net.payload.PacketCombiner;
+
+import org.junit.Test;
+
+import crypto.impl.PaillierKeyPair;
+
+public class TestCoalescer {
+
+	/**
+	 * The keysize to use PaillierKeyPair.DEFAULT_BITS = 1024
+	 */
+	private int KEYSIZE = PaillierKeyPair.DEFAULT_BITS;
+
+	/**
+	 * A keypair to use for these tests (use a fast choice of g)
+	 */
+	private PaillierKeyPair keyPair = PaillierKeyPair.forceGenerate(KEYSIZE, true);
+
+	/**
+	 * The amount of partitions to create
+	 */
+	private int HOMOMORPHISMLEVEL = 4;
+
+	/**
+	 * Flushed blocks, as sequence number followed by packets
+	 */
+	private BlockingQueue<Object[]> flushed = new LinkedBlockingQueue<>();
+
+	private Coalescer.Sink sink = new Coalescer.Sink(){
+		@Override
+		public void send(long sequenceNumber, byte[][] packets) {
+			flushed.add(new Object[] {sequenceNumber, packets});
+		}
+	};
+
+	private List<byte[]> unpack(long sequenceNumber, byte[][] packets) throws Exception {
+		PacketCombiner combiner = new PacketCombiner(keyPair.getPrivateKey(), sequenceNumber);
+		for (byte[] packet : packets)
+			combiner.read(Packer.read(keyPair.getPrivateKey(), new ByteArrayInputStream(packet)));
+		return Coalescer.split(combiner.finish());
+	}
+
+	@Test
+	public void testThreshold() throws Exception {
+		List<byte[]> messages = new ArrayList<>();
+		try (Coalescer coalescer = new Coalescer(keyPair.getPublicKey(), HOMOMORPHISMLEVEL, 1, 1000, 60000, sink)){
+			// 10 messages of 96 bytes, plus their length prefix, fill a batch
+			for (int i = 0; i < 25; i++){
+				byte[] message = new byte[96];
+				new Random().nextBytes(message);
+				messages.add(message);
+				coalescer.add(message);
+			}
+			assertEquals(2, flushed.size());
+		}
+		assertEquals(3, flushed.size());
+
+		List<byte[]> received = new ArrayList<>();
+		for (int seq = 1; seq <= 3; seq++){
+			Object[] block = flushed.take();
+			assertEquals((long) seq, block[0]);
+			received.addAll(unpack(seq, (byte[][]) block[1]));
+		}
+		assertEquals(messages.size(), received.size());
+		for (int i = 0; i < messages.size(); i++)
+			assertArrayEquals(messages.get(i), received.get(i));
+	}
+
+	@Test(timeout=10000)
+	public void testLinger() throws Exception {
+		byte[] message = new byte[] {1, 2, 3};
+		try (Coalescer coalescer = new Coalescer(keyPair.getPublicKey(), HOMOMORPHISMLEVEL, 1, 1000, 50, sink)){
+			coalescer.add(message);
+			Object[] block = flushed.poll(5, TimeUnit.SECONDS);
+
+			assertNotNull(block);
+			List<byte[]> received = unpack(1, (byte[][]) block[1]);
+			assertEquals(1, received.size());
+			assertArrayEquals(message, received.get(0));
+		}
+	}
+
+	@Test(timeout=10000)
+	public void testLingerFailure() throws Exception {
+		final IllegalStateException failure = new IllegalStateException("Sink unavailable");
+		Coalescer.Sink failing = new Coalescer.Sink(){
+			@Override
+			public void send(long sequenceNumber, byte[][] packets) {
+				if (sequenceNumber == 1)
+					throw failure;
+				flushed.add(new Object[] {sequenceNumber, packets});
+			}
+		};
+		try (Coalescer coalescer = new Coalescer(keyPair.getPublicKey(), HOMOMORPHISMLEVEL, 1, 1000, 50, failing)){
+			coalescer.add(new byte[] {1, 2, 3});
+
+			// The failure of the lingering batch is reported once, by the next call
+			IllegalStateException reported = null;
+			while (reported == null){
+				try {
+					coalescer.flush();
+					Thread.sleep(10);
+				} catch (IllegalStateException e){
+					reported = e;
+				}
+			}
+			assertSame(failure, reported);
+
+			byte[] message = new byte[] {4, 5, 6};
+			coalescer.add(message);
+			coalescer.flush();
+			Object[] block = flushed.take();
+			assertEquals(2L, block[0]);
+			assertArrayEquals(message, unpack(2, (byte[][]) block[1]).get(0));
+		}
+	}
+
+	@Test(expected=IllegalStateException.class)
+	public void testAddAfterClose() throws Exception {
+		Coalescer coalescer = new Coalescer(keyPair.getPublicKey(), HOMOMORPHISMLEVEL, 1, 1000, 50, sink);
+		coalescer.close();
+		coalescer.add(new byte[] {1, 2, 3});
+	}
+
+	@Test(expected=IllegalPacketException.class)
+	public void testBadFraming() throws IllegalPacketException {
+		Coalescer.split(new byte[] {0, 0, 0, 9, 1, 2});
+	}
+
+}
@@ -0,0 +1,82 @@
+package test.payload;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Random;
+
+import net.payload.DecryptionContext;
+import net.payload.DecryptorCache;
+import net.payload.Packer;
+import net.payload.RawPacket;
+import net.payload.ReassemblyEngine;
+
+import org.junit.Test;
+
+import crypto.impl.PaillierKeyPair;
+
+public class TestDecryptorCache {
+
+	/**
+	 * The current and the previous key of a receiver (use a fast choice of g)
+	 */
+	private PaillierKeyPair current = PaillierKeyPair.forceGenerate(PaillierKeyPair.DEFAULT_BITS, true);
+	private PaillierKeyPair previous = PaillierKeyPair.forceGenerate(PaillierKeyPair.DEFAULT_BITS, true);
+
+	/**
+	 * The amount of partitions to create
+	 */
+	private int HOMOMORPHISMLEVEL = 4;
+
+	@Test
+	public void testRegister() {
+		DecryptorCache cache = new DecryptorCache();
+		DecryptionContext context = cache.register(current.getPrivateKey());
+
+		assertSame(context, cache.register(current.getPrivateKey()));
+		assertSame(context, cache.get(DecryptionContext.keyId(current.getPublicKey().getN())));
+		assertEquals(1, cache.size());
+		assertSame(context, cache.remove(context.getKeyId()));
+		assertNull(cache.get(context.getKeyId()));
+	}
+
+	@Test
+	public void testRotation() throws Exception {
+		DecryptorCache cache = new DecryptorCache();
+		cache.register(current.getPrivateKey());
+		cache.register(previous.getPrivateKey());
+		ReassemblyEngine engine = new ReassemblyEngine(cache, 1024*1024, 60000);
+
+		byte[] first = new byte[4096];
+		byte[] second = new byte[4096];
+		new Random().nextBytes(first);
+		new Random().nextBytes(second);
+		byte[][] oldPacked = Packer.pack(previous.getPublicKey(), HOMOMORPHISMLEVEL, 1, first);
+		byte[][] newPacked = Packer.pack(current.getPublicKey(), HOMOMORPHISMLEVEL, 2, second);
+
+		assertEquals(DecryptionContext.keyId(previous.getPublicKey().getN()), Packer.peekKeyId(oldPacked[0]));
+
+		// Packets for both keys arrive interleaved
+		byte[] oldBlock = null;
+		byte[] newBlock = null;
+		for (int i = 0; i < HOMOMORPHISMLEVEL; i++){
+			RawPacket oldRaw = Packer.read(cache, new ByteArrayInputStream(oldPacked[i]));
+			RawPacket newRaw = Packer.read(cache, new ByteArrayInputStream(newPacked[i]));
+			oldBlock = engine.offer(oldRaw);
+			newBlock = engine.offer(newRaw);
+		}
+		assertArrayEquals(first, oldBlock);
+		assertArrayEquals(second, newBlock);
+	}
+
+	@Test(expected=IOException.class)
+	public void testUnknownKey() throws Exception {
+		DecryptorCache cache = new DecryptorCache();
+		cache.register(current.getPrivateKey());
+		byte[][] packed = Packer.pack(previous.getPublicKey(), HOMOMORPHISMLEVEL, 1, new byte[16]);
+
+		Packer.read(cache, new ByteArrayInputStream(packed[0]));
+	}
+
+}
@@ -0,0 +1,94 @@
+package test.payload;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.util.Random;
+
+import net.payload.KeyBundle;
+import net.payload.KeyBundlePool;
+import net.payload.Packer;
+import net.payload.PacketCombiner;
+
+import org.junit.Test;
+
+import crypto.impl.PaillierKeyPair;
+
+public class TestKeyBundlePool {
+
+	/**
+	 * The keysize to use PaillierKeyPair.DEFAULT_BITS = 1024
+	 */
+	private int KEYSIZE = PaillierKeyPair.DEFAULT_BITS;
+
+	/**
+	 * A keypair to use for these tests (use a fast choice of g)
+	 */
+	private PaillierKeyPair keyPair = PaillierKeyPair.forceGenerate(KEYSIZE, true);
+
+	/**
+	 * The amount of partitions to create
+	 */
+	private int HOMOMORPHISMLEVEL = 8;
+
+	/**
+	 * The amount of bundles to keep ready
+	 */
+	private int DEPTH = 4;
+
+	@Test(timeout=60000)
+	public void testPrefilled() throws Exception {
+		byte[] data = new byte[64*1024];
+		new Random().nextBytes(data);
+		try (KeyBundlePool pool = new KeyBundlePool(DEPTH, 1)){
+			pool.prefill(keyPair.getPublicKey(), HOMOMORPHISMLEVEL);
+			while (pool.getDepth(keyPair.getPublicKey(), HOMOMORPHISMLEVEL) < DEPTH)
+				Thread.sleep(10);
+
+			byte[][] packed = Packer.pack(pool.take(keyPair.getPublicKey(), HOMOMORPHISMLEVEL), 1, data);
+
+			assertEquals(1, pool.getHits());
+			assertEquals(0, pool.getMisses());
+			assertEquals(DEPTH, pool.getRefills(), 1);
+
+			PacketCombiner combiner = new PacketCombiner(keyPair.getPrivateKey(), 1);
+			boolean finished = false;
+			for (byte[] message : packed)
+				finished |= combiner.read(Packer.read(keyPair.getPrivateKey(), new ByteArrayInputStream(message)));
+
+			assertTrue(finished);
+			assertArrayEquals(data, combiner.finish());
+		}
+	}
+
+	@Test
+	public void testMiss() {
+		try (KeyBundlePool pool = new KeyBundlePool(DEPTH, 1)){
+			assertNotNull(pool.take(keyPair.getPublicKey(), HOMOMORPHISMLEVEL));
+			assertEquals(1, pool.getMisses());
+		}
+	}
+
+	@Test(timeout=60000)
+	public void testEviction() throws Exception {
+		try (KeyBundlePool pool = new KeyBundlePool(DEPTH, 1, 2)){
+			for (int partitions = 2; partitions <= 4; partitions++)
+				pool.prefill(keyPair.getPublicKey(), partitions);
+			assertEquals(2, pool.size());
+
+			// The least recently used pool was dropped and is no longer refilled
+			while (pool.getDepth(keyPair.getPublicKey(), 4) < DEPTH)
+				Thread.sleep(10);
+			assertEquals(0, pool.getDepth(keyPair.getPublicKey(), 2));
+			assertEquals(2, pool.size());
+		}
+	}
+
+	@Test(expected=IllegalStateException.class)
+	public void testSingleUse() throws Exception {
+		KeyBundle bundle = KeyBundle.create(keyPair.getPublicKey(), HOMOMORPHISMLEVEL);
+		Packer.pack(bundle, 1, new byte[1024]);
+		Packer.pack(bundle, 2, new byte[1024]);
+	}
+
+}
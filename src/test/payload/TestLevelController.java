@@ -0,0 +1,47 @@
+package test.payload;
+
+import static org.junit.Assert.*;
+
+import net.payload.LevelController;
+
+import org.junit.Test;
+
+public class TestLevelController {
+
+	@Test
+	public void testRiseAndFall() {
+		LevelController controller = new LevelController(4, 16);
+
+		// Rise one partition per block when idle
+		for (int i = 5; i <= 16; i++)
+			assertEquals(i, controller.choose(0.0, 0, 32));
+		assertEquals(16, controller.choose(0.0, 0, 32));
+		// Fall back at once under load
+		assertEquals(4, controller.choose(1.0, 0, 32));
+		assertEquals(4, controller.choose(0.0, LevelController.DEFAULT_QUEUE_LIMIT, 32));
+
+		assertEquals(15, controller.getDecisions());
+		assertEquals(12, controller.getRaised());
+		assertEquals(1, controller.getLowered());
+		assertEquals(2, controller.getCount(16));
+		assertEquals(4, controller.getLevel());
+	}
+
+	@Test
+	public void testBounds() {
+		LevelController controller = new LevelController(4, 16);
+		for (int i = 0; i < 32; i++)
+			controller.choose(0.5, 0, 32);
+		assertEquals(10, controller.getLevel());
+
+		// Never more partitions than channels, but never fewer than the minimum
+		assertEquals(6, controller.choose(0.0, 0, 6));
+		assertEquals(4, controller.choose(0.0, 0, 2));
+	}
+
+	@Test(expected=IllegalArgumentException.class)
+	public void testInsecure() {
+		new LevelController(1, 16);
+	}
+
+}
@@ -0,0 +1,194 @@
+package test.payload;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.crypto.IllegalBlockSizeException;
+
+import net.payload.LevelController;
+import net.payload.PackPipeline;
+import net.payload.Packer;
+import net.payload.PacketCombiner;
+import net.payload.RecipientContext;
+
+import org.junit.After;
+import org.junit.Test;
+
+import crypto.impl.PaillierKeyPair;
+
+public class TestPackPipeline {
+
+	/**
+	 * A keypair to use for these tests (use a fast choice of g)
+	 */
+	private PaillierKeyPair keyPair = PaillierKeyPair.forceGenerate(PaillierKeyPair.DEFAULT_BITS, true);
+
+	/**
+	 * The amount of partitions to create
+	 */
+	private int HOMOMORPHISMLEVEL = 4;
+
+	/**
+	 * The amount of blocks to stream
+	 */
+	private int BLOCKS = 16;
+
+	/**
+	 * The maximum amount of blocks in flight
+	 */
+	private int DEPTH = 3;
+
+	private ExecutorService pool = Executors.newFixedThreadPool(4);
+
+	@After
+	public void tearDown(){
+		pool.shutdownNow();
+	}
+
+	/**
+	 * Sink checking the emission order and the depth bound
+	 */
+	private class Collector implements PackPipeline.Sink {
+
+		private final List<Long> order = new ArrayList<>();
+		private final List<byte[][]> blocks = new ArrayList<>();
+		private PackPipeline pipeline;
+
+		@Override
+		public synchronized void emit(long sequenceNumber, byte[][] packets) {
+			assertTrue(pipeline.getInFlight() <= DEPTH);
+			order.add(sequenceNumber);
+			blocks.add(packets);
+		}
+
+	}
+
+	@Test
+	public void testOrder() throws Exception {
+		Collector collector = new Collector();
+		PackPipeline pipeline = new PackPipeline(new RecipientContext(keyPair.getPublicKey()), HOMOMORPHISMLEVEL, 100, 0, pool, DEPTH, collector);
+		collector.pipeline = pipeline;
+		byte[][] data = new byte[BLOCKS][];
+		for (int i = 0; i < BLOCKS; i++){
+			// Vary the sizes, such that blocks finish out of order
+			data[i] = new byte[(i % 3 + 1) * 8192];
+			new Random().nextBytes(data[i]);
+			assertEquals(100 + i, pipeline.submit(data[i]));
+		}
+		pipeline.flush();
+
+		assertEquals(0, pipeline.getInFlight());
+		assertEquals(BLOCKS, collector.order.size());
+		for (int i = 0; i < BLOCKS; i++){
+			assertEquals(Long.valueOf(100 + i), collector.order.get(i));
+			PacketCombiner combiner = new PacketCombiner(keyPair.getPrivateKey(), 100 + i);
+			boolean finished = false;
+			for (byte[] packet : collector.blocks.get(i))
+				finished = combiner.read(Packer.read(keyPair.getPrivateKey(), new ByteArrayInputStream(packet)));
+			assertTrue(finished);
+			assertArrayEquals(data[i], combiner.finish());
+		}
+	}
+
+	@Test
+	public void testFailure() throws Exception {
+		Collector collector = new Collector();
+		// An MTU smaller than the header fails every block
+		PackPipeline pipeline = new PackPipeline(new RecipientContext(keyPair.getPublicKey()), HOMOMORPHISMLEVEL, 0, 64, pool, DEPTH, collector);
+		collector.pipeline = pipeline;
+		pipeline.submit(new byte[1024]);
+		try {
+			pipeline.flush();
+			fail("The block should not fit");
+		} catch (ExecutionException e){
+			assertTrue(e.getCause() instanceof IllegalBlockSizeException);
+		}
+		assertEquals(0, pipeline.getInFlight());
+		assertTrue(collector.order.isEmpty());
+		// The failure is reported once
+		pipeline.flush();
+	}
+
+	@Test(timeout=60000)
+	public void testSinkFailure() throws Exception {
+		final List<Long> emitted = new ArrayList<>();
+		PackPipeline pipeline = new PackPipeline(new RecipientContext(keyPair.getPublicKey()), HOMOMORPHISMLEVEL, 0, 0, pool, 1, new PackPipeline.Sink(){
+			@Override
+			public void emit(long sequenceNumber, byte[][] packets) {
+				if (sequenceNumber == 0)
+					throw new IllegalStateException("Sink closed");
+				emitted.add(sequenceNumber);
+			}
+		});
+		pipeline.submit(new byte[1024]);
+		try {
+			pipeline.flush();
+			fail("The sink failure should be reported");
+		} catch (ExecutionException e){
+			assertTrue(e.getCause() instanceof IllegalStateException);
+		}
+
+		// The permit of the failed block was released, so the next block does not wait forever
+		assertEquals(0, pipeline.getInFlight());
+		assertEquals(1, pipeline.submit(new byte[1024]));
+		pipeline.flush();
+		assertEquals(1, emitted.size());
+	}
+
+	@Test(timeout=60000)
+	public void testRejected() throws Exception {
+		final AtomicBoolean accepting = new AtomicBoolean(false);
+		Executor executor = new Executor(){
+			@Override
+			public void execute(Runnable command) {
+				if (!accepting.get())
+					throw new RejectedExecutionException("Executor saturated");
+				pool.execute(command);
+			}
+		};
+		Collector collector = new Collector();
+		PackPipeline pipeline = new PackPipeline(new RecipientContext(keyPair.getPublicKey()), HOMOMORPHISMLEVEL, 0, 0, executor, 1, collector);
+		collector.pipeline = pipeline;
+		assertEquals(0, pipeline.submit(new byte[1024]));
+
+		// The rejected block gave back its permit and is reported like a failed block
+		assertEquals(0, pipeline.getInFlight());
+		accepting.set(true);
+		try {
+			pipeline.submit(new byte[1024]);
+			fail("The rejection should be reported");
+		} catch (ExecutionException e){
+			assertTrue(e.getCause() instanceof RejectedExecutionException);
+		}
+		assertEquals(1, pipeline.submit(new byte[1024]));
+		pipeline.flush();
+		assertEquals(1, collector.order.size());
+		assertEquals(Long.valueOf(1), collector.order.get(0));
+	}
+
+	@Test
+	public void testController() throws Exception {
+		Collector collector = new Collector();
+		LevelController controller = new LevelController(2, 8);
+		PackPipeline pipeline = new PackPipeline(new RecipientContext(keyPair.getPublicKey()), controller, 6, 0, 0, pool, DEPTH, collector);
+		collector.pipeline = pipeline;
+		for (int i = 0; i < BLOCKS; i++)
+			pipeline.submit(new byte[1024]);
+		pipeline.flush();
+
+		assertEquals(BLOCKS, controller.getDecisions());
+		for (byte[][] packets : collector.blocks)
+			assertTrue(packets.length >= 2 && packets.length <= 6);
+	}
+
+}
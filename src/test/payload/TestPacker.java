@@ -5,19 +5,25 @@ import static org.junit.Assert.*;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.security.InvalidKeyException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
 
 import javax.crypto.BadPaddingException;
 import javax.crypto.IllegalBlockSizeException;
 
 import net.payload.IllegalPacketException;
+import net.payload.PackedFrame;
 import net.payload.Packer;
 import net.payload.PacketCombiner;
 import net.payload.RawPacket;
+import net.transport.ThroughputEstimator;
 
 import org.junit.Before;
 import org.junit.Test;
 import crypto.impl.PaillierKeyPair;
+import crypto.impl.PaillierPublicKey;
 
 public class TestPacker {
 
@@ -82,4 +88,66 @@ public class TestPacker {
 		assertArrayEquals(data, decrypted);
 	}
 	
+	@Test
+	public void testPackMulti() throws IllegalBlockSizeException, IOException, IllegalPacketException, InvalidKeyException, BadPaddingException {
+		PaillierKeyPair[] recipients = new PaillierKeyPair[] {keyPair, PaillierKeyPair.forceGenerate(KEYSIZE, true), PaillierKeyPair.forceGenerate(KEYSIZE, true)};
+		List<PaillierPublicKey> keys = new ArrayList<>();
+		for (PaillierKeyPair recipient : recipients)
+			keys.add(recipient.getPublicKey());
+		List<PackedFrame[]> packed = Packer.packMulti(keys, HOMOMORPHISMLEVEL, 1, data);
+		
+		assertEquals(recipients.length, packed.size());
+		for (int r = 0; r < recipients.length; r++){
+			PacketCombiner combiner = new PacketCombiner(recipients[r].getPrivateKey(), 1);
+			boolean finished = false;
+			for (PackedFrame frame : packed.get(r)){
+				ByteArrayInputStream bis = new ByteArrayInputStream(frame.toByteArray());
+				finished |= combiner.read(Packer.read(recipients[r].getPrivateKey(), bis));
+			}
+			
+			assertTrue(finished);
+			assertArrayEquals(data, combiner.finish());
+		}
+	}
+	
+	@Test
+	public void testEncryptDecryptSegmented() throws IOException, IllegalPacketException, InvalidKeyException, IllegalBlockSizeException, BadPaddingException {
+		byte[][] packed = Packer.packSegmented(keyPair.getPublicKey(), HOMOMORPHISMLEVEL, 1, data, ForkJoinPool.commonPool());
+		PacketCombiner combiner = new PacketCombiner(keyPair.getPrivateKey(), 1);
+		boolean finished = false;
+		
+		// Counter mode adds no padding
+		int size = 0;
+		for (byte[] message : packed){
+			size += message.length - Packer.headerSize(KEYSIZE);
+			ByteArrayInputStream bis = new ByteArrayInputStream(message);
+			finished |= combiner.read(Packer.read(keyPair.getPrivateKey(), bis));
+		}
+		
+		assertEquals(data.length, size);
+		assertTrue(finished);
+		assertArrayEquals(data, combiner.finishSegmented(ForkJoinPool.commonPool()));
+	}
+	
+	@Test
+	public void testEncryptDecryptWeighted() throws IOException, IllegalPacketException, InvalidKeyException, IllegalBlockSizeException, BadPaddingException {
+		// One fast channel and seven slow ones
+		ThroughputEstimator estimator = new ThroughputEstimator(HOMOMORPHISMLEVEL);
+		for (int i = 0; i < HOMOMORPHISMLEVEL; i++)
+			estimator.record(i, i == 3 ? 8000000 : 1000000, 1000000000L);
+		byte[][] packed = Packer.packWeighted(keyPair.getPublicKey(), 1, data, estimator.getWeights(), 0.1);
+
+		// The packets are in channel order
+		for (int i = 0; i < HOMOMORPHISMLEVEL; i++){
+			if (i != 3)
+				assertTrue(packed[3].length > 4 * packed[i].length);
+		}
+		PacketCombiner combiner = new PacketCombiner(keyPair.getPrivateKey(), 1);
+		boolean finished = false;
+		for (byte[] message : packed)
+			finished |= combiner.read(Packer.read(keyPair.getPrivateKey(), new ByteArrayInputStream(message)));
+		assertTrue(finished);
+		assertArrayEquals(data, combiner.finish());
+	}
+
 }
@@ -0,0 +1,88 @@
+package test.payload;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import javax.crypto.IllegalBlockSizeException;
+
+import net.payload.PacketAuthenticator;
+import net.payload.Packer;
+import net.payload.PacketCombiner;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import crypto.impl.PaillierKeyPair;
+
+public class TestPacketAuthenticator {
+
+	/**
+	 * A keypair to use for these tests (use a fast choice of g)
+	 */
+	private PaillierKeyPair keyPair = PaillierKeyPair.forceGenerate(PaillierKeyPair.DEFAULT_BITS, true);
+
+	/**
+	 * The buffer for random data
+	 */
+	byte[] data = new byte[16*1024];
+
+	/**
+	 * The amount of partitions to create
+	 */
+	private int HOMOMORPHISMLEVEL = 4;
+
+	private byte[] secret = new byte[32];
+
+	@Before
+	public void setUp(){
+		new Random().nextBytes(data);
+		new Random().nextBytes(secret);
+	}
+
+	@Test
+	public void testAccept() throws Exception {
+		PacketAuthenticator sender = new PacketAuthenticator(secret);
+		PacketAuthenticator receiver = new PacketAuthenticator(secret);
+		byte[][] packed = Packer.pack(keyPair.getPublicKey(), HOMOMORPHISMLEVEL, 1, data, sender);
+		PacketCombiner combiner = new PacketCombiner(keyPair.getPrivateKey(), 1);
+
+		boolean finished = false;
+		for (byte[] packet : packed)
+			finished = combiner.read(Packer.read(keyPair.getPrivateKey(), new ByteArrayInputStream(packet), receiver));
+
+		assertTrue(finished);
+		assertArrayEquals(data, combiner.finish());
+		assertEquals(HOMOMORPHISMLEVEL, receiver.getAccepted());
+		assertEquals(0, receiver.getRejected());
+	}
+
+	@Test
+	public void testReject() throws IllegalBlockSizeException {
+		PacketAuthenticator receiver = new PacketAuthenticator(secret);
+		byte[][] packed = Packer.pack(keyPair.getPublicKey(), HOMOMORPHISMLEVEL, 1, data, new PacketAuthenticator(secret));
+
+		// Flip a bit of the key share
+		packed[0][12] ^= 1;
+		// Sealed with a different secret
+		byte[] other = new byte[32];
+		packed[1] = new PacketAuthenticator(other).seal(Packer.pack(keyPair.getPublicKey(), 2, 1, data)[0]);
+		// Claims to be huge
+		ByteBuffer.wrap(packed[2]).putInt(Integer.MAX_VALUE);
+
+		for (int i = 0; i < 3; i++){
+			try {
+				Packer.read(keyPair.getPrivateKey(), new ByteArrayInputStream(packed[i]), receiver);
+				fail("Accepted forged packet " + i);
+			} catch (IOException e){
+				// Expected
+			}
+		}
+		assertEquals(3, receiver.getRejected());
+		assertEquals(0, receiver.getAccepted());
+	}
+
+}
@@ -0,0 +1,131 @@
+package test.payload;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import net.payload.IllegalPacketException;
+import net.payload.PacketHeader;
+import net.payload.Packer;
+import net.payload.ProgressiveCombiner;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import crypto.impl.AES;
+import crypto.impl.AESKey;
+import crypto.impl.PaillierKeyPair;
+
+public class TestProgressiveCombiner {
+
+	/**
+	 * A keypair to use for these tests (use a fast choice of g)
+	 */
+	private PaillierKeyPair keyPair = PaillierKeyPair.forceGenerate(PaillierKeyPair.DEFAULT_BITS, true);
+
+	/**
+	 * The buffer for random data
+	 */
+	byte[] data = new byte[100003];
+
+	/**
+	 * The amount of partitions to create
+	 */
+	private int HOMOMORPHISMLEVEL = 4;
+
+	private ByteArrayInputStream[] streams;
+	private PacketHeader[] headers;
+
+	@Before
+	public void setUp() throws IOException{
+		new Random().nextBytes(data);
+		byte[][] packed = Packer.packSegmented(keyPair.getPublicKey(), HOMOMORPHISMLEVEL, 1, data, ForkJoinPool.commonPool());
+		streams = new ByteArrayInputStream[packed.length];
+		headers = new PacketHeader[packed.length];
+		for (int i = 0; i < packed.length; i++){
+			streams[i] = new ByteArrayInputStream(packed[i]);
+			headers[i] = Packer.readHeader(keyPair.getPrivateKey(), streams[i]);
+		}
+	}
+
+	@Test
+	public void testSeek() throws Exception {
+		AESKey key = new AESKey(256);
+		byte[] enc = new byte[data.length];
+		AES.codeSegment(key, 3, data, 0, data.length, enc, 0);
+
+		// Decrypting from an unaligned position gives the same result
+		byte[] part = new byte[1000];
+		AES.codeSegment(key, 3, 12345, enc, 12345, part.length, part, 0);
+		assertArrayEquals(Arrays.copyOfRange(data, 12345, 12345 + part.length), part);
+	}
+
+	@Test
+	public void testInterleaved() throws IOException, IllegalPacketException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		ProgressiveCombiner combiner = new ProgressiveCombiner(keyPair.getPrivateKey(), 1, Channels.newChannel(out));
+
+		boolean recovered = false;
+		for (PacketHeader header : headers)
+			recovered = combiner.readHeader(header);
+		assertTrue(recovered);
+
+		// Read all channels round robin, in chunks which are not a multiple of the AES block size
+		byte[] chunk = new byte[777];
+		boolean remaining = true;
+		while (remaining){
+			remaining = false;
+			for (int i = 0; i < streams.length; i++){
+				int read = streams[i].read(chunk, 0, Math.min(chunk.length, streams[i].available()));
+				if (read > 0){
+					combiner.readPayload(headers[i], chunk, 0, read);
+					remaining = true;
+				}
+			}
+		}
+
+		assertTrue(combiner.isComplete());
+		assertEquals(data.length, combiner.getDelivered());
+		assertArrayEquals(data, out.toByteArray());
+	}
+
+	@Test
+	public void testPrefixDelivered() throws IOException, IllegalPacketException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		ProgressiveCombiner combiner = new ProgressiveCombiner(keyPair.getPrivateKey(), 1, Channels.newChannel(out));
+
+		// Part of a payload read before the key is recovered is held back
+		int early = headers.length - 1;
+		byte[] chunk = new byte[100];
+		int read = streams[early].read(chunk);
+		for (PacketHeader header : headers)
+			combiner.readHeader(header);
+		combiner.readPayload(headers[early], chunk, 0, read);
+
+		// Read the channels in reverse order, the first partition releases everything
+		long delivered = 0;
+		for (int i = streams.length - 1; i >= 0; i--){
+			combiner.readPayload(headers[i], streams[i]);
+			assertTrue(combiner.getDelivered() >= delivered);
+			delivered = combiner.getDelivered();
+			assertArrayEquals(Arrays.copyOfRange(data, 0, (int) delivered), out.toByteArray());
+		}
+
+		assertTrue(combiner.isComplete());
+		assertArrayEquals(data, out.toByteArray());
+	}
+
+	@Test(expected=IllegalPacketException.class)
+	public void testOverrun() throws IOException, IllegalPacketException {
+		ProgressiveCombiner combiner = new ProgressiveCombiner(keyPair.getPrivateKey(), 1, Channels.newChannel(new ByteArrayOutputStream()));
+		combiner.readHeader(headers[0]);
+		combiner.readPayload(headers[0], new byte[headers[0].getPayloadLength() + 1], 0, headers[0].getPayloadLength() + 1);
+	}
+
+}
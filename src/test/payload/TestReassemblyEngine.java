@@ -0,0 +1,255 @@
+package test.payload;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.security.InvalidKeyException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.crypto.BadPaddingException;
+import javax.crypto.IllegalBlockSizeException;
+
+import net.payload.BudgetExceededException;
+import net.payload.DecryptorCache;
+import net.payload.IllegalPacketException;
+import net.payload.Packer;
+import net.payload.PacketCombiner;
+import net.payload.RawPacket;
+import net.payload.ReassemblyEngine;
+import net.payload.ReplayFilter;
+import net.payload.SlabAllocator;
+import net.payload.SpillFile;
+
+import org.junit.Test;
+
+import crypto.impl.PaillierKeyPair;
+
+public class TestReassemblyEngine {
+
+	/**
+	 * The keysize to use PaillierKeyPair.DEFAULT_BITS = 1024
+	 */
+	private int KEYSIZE = PaillierKeyPair.DEFAULT_BITS;
+
+	/**
+	 * A keypair to use for these tests (use a fast choice of g)
+	 */
+	private PaillierKeyPair keyPair = PaillierKeyPair.forceGenerate(KEYSIZE, true);
+
+	/**
+	 * The amount of partitions to create
+	 */
+	private int HOMOMORPHISMLEVEL = 4;
+
+	/**
+	 * The amount of sequence numbers in flight
+	 */
+	private int SEQUENCES = 24;
+
+	private RawPacket read(byte[] packet) throws IOException{
+		return Packer.read(keyPair.getPrivateKey(), new ByteArrayInputStream(packet));
+	}
+
+	@Test
+	public void testConcurrent() throws Exception {
+		final ReassemblyEngine engine = new ReassemblyEngine(keyPair.getPrivateKey(), 64*1024*1024, 60000);
+		final byte[][] data = new byte[SEQUENCES][];
+		List<RawPacket> packets = new ArrayList<>();
+		for (int seq = 0; seq < SEQUENCES; seq++){
+			data[seq] = new byte[4096];
+			new Random().nextBytes(data[seq]);
+			for (byte[] packet : Packer.pack(keyPair.getPublicKey(), HOMOMORPHISMLEVEL, seq, data[seq]))
+				packets.add(read(packet));
+		}
+		// Simulate packets of all sequence numbers arriving interleaved on several threads
+		Collections.shuffle(packets);
+		final ConcurrentHashMap<Long, byte[]> done = new ConcurrentHashMap<>();
+		ExecutorService pool = Executors.newFixedThreadPool(4);
+		List<Future<?>> futures = new ArrayList<>();
+		for (final RawPacket packet : packets){
+			futures.add(pool.submit(new Callable<Void>(){
+				@Override
+				public Void call() throws Exception {
+					byte[] block = engine.offer(packet);
+					if (block != null)
+						assertNull(done.put(packet.getSequenceNumber(), block));
+					return null;
+				}
+			}));
+		}
+		for (Future<?> future : futures)
+			future.get();
+		pool.shutdown();
+
+		assertEquals(SEQUENCES, done.size());
+		for (int seq = 0; seq < SEQUENCES; seq++)
+			assertArrayEquals(data[seq], done.get((long) seq));
+		assertEquals(0, engine.size());
+		assertEquals(0, engine.getBufferedSize());
+	}
+
+	@Test
+	public void testExpire() throws IllegalBlockSizeException, IOException, IllegalPacketException, InvalidKeyException, BadPaddingException {
+		ReassemblyEngine engine = new ReassemblyEngine(keyPair.getPrivateKey(), 1024*1024, 1000);
+		byte[][] packed = Packer.pack(keyPair.getPublicKey(), HOMOMORPHISMLEVEL, 7, new byte[4096]);
+		assertNull(engine.offer(read(packed[0])));
+
+		assertEquals(0, engine.expire(System.currentTimeMillis()).length);
+		long[] expired = engine.expire(System.currentTimeMillis() + 2000);
+
+		assertArrayEquals(new long[] {7}, expired);
+		assertEquals(0, engine.size());
+		assertEquals(0, engine.getBufferedSize());
+	}
+
+	@Test(expected=BudgetExceededException.class)
+	public void testBudget() throws IllegalBlockSizeException, IOException, IllegalPacketException, InvalidKeyException, BadPaddingException {
+		ReassemblyEngine engine = new ReassemblyEngine(keyPair.getPrivateKey(), 1024, 60000);
+		byte[][] packed = Packer.pack(keyPair.getPublicKey(), HOMOMORPHISMLEVEL, 1, new byte[16384]);
+
+		engine.offer(read(packed[0]));
+	}
+
+	@Test
+	public void testOffHeap() throws Exception {
+		DecryptorCache cache = new DecryptorCache();
+		cache.register(keyPair.getPrivateKey());
+		SlabAllocator allocator = new SlabAllocator(64*1024);
+		ReassemblyEngine engine = new ReassemblyEngine(cache, 1024*1024, 1000, allocator);
+		byte[] data = new byte[10000];
+		new Random().nextBytes(data);
+		byte[][] complete = Packer.pack(keyPair.getPublicKey(), HOMOMORPHISMLEVEL, 1, data);
+		byte[][] partial = Packer.pack(keyPair.getPublicKey(), HOMOMORPHISMLEVEL, 2, data);
+
+		assertNull(engine.offer(read(partial[0])));
+		for (int i = 0; i < HOMOMORPHISMLEVEL - 1; i++)
+			assertNull(engine.offer(read(complete[i])));
+		assertTrue(allocator.getAllocated() >= engine.getBufferedSize());
+		assertArrayEquals(data, engine.offer(read(complete[HOMOMORPHISMLEVEL - 1])));
+		// Every chunk size in use is carved from its own slab
+		long reserved = allocator.getReserved();
+		assertEquals(0, reserved % (64*1024));
+
+		// The chunks are freed on completion and on expiry, and reused afterwards
+		assertArrayEquals(new long[] {2}, engine.expire(System.currentTimeMillis() + 2000));
+		assertEquals(0, allocator.getAllocated());
+		assertNull(engine.offer(read(partial[0])));
+		assertEquals(reserved, allocator.getReserved());
+	}
+
+	@Test
+	public void testSpill() throws Exception {
+		DecryptorCache cache = new DecryptorCache();
+		cache.register(keyPair.getPrivateKey());
+		SpillFile spillFile = new SpillFile();
+		byte[][] data = new byte[3][];
+		RawPacket[][] packets = new RawPacket[3][HOMOMORPHISMLEVEL];
+		int budget = 0;
+		for (int seq = 0; seq < 3; seq++){
+			data[seq] = new byte[16384];
+			new Random().nextBytes(data[seq]);
+			byte[][] packed = Packer.pack(keyPair.getPublicKey(), HOMOMORPHISMLEVEL, seq, data[seq]);
+			for (int i = 0; i < HOMOMORPHISMLEVEL; i++){
+				packets[seq][i] = read(packed[i]);
+				budget = Math.max(budget, packets[seq][i].getBlock().length);
+			}
+			// Offer the largest partition first, at least a quarter of the data
+			for (int i = 1; i < HOMOMORPHISMLEVEL; i++){
+				if (packets[seq][i].getBlock().length > packets[seq][0].getBlock().length){
+					RawPacket largest = packets[seq][i];
+					packets[seq][i] = packets[seq][0];
+					packets[seq][0] = largest;
+				}
+			}
+		}
+		// Room for any single partition, but never for the largest partitions of two blocks
+		ReassemblyEngine engine = new ReassemblyEngine(cache, budget, 60000, null, spillFile);
+
+		for (int seq = 0; seq < 3; seq++)
+			assertNull(engine.offer(packets[seq][0]));
+		assertEquals(2, engine.getSpilled());
+		assertTrue(engine.getBufferedSize() <= engine.getMemoryBudget());
+		for (int seq = 0; seq < 3; seq++){
+			for (int i = 1; i < HOMOMORPHISMLEVEL - 1; i++)
+				assertNull(engine.offer(packets[seq][i]));
+		}
+		for (int seq = 0; seq < 3; seq++)
+			assertArrayEquals(data[seq], engine.offer(packets[seq][HOMOMORPHISMLEVEL - 1]));
+
+		assertEquals(0, engine.getBufferedSize());
+		assertEquals(0, spillFile.getLive());
+		spillFile.close();
+	}
+
+	@Test
+	public void testSpillFailure() throws Exception {
+		byte[][] packed = Packer.pack(keyPair.getPublicKey(), HOMOMORPHISMLEVEL, 1, new byte[4096]);
+		RawPacket first = read(packed[0]);
+		PacketCombiner combiner = new PacketCombiner(keyPair.getPrivateKey(), 1);
+		assertFalse(combiner.read(first));
+		// A region which only fits the first packet, after which the file can not grow
+		SpillFile spillFile = new SpillFile(Files.createTempFile("phenet", ".spill"), 16);
+		combiner.spill(spillFile);
+		spillFile.close();
+
+		RawPacket second = read(packed[1]);
+		for (int attempt = 0; attempt < 2; attempt++){
+			try {
+				combiner.read(second);
+				fail("The spill file is closed");
+			} catch (BudgetExceededException e){
+				// The failed packet is not counted, so a retry is not a duplicate
+				assertEquals(first.getBlock().length, combiner.getBufferedSize());
+				assertEquals(0, combiner.getDuplicates());
+			}
+		}
+	}
+
+	@Test
+	public void testReplayWindow() throws Exception {
+		ReassemblyEngine engine = new ReassemblyEngine(keyPair.getPrivateKey(), 1024*1024, 60000);
+		byte[][] recent = Packer.pack(keyPair.getPublicKey(), HOMOMORPHISMLEVEL, ReplayFilter.DEFAULT_WINDOW + 1, new byte[1024]);
+		byte[][] old = Packer.pack(keyPair.getPublicKey(), HOMOMORPHISMLEVEL, 1, new byte[1024]);
+		assertNull(engine.offer(read(recent[0])));
+
+		// Fell out of the window, dropped without creating a partial block
+		assertNull(engine.offer(read(old[0])));
+		assertEquals(1, engine.size());
+		assertEquals(1, engine.getReplayed());
+	}
+
+	@Test
+	public void testLatePackets() throws Exception {
+		ReassemblyEngine engine = new ReassemblyEngine(keyPair.getPrivateKey(), 1024*1024, 60000);
+		byte[] data = new byte[1024];
+		new Random().nextBytes(data);
+		byte[][] packed = Packer.pack(keyPair.getPublicKey(), HOMOMORPHISMLEVEL, 7, data);
+		int delivered = 0;
+		for (byte[] packet : packed){
+			byte[] block = engine.offer(read(packet));
+			if (block != null){
+				assertArrayEquals(data, block);
+				delivered++;
+			}
+		}
+		assertEquals(1, delivered);
+
+		// Retransmissions of a completed block neither hold budget nor deliver it again
+		for (byte[] packet : packed)
+			assertNull(engine.offer(read(packet)));
+		assertEquals(0, engine.size());
+		assertEquals(0, engine.getBufferedSize());
+		assertEquals(packed.length, engine.getReplayed());
+	}
+
+}
@@ -0,0 +1,71 @@
+package test.payload;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.math.BigInteger;
+import java.util.Random;
+
+import net.payload.Packer;
+import net.payload.PacketCombiner;
+import net.payload.RecipientCache;
+import net.payload.RecipientContext;
+
+import org.junit.Test;
+
+import crypto.impl.Paillier;
+import crypto.impl.PaillierKeyPair;
+
+public class TestRecipientCache {
+
+	/**
+	 * Keypairs to use for these tests (use a fast and a slow choice of g)
+	 */
+	private PaillierKeyPair fast = PaillierKeyPair.forceGenerate(PaillierKeyPair.DEFAULT_BITS, true);
+	private PaillierKeyPair slow = PaillierKeyPair.forceGenerate(PaillierKeyPair.DEFAULT_BITS, false);
+
+	/**
+	 * The amount of partitions to create
+	 */
+	private int HOMOMORPHISMLEVEL = 4;
+
+	@Test
+	public void testEncode() {
+		for (PaillierKeyPair keyPair : new PaillierKeyPair[] {fast, slow}){
+			RecipientContext context = new RecipientContext(keyPair.getPublicKey());
+			BigInteger max = keyPair.getPublicKey().getN().subtract(BigInteger.ONE);
+			BigInteger random = new BigInteger(keyPair.getPublicKey().getN().bitLength() - 1, new Random());
+			for (BigInteger m : new BigInteger[] {BigInteger.ZERO, BigInteger.ONE, random, max})
+				assertEquals(m, Paillier.decode(keyPair.getPrivateKey(), context.encode(m)));
+		}
+	}
+
+	@Test
+	public void testPack() throws Exception {
+		RecipientCache cache = new RecipientCache();
+		byte[] data = new byte[4096];
+		new Random().nextBytes(data);
+
+		byte[][] packed = Packer.pack(cache.get(slow.getPublicKey()), HOMOMORPHISMLEVEL, 1, data);
+		PacketCombiner combiner = new PacketCombiner(slow.getPrivateKey(), 1);
+		boolean finished = false;
+		for (byte[] packet : packed)
+			finished = combiner.read(Packer.read(slow.getPrivateKey(), new ByteArrayInputStream(packet)));
+		assertTrue(finished);
+		assertArrayEquals(data, combiner.finish());
+	}
+
+	@Test
+	public void testEviction() {
+		RecipientCache cache = new RecipientCache(1);
+		RecipientContext context = cache.get(fast.getPublicKey());
+
+		assertSame(context, cache.get(fast.getPublicKey()));
+		cache.get(slow.getPublicKey());
+		assertEquals(1, cache.size());
+		assertNotSame(context, cache.get(fast.getPublicKey()));
+		assertEquals(1, cache.getHits());
+		assertEquals(3, cache.getMisses());
+	}
+
+}
@@ -0,0 +1,71 @@
+package test.payload;
+
+import static org.junit.Assert.*;
+
+import net.payload.ReplayFilter;
+
+import org.junit.Test;
+
+public class TestReplayFilter {
+
+	private static byte[] id(int i){
+		return new byte[] {(byte) i, 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15};
+	}
+
+	@Test
+	public void testDuplicate() {
+		ReplayFilter filter = new ReplayFilter(64);
+
+		assertTrue(filter.accept(5, id(0)));
+		assertTrue(filter.accept(5, id(1)));
+		assertFalse(filter.accept(5, id(0)));
+		// Same channel id for another block
+		assertTrue(filter.accept(6, id(0)));
+		assertEquals(1, filter.getRejected());
+	}
+
+	@Test
+	public void testCompleted() {
+		ReplayFilter filter = new ReplayFilter(64);
+
+		assertTrue(filter.accept(5, id(0)));
+		filter.complete(5);
+		assertFalse(filter.accept(5, id(1)));
+		// Out of order, but within the window
+		assertTrue(filter.accept(3, id(0)));
+	}
+
+	@Test
+	public void testForget() {
+		ReplayFilter filter = new ReplayFilter(64);
+
+		assertTrue(filter.accept(5, id(0)));
+		filter.forget(5);
+		assertTrue(filter.accept(5, id(0)));
+		filter.complete(5);
+		assertFalse(filter.accept(5));
+		assertTrue(filter.accept(6));
+		assertEquals(1, filter.getRejected());
+	}
+
+	@Test
+	public void testWindow() {
+		ReplayFilter filter = new ReplayFilter(64);
+
+		assertTrue(filter.accept(1L << 40, id(0)));
+		filter.complete(1L << 40);
+		assertTrue(filter.accept((1L << 40) + 63, id(0)));
+		assertFalse(filter.accept(1L << 40, id(1)));
+		// Slid out of the window
+		assertTrue(filter.accept((1L << 40) + 64, id(0)));
+		assertFalse(filter.accept(1L << 40, id(2)));
+		assertFalse(filter.accept(0, id(0)));
+
+		// The bit of a completed sequence number is reused once the window passed it
+		filter.complete((1L << 40) + 64);
+		assertTrue(filter.accept((1L << 40) + 128, id(0)));
+		assertTrue(filter.accept((1L << 40) + 127, id(0)));
+		assertEquals(3, filter.getRejected());
+	}
+
+}
@@ -0,0 +1,128 @@
+package test.payload;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.security.InvalidKeyException;
+import java.util.Random;
+
+import javax.crypto.BadPaddingException;
+import javax.crypto.IllegalBlockSizeException;
+
+import net.payload.IllegalPacketException;
+import net.payload.SessionCache;
+import net.payload.SessionCombiner;
+import net.payload.SessionPacker;
+import net.payload.SessionPacket;
+
+import org.junit.Test;
+
+import crypto.impl.PaillierKeyPair;
+
+public class TestSessionPacker {
+
+	/**
+	 * The keysize to use PaillierKeyPair.DEFAULT_BITS = 1024
+	 */
+	private int KEYSIZE = PaillierKeyPair.DEFAULT_BITS;
+
+	/**
+	 * A keypair to use for these tests (use a fast choice of g)
+	 */
+	private PaillierKeyPair keyPair = PaillierKeyPair.forceGenerate(KEYSIZE, true);
+
+	/**
+	 * The amount of partitions to create
+	 */
+	private int HOMOMORPHISMLEVEL = 8;
+
+	/**
+	 * The amount of blocks per session
+	 */
+	private int REKEYBLOCKS = 4;
+
+	private byte[] random(int size){
+		byte[] data = new byte[size];
+		new Random().nextBytes(data);
+		return data;
+	}
+
+	private SessionCombiner combine(SessionCache cache, int seq, byte[][] packed) throws IOException, IllegalPacketException{
+		SessionCombiner combiner = new SessionCombiner(keyPair.getPrivateKey(), cache, seq);
+		for (byte[] message : packed)
+			combiner.read(SessionPacker.read(keyPair.getPrivateKey(), new ByteArrayInputStream(message)));
+		return combiner;
+	}
+
+	@Test
+	public void testSession() throws IllegalBlockSizeException, IOException, IllegalPacketException, InvalidKeyException, BadPaddingException {
+		SessionPacker packer = new SessionPacker(keyPair.getPublicKey(), HOMOMORPHISMLEVEL, REKEYBLOCKS, 60000);
+		SessionCache cache = new SessionCache(16);
+		for (int seq = 0; seq < REKEYBLOCKS; seq++){
+			byte[] data = random(16*1024);
+			byte[][] packed = packer.pack(seq, data);
+			SessionPacket first = SessionPacker.read(keyPair.getPrivateKey(), new ByteArrayInputStream(packed[0]));
+
+			// Only the first block of a session carries the key shares
+			assertEquals(seq == 0, first.hasKeyShare());
+
+			SessionCombiner combiner = combine(cache, seq, packed);
+			assertTrue(combiner.isComplete());
+			assertArrayEquals(data, combiner.finish());
+		}
+		assertEquals(1, cache.size());
+	}
+
+	@Test
+	public void testRekey() throws IllegalBlockSizeException {
+		SessionPacker packer = new SessionPacker(keyPair.getPublicKey(), HOMOMORPHISMLEVEL, REKEYBLOCKS, 60000);
+		packer.pack(0, random(1024));
+		long session = packer.getSessionId();
+		for (int seq = 1; seq < REKEYBLOCKS; seq++)
+			packer.pack(seq, random(1024));
+
+		assertEquals(session, packer.getSessionId());
+
+		packer.pack(REKEYBLOCKS, random(1024));
+
+		assertNotEquals(session, packer.getSessionId());
+	}
+
+	@Test
+	public void testOutOfOrder() throws IllegalBlockSizeException, IOException, IllegalPacketException, InvalidKeyException, BadPaddingException {
+		SessionPacker packer = new SessionPacker(keyPair.getPublicKey(), HOMOMORPHISMLEVEL, REKEYBLOCKS, 60000);
+		SessionCache cache = new SessionCache(16);
+		byte[] first = random(1024);
+		byte[] second = random(1024);
+		byte[][] packedFirst = packer.pack(0, first);
+		byte[][] packedSecond = packer.pack(1, second);
+
+		// The second block arrives before the session secret is known
+		SessionCombiner combiner = combine(cache, 1, packedSecond);
+		assertFalse(combiner.isComplete());
+
+		assertArrayEquals(first, combine(cache, 0, packedFirst).finish());
+		assertTrue(combiner.isComplete());
+		assertArrayEquals(second, combiner.finish());
+	}
+
+	@Test
+	public void testDuplicate() throws IllegalBlockSizeException, IOException, IllegalPacketException, InvalidKeyException, BadPaddingException {
+		SessionPacker packer = new SessionPacker(keyPair.getPublicKey(), HOMOMORPHISMLEVEL, REKEYBLOCKS, 60000);
+		SessionCache cache = new SessionCache(16);
+		byte[] data = random(16*1024);
+		byte[][] packed = packer.pack(0, data);
+
+		// A retransmitted share would break the key, and must not count as a partition
+		SessionCombiner combiner = new SessionCombiner(keyPair.getPrivateKey(), cache, 0);
+		for (int i = 0; i < packed.length; i++){
+			SessionPacket packet = SessionPacker.read(keyPair.getPrivateKey(), new ByteArrayInputStream(packed[i]));
+			assertEquals(i == packed.length - 1, combiner.read(packet));
+			if (i == 0)
+				assertFalse(combiner.read(SessionPacker.read(keyPair.getPrivateKey(), new ByteArrayInputStream(packed[0]))));
+		}
+		assertArrayEquals(data, combiner.finish());
+	}
+
+}
@@ -0,0 +1,99 @@
+package test.payload;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import net.payload.CompletedBlock;
+import net.payload.Packer;
+import net.payload.ShardedReceiver;
+
+import org.junit.Test;
+
+import crypto.impl.PaillierKeyPair;
+
+public class TestShardedReceiver {
+
+	/**
+	 * The keysize to use PaillierKeyPair.DEFAULT_BITS = 1024
+	 */
+	private int KEYSIZE = PaillierKeyPair.DEFAULT_BITS;
+
+	/**
+	 * A keypair to use for these tests (use a fast choice of g)
+	 */
+	private PaillierKeyPair keyPair = PaillierKeyPair.forceGenerate(KEYSIZE, true);
+
+	/**
+	 * The amount of partitions to create
+	 */
+	private int HOMOMORPHISMLEVEL = 4;
+
+	/**
+	 * The amount of sequence numbers in flight
+	 */
+	private int SEQUENCES = 24;
+
+	@Test(timeout=60000)
+	public void testSharded() throws Exception {
+		Map<Long, byte[]> data = new HashMap<>();
+		List<byte[]> packets = new ArrayList<>();
+		for (int seq = 0; seq < SEQUENCES; seq++){
+			byte[] block = new byte[4096];
+			new Random().nextBytes(block);
+			data.put((long) seq, block);
+			Collections.addAll(packets, Packer.pack(keyPair.getPublicKey(), HOMOMORPHISMLEVEL, seq, block));
+		}
+		Collections.shuffle(packets);
+
+		try (ShardedReceiver receiver = new ShardedReceiver(keyPair.getPrivateKey(), 4, 256, 60000)){
+			for (byte[] packet : packets)
+				assertTrue(receiver.route(packet));
+
+			int received = 0;
+			while (received < SEQUENCES){
+				CompletedBlock block = receiver.poll();
+				if (block == null){
+					Thread.sleep(1);
+					continue;
+				}
+				assertArrayEquals(data.remove(block.getSequenceNumber()), block.getData());
+				received++;
+			}
+			assertEquals(0, receiver.getRejected());
+
+			// Replayed packets of completed blocks are dropped before they are parsed
+			for (byte[] packet : packets)
+				assertTrue(receiver.route(packet));
+			while (receiver.getReplayed() < packets.size())
+				Thread.sleep(1);
+			assertNull(receiver.poll());
+		}
+		assertTrue(data.isEmpty());
+	}
+
+	@Test(timeout=60000)
+	public void testExpireUnderLoad() throws Exception {
+		// The first partitions of many blocks, each costing the shard a key decoding
+		byte[][] packets = new byte[SEQUENCES * 8][];
+		for (int seq = 0; seq < packets.length; seq++)
+			packets[seq] = Packer.pack(keyPair.getPublicKey(), 2, seq, new byte[256])[0];
+
+		try (ShardedReceiver receiver = new ShardedReceiver(keyPair.getPrivateKey(), 1, 16, 20)){
+			// Keep the queue full, partial blocks must expire before it ever drains
+			int routed = 0;
+			while (routed < packets.length && receiver.getExpired() == 0){
+				if (receiver.route(packets[routed]))
+					routed++;
+			}
+			assertTrue(routed < packets.length);
+			assertNull(receiver.poll());
+		}
+	}
+
+}
@@ -0,0 +1,174 @@
+package test.payload;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import javax.crypto.IllegalBlockSizeException;
+
+import net.payload.IllegalPacketException;
+import net.payload.Packer;
+import net.payload.PacketCombiner;
+import net.payload.RawPacket;
+import net.payload.ShareRelay;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import crypto.impl.PaillierKeyPair;
+
+public class TestShareRelay {
+
+	/**
+	 * A keypair to use for these tests (use a fast choice of g)
+	 */
+	private PaillierKeyPair keyPair = PaillierKeyPair.forceGenerate(PaillierKeyPair.DEFAULT_BITS, true);
+
+	/**
+	 * The buffer for random data
+	 */
+	byte[] data = new byte[32*1024];
+
+	/**
+	 * The amount of partitions to create
+	 */
+	private int HOMOMORPHISMLEVEL = 8;
+
+	@Before
+	public void setUp(){
+		new Random().nextBytes(data);
+	}
+
+	/**
+	 * Sink collecting the forwarded frames, or offering them to the next hop
+	 */
+	private static class Hop implements ShareRelay.Sink {
+
+		private final List<byte[]> frames = new ArrayList<>();
+		private ShareRelay next;
+
+		@Override
+		public void forward(long sequenceNumber, byte[] frame) {
+			if (next == null){
+				frames.add(frame);
+				return;
+			}
+			try {
+				next.offer(frame);
+			} catch (IllegalPacketException e) {
+				fail(e.getMessage());
+			}
+		}
+
+	}
+
+	@Test
+	public void testMultiHop() throws Exception {
+		byte[][] packed = Packer.pack(keyPair.getPublicKey(), HOMOMORPHISMLEVEL, 1, data);
+
+		// Two edge relays of half the channels each, merged by a last relay
+		Hop last = new Hop();
+		ShareRelay core = new ShareRelay(keyPair.getPublicKey(), 2, last);
+		Hop edge = new Hop();
+		edge.next = core;
+		ShareRelay left = new ShareRelay(keyPair.getPublicKey(), HOMOMORPHISMLEVEL / 2, edge);
+		ShareRelay right = new ShareRelay(keyPair.getPublicKey(), HOMOMORPHISMLEVEL / 2, edge);
+
+		int inSize = 0;
+		for (int i = 0; i < packed.length; i++){
+			inSize += packed[i].length;
+			(i % 2 == 0 ? left : right).offer(packed[i]);
+		}
+
+		assertEquals(1, last.frames.size());
+		byte[] frame = last.frames.get(0);
+		assertTrue(frame.length < inSize);
+
+		RawPacket[] packets = Packer.readAggregate(keyPair.getPrivateKey(), new ByteArrayInputStream(frame));
+		assertEquals(HOMOMORPHISMLEVEL, packets.length);
+		PacketCombiner combiner = new PacketCombiner(keyPair.getPrivateKey(), 1);
+		assertTrue(combiner.read(packets));
+		assertArrayEquals(data, combiner.finish());
+	}
+
+	@Test
+	public void testFlush() throws IOException, IllegalPacketException, IllegalBlockSizeException {
+		byte[][] packed = Packer.pack(keyPair.getPublicKey(), HOMOMORPHISMLEVEL, 1, data);
+		Hop last = new Hop();
+		ShareRelay relay = new ShareRelay(keyPair.getPublicKey(), HOMOMORPHISMLEVEL, last);
+
+		// The receiver combines a partial aggregate with the packets which took another path
+		relay.offer(packed[0]);
+		relay.offer(packed[1]);
+		assertEquals(1, relay.size());
+		relay.flush();
+		assertEquals(0, relay.size());
+
+		PacketCombiner combiner = new PacketCombiner(keyPair.getPrivateKey(), 1);
+		assertFalse(combiner.read(Packer.readAggregate(keyPair.getPrivateKey(), new ByteArrayInputStream(last.frames.get(0)))));
+		boolean finished = false;
+		for (int i = 2; i < packed.length; i++)
+			finished = combiner.read(Packer.readAggregate(keyPair.getPrivateKey(), new ByteArrayInputStream(packed[i])));
+		assertTrue(finished);
+	}
+
+	@Test
+	public void testDuplicate() throws Exception {
+		byte[][] packed = Packer.pack(keyPair.getPublicKey(), HOMOMORPHISMLEVEL, 1, data);
+		Hop last = new Hop();
+		ShareRelay relay = new ShareRelay(keyPair.getPublicKey(), HOMOMORPHISMLEVEL, last);
+
+		// A hedged copy neither squares its share nor counts as a frame
+		relay.offer(packed[0]);
+		assertFalse(relay.offer(packed[0]));
+		for (int i = 1; i < packed.length - 1; i++)
+			assertFalse(relay.offer(packed[i]));
+		assertTrue(last.frames.isEmpty());
+		assertTrue(relay.offer(packed[packed.length - 1]));
+		assertEquals(1, relay.getDuplicates());
+
+		PacketCombiner combiner = new PacketCombiner(keyPair.getPrivateKey(), 1);
+		assertTrue(combiner.read(Packer.readAggregate(keyPair.getPrivateKey(), new ByteArrayInputStream(last.frames.get(0)))));
+		assertArrayEquals(data, combiner.finish());
+	}
+
+	@Test
+	public void testOverlap() throws Exception {
+		byte[][] packed = Packer.pack(keyPair.getPublicKey(), HOMOMORPHISMLEVEL, 1, data);
+		Hop last = new Hop();
+		ShareRelay relay = new ShareRelay(keyPair.getPublicKey(), HOMOMORPHISMLEVEL / 2, last);
+		for (int i = 0; i < HOMOMORPHISMLEVEL / 2; i++)
+			relay.offer(packed[i]);
+
+		// The receiver already has a packet of the aggregate, whose share is divided out again
+		PacketCombiner combiner = new PacketCombiner(keyPair.getPrivateKey(), 1);
+		assertFalse(combiner.read(Packer.readAggregate(keyPair.getPrivateKey(), new ByteArrayInputStream(packed[0]))));
+		assertFalse(combiner.read(Packer.readAggregate(keyPair.getPrivateKey(), new ByteArrayInputStream(last.frames.get(0)))));
+		assertEquals(1, combiner.getDuplicates());
+		boolean finished = false;
+		for (int i = HOMOMORPHISMLEVEL / 2; i < packed.length; i++)
+			finished = combiner.read(Packer.readAggregate(keyPair.getPrivateKey(), new ByteArrayInputStream(packed[i])));
+		assertTrue(finished);
+		assertArrayEquals(data, combiner.finish());
+	}
+
+	@Test
+	public void testExpire() throws Exception {
+		byte[][] packed = Packer.pack(keyPair.getPublicKey(), HOMOMORPHISMLEVEL, 1, data);
+		Hop last = new Hop();
+		ShareRelay relay = new ShareRelay(keyPair.getPublicKey(), HOMOMORPHISMLEVEL, 100, last);
+		relay.offer(packed[0]);
+		relay.offer(packed[1]);
+
+		assertEquals(0, relay.expire(System.currentTimeMillis()));
+		assertEquals(1, relay.expire(System.currentTimeMillis() + 1000));
+		assertEquals(0, relay.size());
+		assertEquals(1, last.frames.size());
+		assertEquals(2, Packer.readAggregate(keyPair.getPrivateKey(), new ByteArrayInputStream(last.frames.get(0))).length);
+	}
+
+}
@@ -0,0 +1,62 @@
+package test.payload;
+
+import static org.junit.Assert.*;
+
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.ArrayDeque;
+import java.util.Random;
+
+import net.payload.SpillFile;
+
+import org.junit.Test;
+
+public class TestSpillFile {
+
+	/**
+	 * The size of a mapped region
+	 */
+	private int REGIONSIZE = 4096;
+
+	private ByteBuffer random(int size){
+		byte[] data = new byte[size];
+		new Random().nextBytes(data);
+		return ByteBuffer.wrap(data);
+	}
+
+	@Test
+	public void testReuse() throws Exception {
+		try (SpillFile file = new SpillFile(Files.createTempFile("phenet", ".spill"), REGIONSIZE)){
+			ByteBuffer kept = random(100);
+			ByteBuffer keptView = file.append(kept);
+			// Sustained spilling, with a few records live at any time besides the kept one
+			ArrayDeque<ByteBuffer> views = new ArrayDeque<>();
+			for (int i = 0; i < 1000; i++){
+				views.add(file.append(random(300)));
+				if (views.size() > 8)
+					file.free(views.poll());
+			}
+			while (!views.isEmpty())
+				file.free(views.poll());
+
+			assertEquals(100, file.getLive());
+			assertTrue(file.getSize() <= 3 * REGIONSIZE);
+			assertEquals(kept.rewind(), keptView);
+		}
+	}
+
+	@Test
+	public void testLargeRecord() throws Exception {
+		try (SpillFile file = new SpillFile(Files.createTempFile("phenet", ".spill"), REGIONSIZE)){
+			ByteBuffer large = random(3 * REGIONSIZE);
+			ByteBuffer view = file.append(large);
+			assertEquals(large, view);
+			assertEquals(1, file.getRegions());
+
+			file.free(view);
+			assertEquals(0, file.getLive());
+			assertEquals(0, file.getRegions());
+		}
+	}
+
+}
@@ -0,0 +1,78 @@
+package test.payload;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.security.InvalidKeyException;
+import java.util.Random;
+
+import javax.crypto.BadPaddingException;
+import javax.crypto.IllegalBlockSizeException;
+
+import net.payload.IllegalPacketException;
+import net.payload.ThresholdCombiner;
+import net.payload.ThresholdPacker;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import crypto.impl.PaillierKeyPair;
+
+public class TestThresholdPacker {
+
+	/**
+	 * A keypair to use for these tests (use a fast choice of g)
+	 */
+	private PaillierKeyPair keyPair = PaillierKeyPair.forceGenerate(PaillierKeyPair.DEFAULT_BITS, true);
+
+	/**
+	 * The buffer for random data
+	 */
+	byte[] data = new byte[64*1024 + 5];
+
+	private int THRESHOLD = 3;
+	private int HOMOMORPHISMLEVEL = 5;
+
+	@Before
+	public void setUp(){
+		new Random().nextBytes(data);
+	}
+
+	@Test
+	public void testLostPartitions() throws IllegalBlockSizeException, IOException, IllegalPacketException, InvalidKeyException, BadPaddingException {
+		byte[][] packed = ThresholdPacker.pack(keyPair.getPublicKey(), THRESHOLD, HOMOMORPHISMLEVEL, 1, data);
+		ThresholdCombiner combiner = new ThresholdCombiner(keyPair.getPrivateKey(), 1);
+
+		// Two of the packets are lost
+		boolean finished = false;
+		for (int i = 0; i < THRESHOLD; i++){
+			assertFalse(finished);
+			finished = combiner.read(ThresholdPacker.read(keyPair.getPrivateKey(), new ByteArrayInputStream(packed[i])));
+		}
+
+		assertTrue(finished);
+		assertArrayEquals(data, combiner.finish());
+	}
+
+	@Test
+	public void testStragglers() throws IllegalBlockSizeException, IOException, IllegalPacketException, InvalidKeyException, BadPaddingException {
+		byte[][] packed = ThresholdPacker.pack(keyPair.getPublicKey(), THRESHOLD, HOMOMORPHISMLEVEL, 1, data);
+		ThresholdCombiner combiner = new ThresholdCombiner(keyPair.getPrivateKey(), 1);
+
+		for (byte[] packet : packed)
+			combiner.read(ThresholdPacker.read(keyPair.getPrivateKey(), new ByteArrayInputStream(packet)));
+
+		assertArrayEquals(data, combiner.finish());
+	}
+
+	@Test(expected=IllegalPacketException.class)
+	public void testDuplicate() throws IllegalBlockSizeException, IOException, IllegalPacketException {
+		byte[][] packed = ThresholdPacker.pack(keyPair.getPublicKey(), THRESHOLD, HOMOMORPHISMLEVEL, 1, data);
+		ThresholdCombiner combiner = new ThresholdCombiner(keyPair.getPrivateKey(), 1);
+
+		combiner.read(ThresholdPacker.read(keyPair.getPrivateKey(), new ByteArrayInputStream(packed[0])));
+		combiner.read(ThresholdPacker.read(keyPair.getPrivateKey(), new ByteArrayInputStream(packed[0])));
+	}
+
+}
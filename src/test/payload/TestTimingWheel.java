@@ -0,0 +1,39 @@
+package test.payload;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+
+import net.payload.TimingWheel;
+
+import org.junit.Test;
+
+public class TestTimingWheel {
+
+	@Test
+	public void testAdvance() {
+		TimingWheel<String> wheel = new TimingWheel<>(10, 8, 0);
+		wheel.schedule("a", 15);
+		wheel.schedule("b", 200);
+
+		assertTrue(wheel.advance(10).isEmpty());
+		assertEquals(Arrays.asList("a"), wheel.advance(20));
+		// Wrapped around the wheel, but not yet due
+		assertTrue(wheel.advance(120).isEmpty());
+		assertEquals(Arrays.asList("b"), wheel.advance(200));
+		assertEquals(0, wheel.size());
+	}
+
+	@Test
+	public void testCancel() {
+		TimingWheel<String> wheel = new TimingWheel<>(10, 8, 0);
+		TimingWheel.Timeout<String> a = wheel.schedule("a", 15);
+		wheel.schedule("b", 15);
+
+		assertTrue(wheel.cancel(a));
+		assertFalse(wheel.cancel(a));
+		assertEquals(1, wheel.size());
+		assertEquals(Arrays.asList("b"), wheel.advance(20));
+	}
+
+}
@@ -0,0 +1,100 @@
+package test.transport;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import net.payload.CompletedBlock;
+import net.payload.Packer;
+import net.payload.ReassemblyEngine;
+import net.transport.ChannelServer;
+import crypto.impl.PaillierKeyPair;
+
+/**
+ * Class for benchmarking the ChannelServer with a thread per connection
+ * against a fixed pool of platform threads, for many loopback connections
+ *
+ * Usage: ServerBatch [connections]
+ */
+public class ServerBatch {
+
+	/**
+	 * A small keysize, this benchmarks connection handling rather than Paillier
+	 */
+	private static int KEYSIZE = 512;
+
+	/**
+	 * A keypair to use for these tests (use a fast choice of g)
+	 */
+	private static PaillierKeyPair keyPair = PaillierKeyPair.forceGenerate(KEYSIZE, true);
+
+	/**
+	 * Size in bytes of the random data per block
+	 */
+	private static int DATASIZE = 1024;
+
+	/**
+	 * The amount of partitions, every partition uses its own connection
+	 */
+	private static int HOMOMORPHISMLEVEL = 2;
+
+	/**
+	 * The amount of platform threads in the fixed pool
+	 */
+	private static int POOLSIZE = 200;
+
+	/**
+	 * Open all connections at once, then send one packet over each
+	 */
+	private static long run(byte[][] packets, ExecutorService connections) throws IOException, InterruptedException {
+		final AtomicInteger done = new AtomicInteger();
+		ReassemblyEngine engine = new ReassemblyEngine(keyPair.getPrivateKey(), Long.MAX_VALUE, 600000);
+		ChannelServer server = new ChannelServer(keyPair.getPrivateKey(), new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), engine,
+				new Consumer<CompletedBlock>(){
+					@Override
+					public void accept(CompletedBlock block) {
+						done.incrementAndGet();
+					}
+				}, connections, Runtime.getRuntime().availableProcessors());
+		Socket[] sockets = new Socket[packets.length];
+		try {
+			long stime = System.nanoTime();
+			for (int i = 0; i < sockets.length; i++)
+				sockets[i] = new Socket(server.getLocalAddress().getAddress(), server.getLocalAddress().getPort());
+			for (int i = 0; i < sockets.length; i++){
+				OutputStream os = sockets[i].getOutputStream();
+				os.write(packets[i]);
+				os.flush();
+				sockets[i].shutdownOutput();
+			}
+			while (done.get() < packets.length/HOMOMORPHISMLEVEL)
+				Thread.sleep(1);
+			return System.nanoTime() - stime;
+		} finally {
+			for (Socket socket : sockets)
+				if (socket != null)
+					socket.close();
+			server.close();
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+		int connections = args.length > 0 ? Integer.parseInt(args[0]) : 10000;
+		byte[][] packets = new byte[connections - connections % HOMOMORPHISMLEVEL][];
+		for (int seq = 0; seq < packets.length/HOMOMORPHISMLEVEL; seq++){
+			byte[] data = new byte[DATASIZE];
+			new Random().nextBytes(data);
+			System.arraycopy(Packer.pack(keyPair.getPublicKey(), HOMOMORPHISMLEVEL, seq, data), 0, packets, seq*HOMOMORPHISMLEVEL, HOMOMORPHISMLEVEL);
+		}
+		System.out.println("Thread per connection: " + run(packets, ChannelServer.threadPerConnection())/1e9d + "s");
+		System.out.println("Pool of " + POOLSIZE + " platform threads: " + run(packets, Executors.newFixedThreadPool(POOLSIZE))/1e9d + "s");
+	}
+
+}
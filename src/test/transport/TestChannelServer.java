@@ -0,0 +1,95 @@
+package test.transport;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.Random;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import net.payload.CompletedBlock;
+import net.payload.Packer;
+import net.payload.ReassemblyEngine;
+import net.transport.ChannelServer;
+
+import org.junit.Test;
+
+import crypto.impl.PaillierKeyPair;
+
+public class TestChannelServer {
+
+	/**
+	 * The keysize to use PaillierKeyPair.DEFAULT_BITS = 1024
+	 */
+	private int KEYSIZE = PaillierKeyPair.DEFAULT_BITS;
+
+	/**
+	 * A keypair to use for these tests (use a fast choice of g)
+	 */
+	private PaillierKeyPair keyPair = PaillierKeyPair.forceGenerate(KEYSIZE, true);
+
+	/**
+	 * The amount of partitions (and thus connections) to create
+	 */
+	private int HOMOMORPHISMLEVEL = 4;
+
+	@Test(timeout=60000)
+	public void testChannels() throws Exception {
+		byte[] data = new byte[64*1024];
+		new Random().nextBytes(data);
+		byte[][] packed = Packer.pack(keyPair.getPublicKey(), HOMOMORPHISMLEVEL, 1, data);
+
+		final BlockingQueue<CompletedBlock> completed = new LinkedBlockingQueue<>();
+		ReassemblyEngine engine = new ReassemblyEngine(keyPair.getPrivateKey(), 16*1024*1024, 60000);
+		ChannelServer server = new ChannelServer(keyPair.getPrivateKey(), new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), engine,
+				new Consumer<CompletedBlock>(){
+					@Override
+					public void accept(CompletedBlock block) {
+						completed.add(block);
+					}
+				});
+		try {
+			// Every partition travels over its own connection
+			for (byte[] packet : packed){
+				try (Socket socket = new Socket(server.getLocalAddress().getAddress(), server.getLocalAddress().getPort())){
+					OutputStream os = socket.getOutputStream();
+					os.write(packet);
+					os.flush();
+				}
+			}
+			CompletedBlock block = completed.poll(30, TimeUnit.SECONDS);
+
+			assertNotNull(block);
+			assertEquals(1, block.getSequenceNumber());
+			assertArrayEquals(data, block.getData());
+			assertEquals(0, server.getRejected());
+		} finally {
+			server.close();
+		}
+		assertEquals(0, server.getConnections());
+	}
+
+	@Test(timeout=60000)
+	public void testShutdown() throws IOException {
+		ReassemblyEngine engine = new ReassemblyEngine(keyPair.getPrivateKey(), 16*1024*1024, 60000);
+		ChannelServer server = new ChannelServer(keyPair.getPrivateKey(), new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), engine,
+				new Consumer<CompletedBlock>(){
+					@Override
+					public void accept(CompletedBlock block) {
+					}
+				});
+		// Idle connections must not keep the server from shutting down
+		Socket idle = new Socket(server.getLocalAddress().getAddress(), server.getLocalAddress().getPort());
+		server.close();
+		idle.close();
+
+		assertEquals(0, server.getConnections());
+	}
+
+}
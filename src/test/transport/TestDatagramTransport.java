@@ -0,0 +1,150 @@
+package test.transport;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.security.InvalidKeyException;
+import java.util.Random;
+
+import javax.crypto.BadPaddingException;
+import javax.crypto.IllegalBlockSizeException;
+
+import net.payload.IllegalPacketException;
+import net.payload.Packer;
+import net.transport.DatagramTransport;
+import net.transport.IncompleteSequenceException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import crypto.impl.PaillierKeyPair;
+
+public class TestDatagramTransport {
+
+	/**
+	 * The keysize to use PaillierKeyPair.DEFAULT_BITS = 1024
+	 */
+	private int KEYSIZE = PaillierKeyPair.DEFAULT_BITS;
+
+	/**
+	 * A keypair to use for these tests (use a fast choice of g)
+	 */
+	private PaillierKeyPair keyPair = PaillierKeyPair.forceGenerate(KEYSIZE, true);
+
+	/**
+	 * The buffer for random data, small enough to fit the default MTU
+	 */
+	byte[] data = new byte[2048];
+
+	/**
+	 * The amount of partitions to create
+	 */
+	private int HOMOMORPHISMLEVEL = 8;
+
+	private DatagramTransport sender;
+	private DatagramTransport receiver;
+
+	@Before
+	public void setUp() throws IOException{
+		new Random().nextBytes(data);
+		sender = new DatagramTransport(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+		receiver = new DatagramTransport(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+	}
+
+	@After
+	public void tearDown() throws IOException{
+		sender.close();
+		receiver.close();
+	}
+
+	@Test
+	public void testFitsMTU() throws IllegalBlockSizeException {
+		byte[][] packed = Packer.pack(keyPair.getPublicKey(), HOMOMORPHISMLEVEL, 1, data, sender.getMTU());
+
+		assertEquals(HOMOMORPHISMLEVEL, packed.length);
+		for (byte[] packet : packed)
+			assertTrue(packet.length <= sender.getMTU());
+	}
+
+	@Test(expected=IllegalBlockSizeException.class)
+	public void testTooLarge() throws IllegalBlockSizeException {
+		Packer.pack(keyPair.getPublicKey(), HOMOMORPHISMLEVEL, 1, new byte[HOMOMORPHISMLEVEL*sender.getMTU()], sender.getMTU());
+	}
+
+	@Test
+	public void testSendReceive() throws IllegalBlockSizeException, IOException, IncompleteSequenceException, IllegalPacketException, InvalidKeyException, BadPaddingException {
+		byte[][] packed = Packer.pack(keyPair.getPublicKey(), HOMOMORPHISMLEVEL, 1, data, sender.getMTU());
+
+		assertEquals(HOMOMORPHISMLEVEL, sender.send(receiver.getLocalAddress(), packed));
+
+		byte[] decrypted = receiver.collect(keyPair.getPrivateKey(), sender.getLocalAddress(), 1, 5000);
+
+		assertArrayEquals(data, decrypted);
+	}
+
+	@Test
+	public void testInterleaved() throws IllegalBlockSizeException, IOException, IncompleteSequenceException, IllegalPacketException, InvalidKeyException, BadPaddingException {
+		byte[] other = new byte[1024];
+		new Random().nextBytes(other);
+		sender.send(receiver.getLocalAddress(), Packer.pack(keyPair.getPublicKey(), HOMOMORPHISMLEVEL, 1, data, sender.getMTU()));
+		sender.send(receiver.getLocalAddress(), Packer.pack(keyPair.getPublicKey(), HOMOMORPHISMLEVEL, 2, other, sender.getMTU()));
+
+		SocketAddress peer = sender.getLocalAddress();
+		assertArrayEquals(other, receiver.collect(keyPair.getPrivateKey(), peer, 2, 5000));
+		assertArrayEquals(data, receiver.collect(keyPair.getPrivateKey(), peer, 1, 5000));
+	}
+
+	@Test
+	public void testDuplicate() throws IllegalBlockSizeException, IOException, IncompleteSequenceException, IllegalPacketException, InvalidKeyException, BadPaddingException {
+		byte[][] packed = Packer.pack(keyPair.getPublicKey(), HOMOMORPHISMLEVEL, 1, data, sender.getMTU());
+		// A duplicated partition would break the key if it were combined
+		sender.send(receiver.getLocalAddress(), new byte[][] {packed[0], packed[0]});
+		sender.send(receiver.getLocalAddress(), packed);
+
+		SocketAddress peer = sender.getLocalAddress();
+		assertArrayEquals(data, receiver.collect(keyPair.getPrivateKey(), peer, 1, 5000));
+		assertEquals(2, receiver.getReplayed(peer));
+	}
+
+	@Test
+	public void testLoss() throws IllegalBlockSizeException, IOException, IllegalPacketException, InvalidKeyException, BadPaddingException {
+		byte[][] packed = Packer.pack(keyPair.getPublicKey(), HOMOMORPHISMLEVEL, 1, data, sender.getMTU());
+		// Simulate the loss of a single path
+		byte[][] lossy = new byte[HOMOMORPHISMLEVEL-1][];
+		System.arraycopy(packed, 1, lossy, 0, lossy.length);
+		sender.send(receiver.getLocalAddress(), lossy);
+
+		try {
+			receiver.collect(keyPair.getPrivateKey(), sender.getLocalAddress(), 1, 500);
+			fail("Collected an incomplete sequence");
+		} catch (IncompleteSequenceException e){
+			assertEquals(1, e.getSequenceNumber());
+			assertEquals(HOMOMORPHISMLEVEL-1, e.getReceived());
+		}
+	}
+
+	@Test
+	public void testRetransmit() throws IllegalBlockSizeException, IOException, IncompleteSequenceException, IllegalPacketException, InvalidKeyException, BadPaddingException {
+		byte[][] packed = Packer.pack(keyPair.getPublicKey(), HOMOMORPHISMLEVEL, 1, data, sender.getMTU());
+		byte[][] lossy = new byte[HOMOMORPHISMLEVEL-1][];
+		System.arraycopy(packed, 1, lossy, 0, lossy.length);
+		sender.send(receiver.getLocalAddress(), lossy);
+		SocketAddress peer = sender.getLocalAddress();
+		try {
+			receiver.collect(keyPair.getPrivateKey(), peer, 1, 500);
+			fail("Collected an incomplete sequence");
+		} catch (IncompleteSequenceException e){
+			assertEquals(HOMOMORPHISMLEVEL-1, e.getReceived());
+		}
+
+		// The packets consumed by the failed attempt are accepted again
+		sender.send(receiver.getLocalAddress(), packed);
+		assertArrayEquals(data, receiver.collect(keyPair.getPrivateKey(), peer, 1, 5000));
+		assertEquals(0, receiver.getReplayed(peer));
+	}
+
+}
@@ -0,0 +1,129 @@
+package test.transport;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import net.payload.Packer;
+import net.payload.PacketCombiner;
+import net.payload.RawPacket;
+import net.transport.HedgedSender;
+
+import org.junit.Test;
+
+import crypto.impl.PaillierKeyPair;
+
+public class TestHedgedSender {
+
+	/**
+	 * A keypair to use for these tests (use a fast choice of g)
+	 */
+	private PaillierKeyPair keyPair = PaillierKeyPair.forceGenerate(PaillierKeyPair.DEFAULT_BITS, true);
+
+	/**
+	 * The amount of channels to send over
+	 */
+	private int CHANNELS = 4;
+
+	/**
+	 * The channel suffering a latency spike
+	 */
+	private int STRAGGLER = 2;
+
+	/**
+	 * Channel queueing its packets until they are delivered
+	 */
+	private static class Path implements HedgedSender.Channel {
+
+		private final List<byte[]> queue = new ArrayList<>();
+
+		@Override
+		public void send(byte[] packet) throws IOException {
+			queue.add(packet);
+		}
+
+	}
+
+	@Test
+	public void testHedge() throws Exception {
+		List<Path> paths = new ArrayList<>();
+		for (int i = 0; i < CHANNELS; i++)
+			paths.add(new Path());
+		HedgedSender sender = new HedgedSender(keyPair.getPublicKey(), new ArrayList<HedgedSender.Channel>(paths), 0.99, 1000000000L);
+		byte[] data = new byte[8192];
+		new Random().nextBytes(data);
+		byte[][] packed = Packer.packWeighted(keyPair.getPublicKey(), 1, data, new double[] {1, 1, 1, 1}, 0.1);
+		PacketCombiner combiner = new PacketCombiner(keyPair.getPrivateKey(), 1);
+
+		sender.send(1, packed, 0);
+		// Every path but the straggler delivers after 1 ms
+		boolean finished = false;
+		for (int i = 0; i < CHANNELS; i++){
+			if (i == STRAGGLER)
+				continue;
+			RawPacket raw = Packer.read(keyPair.getPrivateKey(), new ByteArrayInputStream(paths.get(i).queue.remove(0)));
+			finished |= combiner.read(raw);
+			assertTrue(sender.acknowledge(1, raw.getEncChannelId(), 1000000L));
+		}
+		assertFalse(finished);
+		assertEquals(1000000L, sender.getDeadline(0));
+		assertEquals(1000000000L, sender.getDeadline(STRAGGLER));
+
+		// Only hedged after the deadline of the straggler
+		assertEquals(0, sender.hedge(500000000L));
+		assertEquals(1, sender.hedge(2000000000L));
+		assertEquals(0, sender.hedge(3000000000L));
+		assertEquals(1, sender.getHedged());
+
+		int hedgedOn = -1;
+		for (int i = 0; i < CHANNELS; i++)
+			if (i != STRAGGLER && !paths.get(i).queue.isEmpty())
+				hedgedOn = i;
+		assertTrue(hedgedOn >= 0);
+		RawPacket hedge = Packer.read(keyPair.getPrivateKey(), new ByteArrayInputStream(paths.get(hedgedOn).queue.remove(0)));
+		assertTrue(combiner.read(hedge));
+		assertTrue(sender.acknowledge(1, hedge.getEncChannelId(), 2001000000L));
+		assertEquals(0, sender.size());
+
+		// The late original is a duplicate, which may not corrupt the key
+		RawPacket late = Packer.read(keyPair.getPrivateKey(), new ByteArrayInputStream(paths.get(STRAGGLER).queue.remove(0)));
+		assertTrue(combiner.read(late));
+		assertEquals(1, combiner.getDuplicates());
+		assertArrayEquals(data, combiner.finish());
+	}
+
+	@Test
+	public void testHedgeUnderLoad() throws Exception {
+		List<Path> paths = new ArrayList<>();
+		for (int i = 0; i < CHANNELS; i++)
+			paths.add(new Path());
+		HedgedSender sender = new HedgedSender(keyPair.getPublicKey(), new ArrayList<HedgedSender.Channel>(paths), 0.99, 1000000000L);
+		byte[] data = new byte[1024];
+		double[] weights = new double[] {1, 1, 1, 1};
+
+		sender.send(1, Packer.packWeighted(keyPair.getPublicKey(), 1, data, weights, 0.1), 0);
+		for (int i = 0; i < CHANNELS; i++){
+			byte[] packet = paths.get(i).queue.remove(0);
+			if (i != STRAGGLER)
+				assertTrue(sender.acknowledge(1, Packer.peekChannelId(packet, keyPair.getPublicKey().getBitspace()), 1000000L));
+		}
+
+		// Two more blocks in flight on every channel, of which the last channel delivered one
+		int last = CHANNELS - 1;
+		sender.send(2, Packer.packWeighted(keyPair.getPublicKey(), 1, data, weights, 0.1), 2000000000L);
+		sender.send(3, Packer.packWeighted(keyPair.getPublicKey(), 1, data, weights, 0.1), 2000000000L);
+		byte[] packet = paths.get(last).queue.remove(0);
+		assertTrue(sender.acknowledge(2, Packer.peekChannelId(packet, keyPair.getPublicKey().getBitspace()), 2001000000L));
+
+		// The straggler is hedged anyway, over the least loaded of the fast channels
+		assertEquals(1, sender.hedge(2001000000L));
+		assertEquals(2, paths.get(last).queue.size());
+		for (int i = 0; i < last; i++)
+			assertEquals(2, paths.get(i).queue.size());
+	}
+
+}